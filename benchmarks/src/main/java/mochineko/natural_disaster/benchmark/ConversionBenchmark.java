@@ -0,0 +1,55 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.api.P2PTime;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 時刻の変換と、震度の変換のベンチマークです。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    /**
+     * P2P地震情報で使われる震度の値と、範囲外の値
+     */
+    private static final int[] SCALES = {-1, 10, 20, 30, 40, 45, 46, 50, 55, 60, 65, 70, 99};
+
+    private final String[] times = {
+            "2024/01/01 16:10:00",
+            "2024/01/01 16:25:01.345",
+            "2024/01/01 16:10:23.016",
+            "2024/01/01 16:22:31.5"
+    };
+    private int index;
+
+    @Benchmark
+    public ZonedDateTime parseTime() {
+        index = (index + 1) & 3;
+        return P2PTime.parse(times[index]);
+    }
+
+    @Benchmark
+    public void convertScale(Blackhole blackhole) {
+        for (int scale : SCALES) {
+            blackhole.consume(EarthquakeScaleType.convertP2PAPI(scale));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import mochineko.natural_disaster.monitor.P2PQuakeEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 取得したJSONを、各APIのクラスへデコードする処理のベンチマークです。
+ * デコードの後の処理（時刻の変換・震度ごとのまとめ）も含まれます。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    /**
+     * 大きい地震情報の観測点の数
+     */
+    @Param({"5000"})
+    public int points;
+
+    private String hugeEarthquake;
+    private String history;
+
+    @Setup
+    public void setup() {
+        hugeEarthquake = Fixtures.hugeEarthquake(points);
+        // 定期取得と同じく、複数の種類が混ざった履歴
+        history = "[" + strip(Fixtures.EEW) + "," + strip(Fixtures.TSUNAMI) + "," + strip(Fixtures.EARTHQUAKE) + "]";
+    }
+
+    @Benchmark
+    public P2PEarthquakeAPI[] earthquakeSmall() throws IOException {
+        return P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.EARTHQUAKE), P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new);
+    }
+
+    @Benchmark
+    public P2PEarthquakeAPI[] earthquakeHuge() throws IOException {
+        return P2PQuakeDecoder.decodeArray(new StringReader(hugeEarthquake), P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new);
+    }
+
+    @Benchmark
+    public P2PEEWAPI[] eew() throws IOException {
+        return P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.EEW), P2PQuakeDecoder.EEW_ADAPTER, P2PEEWAPI[]::new);
+    }
+
+    @Benchmark
+    public P2PTsunamiAPI[] tsunami() throws IOException {
+        return P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.TSUNAMI), P2PQuakeDecoder.TSUNAMI_ADAPTER, P2PTsunamiAPI[]::new);
+    }
+
+    @Benchmark
+    public List<P2PQuakeEntry> mixedHistory() throws IOException {
+        return P2PQuakeDecoder.decodeHistory(new StringReader(history), id -> false);
+    }
+
+    /**
+     * 配列の「[」「]」を取り除く
+     */
+    private static String strip(String array) {
+        String trimmed = array.trim();
+        return trimmed.substring(1, trimmed.length() - 1);
+    }
+}
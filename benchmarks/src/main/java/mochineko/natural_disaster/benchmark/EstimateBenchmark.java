@@ -0,0 +1,64 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.geo.IntensityEstimator;
+import mochineko.natural_disaster.geo.IntensityGrid;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 緊急地震速報の震源から、格子と地点の震度を推定する処理のベンチマークです。
+ * 結果は震源ごとにキャッシュされるため、マグニチュードを少しずつ変えて毎回計算させます。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EstimateBenchmark {
+
+    /**
+     * 格子の間隔（度）。0.1で約7万点、0.05で約28万点
+     */
+    @Param({"0.1", "0.05"})
+    public double step;
+
+    /**
+     * 推定に使うスレッドの数
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    private int count;
+
+    @Setup
+    public void setup() {
+        MemoryConfiguration section = new MemoryConfiguration();
+        section.set("threads", threads);
+        section.set("grid.step", step);
+        IntensityEstimator.configure(section);
+    }
+
+    @TearDown
+    public void tearDown() {
+        IntensityEstimator.stop();
+    }
+
+    @Benchmark
+    public IntensityGrid estimate() {
+        return IntensityEstimator.estimate(37.5, 137.2, 10, 7.0 + (count++ % 1000) * 1e-4);
+    }
+}
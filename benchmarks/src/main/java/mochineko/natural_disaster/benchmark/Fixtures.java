@@ -0,0 +1,116 @@
+package mochineko.natural_disaster.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import mochineko.natural_disaster.message.MessageRenderer;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ベンチマークで使うP2P地震情報のデータです。
+ * 小さいデータは resources/fixtures にあるP2P地震情報の形式のJSONを使い、
+ * 令和6年能登半島地震のような観測点が数千件ある地震情報は、実行時に作成します。
+ */
+final class Fixtures {
+
+    static final String EARTHQUAKE = read("fixtures/earthquake-551.json");
+    static final String EEW = read("fixtures/eew-556.json");
+    static final String TSUNAMI = read("fixtures/tsunami-552.json");
+    /**
+     * WebSocketで受信する1件の緊急地震速報。履歴と違い「id」が無く、「_id」だけがある
+     */
+    static final String WEBSOCKET_EEW = read("fixtures/websocket-556.json");
+    /**
+     * WebSocketで受信するピア数の情報（コード555）。処理せずに捨てる
+     */
+    static final String WEBSOCKET_PEERS = "{\"_id\":\"65925e2a0f1b0b7e5a6f1c01\",\"code\":555,"
+            + "\"areas\":[{\"id\":250,\"peer\":12},{\"id\":275,\"peer\":8}],"
+            + "\"created_at\":\"2024/01/01 16:11:06.123\",\"hop\":2,\"time\":\"2024/01/01 16:11:06.123\"}";
+
+    private static final String[] PREFS = {
+            "石川県", "富山県", "新潟県", "福井県", "長野県", "岐阜県", "山形県", "福島県", "群馬県", "栃木県",
+            "埼玉県", "東京都", "神奈川県", "静岡県", "愛知県", "滋賀県", "京都府", "大阪府", "兵庫県", "宮城県"
+    };
+    private static final int[] SCALES = {10, 20, 30, 40, 45, 50, 55, 60, 70};
+
+    private Fixtures() {
+    }
+
+    /**
+     * 観測点がpoints件ある地震情報を1件だけ含む配列を作成する関数。
+     * 震度は小さいものほど多くなるように分布させる。
+     */
+    static String hugeEarthquake(int points) {
+        StringBuilder json = new StringBuilder(points * 80 + 1024);
+        json.append("[{\"_id\":\"65926c1b0f1b0b7e5a6f1c3e\",\"code\":551,\"id\":\"65926c1b0f1b0b7e5a6f1c3e\",")
+                .append("\"earthquake\":{\"domesticTsunami\":\"Warning\",\"foreignTsunami\":\"Unknown\",")
+                .append("\"hypocenter\":{\"depth\":10,\"latitude\":37.5,\"longitude\":137.3,\"magnitude\":7.6,\"name\":\"石川県能登地方\"},")
+                .append("\"maxScale\":70,\"time\":\"2024/01/01 16:10:00\"},")
+                .append("\"issue\":{\"source\":\"気象庁\",\"time\":\"2024/01/01 16:45:00\",\"type\":\"DetailScale\",\"correct\":\"None\"},")
+                .append("\"points\":[");
+        for (int i = 0; i < points; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String pref = PREFS[i % PREFS.length];
+            // 先頭の観測点ほど震度が大きく、後ろほど小さくなる
+            int scale = SCALES[Math.max(0, SCALES.length - 1 - (int) Math.sqrt(i * 100.0 / points) - i % 2)];
+            json.append("{\"addr\":\"").append(pref, 0, pref.length() - 1).append("観測点").append(i)
+                    .append("\",\"isArea\":false,\"pref\":\"").append(pref)
+                    .append("\",\"scale\":").append(scale).append('}');
+        }
+        json.append("],\"time\":\"2024/01/01 16:45:02.871\",")
+                .append("\"timestamp\":{\"convert\":\"2024/01/01 16:45:02.871\",\"register\":\"2024/01/01 16:45:02.871\"},")
+                .append("\"user_agent\":\"jmaxml-seis-parser-go, relay, register-api\",\"ver\":\"20231023\"}]");
+        return json.toString();
+    }
+
+    /**
+     * 各情報から「id」「_id」と発表時刻を取り除いたJSONを返す関数。
+     * 描画結果はIDか発表時刻で使い回されるため、毎回描画する処理を測るときに使う。
+     */
+    static String withoutIds(String json) {
+        JsonArray array = JsonParser.parseString(json).getAsJsonArray();
+        for (JsonElement element : array) {
+            JsonObject object = element.getAsJsonObject();
+            object.remove("id");
+            object.remove("_id");
+            object.remove("time");
+        }
+        return array.toString();
+    }
+
+    /**
+     * プラグインに同梱されている messages_ja.yml でMessageRendererを作成する関数
+     */
+    static MessageRenderer renderer() {
+        InputStream stream = Fixtures.class.getClassLoader().getResourceAsStream("messages_ja.yml");
+        if (stream == null) {
+            throw new IllegalStateException("messages_ja.yml is not on the classpath");
+        }
+        try (InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            return MessageRenderer.create(YamlConfiguration.loadConfiguration(reader), new MemoryConfiguration());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String read(String name) {
+        try (InputStream stream = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IllegalStateException(name + " is not on the classpath");
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.status.TsunamiGrade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 観測点を震度ごとに、予報区を津波の等級ごとにまとめる処理のベンチマークです。
+ * getScaleMap・getGradeMapは結果を使い回すため、毎回まとめ直す groupByScale・groupByGrade を測ります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupingBenchmark {
+
+    @Param({"5000"})
+    public int points;
+
+    private P2PEarthquakeAPI.Point[] smallPoints;
+    private P2PEarthquakeAPI.Point[] hugePoints;
+    private P2PTsunamiAPI.Area[] areas;
+
+    @Setup
+    public void setup() throws IOException {
+        smallPoints = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.EARTHQUAKE),
+                P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new)[0].getPoints();
+        hugePoints = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.hugeEarthquake(points)),
+                P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new)[0].getPoints();
+        areas = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.TSUNAMI),
+                P2PQuakeDecoder.TSUNAMI_ADAPTER, P2PTsunamiAPI[]::new)[0].getArea();
+    }
+
+    @Benchmark
+    public Map<EarthquakeScaleType, List<P2PEarthquakeAPI.Point>> scaleMapSmall() {
+        return P2PEarthquakeAPI.groupByScale(smallPoints);
+    }
+
+    @Benchmark
+    public Map<EarthquakeScaleType, List<P2PEarthquakeAPI.Point>> scaleMapHuge() {
+        return P2PEarthquakeAPI.groupByScale(hugePoints);
+    }
+
+    @Benchmark
+    public Map<TsunamiGrade, List<P2PTsunamiAPI.Area>> gradeMap() {
+        return P2PTsunamiAPI.groupByGrade(areas);
+    }
+}
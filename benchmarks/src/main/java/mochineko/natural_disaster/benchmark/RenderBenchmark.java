@@ -0,0 +1,86 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.message.RenderedMessage;
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プレイヤーに送るメッセージを作成する処理のベンチマークです。
+ * 描画結果はIDか発表時刻で使い回されるため、どちらも取り除いたデータで毎回描画させます。
+ * 震度ごとのまとめは初回に作成したものが使われるため、ここには含まれません（{@link GroupingBenchmark} を参照）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"5000"})
+    public int points;
+
+    private MessageRenderer renderer;
+    private P2PEarthquakeAPI smallEarthquake;
+    private P2PEarthquakeAPI hugeEarthquake;
+    private P2PEEWAPI eew;
+    private P2PTsunamiAPI tsunami;
+    private final Set<String> regions = Set.of("石川県");
+
+    @Setup
+    public void setup() throws IOException {
+        renderer = Fixtures.renderer();
+        smallEarthquake = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.withoutIds(Fixtures.EARTHQUAKE)),
+                P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new)[0];
+        hugeEarthquake = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.withoutIds(Fixtures.hugeEarthquake(points))),
+                P2PQuakeDecoder.EARTHQUAKE_ADAPTER, P2PEarthquakeAPI[]::new)[0];
+        eew = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.withoutIds(Fixtures.EEW)),
+                P2PQuakeDecoder.EEW_ADAPTER, P2PEEWAPI[]::new)[0];
+        tsunami = P2PQuakeDecoder.decodeArray(new StringReader(Fixtures.withoutIds(Fixtures.TSUNAMI)),
+                P2PQuakeDecoder.TSUNAMI_ADAPTER, P2PTsunamiAPI[]::new)[0];
+    }
+
+    @Benchmark
+    public RenderedMessage earthquakeSmall() {
+        return renderer.renderEarthquake(smallEarthquake);
+    }
+
+    @Benchmark
+    public RenderedMessage earthquakeHuge() {
+        return renderer.renderEarthquake(hugeEarthquake);
+    }
+
+    @Benchmark
+    public RenderedMessage earthquakeHugeOneRegion() {
+        return renderer.renderEarthquake(hugeEarthquake, regions);
+    }
+
+    @Benchmark
+    public RenderedMessage eew() {
+        return renderer.renderEEW(eew);
+    }
+
+    @Benchmark
+    public RenderedMessage tsunami() {
+        return renderer.renderTsunami(tsunami);
+    }
+}
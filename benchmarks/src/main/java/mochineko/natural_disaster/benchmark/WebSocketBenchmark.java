@@ -0,0 +1,59 @@
+package mochineko.natural_disaster.benchmark;
+
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import mochineko.natural_disaster.monitor.P2PQuakeEntry;
+import mochineko.natural_disaster.monitor.P2PQuakeWebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocketで受信した1件の情報を、振り分けるかを判定してデコードする処理のベンチマークです。
+ * 測る前に、受信した情報が定期取得と同じIDでデコードされ、扱わないコードが捨てられることを確かめます。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketBenchmark {
+
+    @Setup
+    public void setup() throws IOException {
+        if (!P2PQuakeWebSocket.isHandled(Fixtures.WEBSOCKET_EEW)) {
+            throw new IllegalStateException("緊急地震速報が捨てられました");
+        }
+        if (P2PQuakeWebSocket.isHandled(Fixtures.WEBSOCKET_PEERS)) {
+            throw new IllegalStateException("ピア数の情報が捨てられませんでした");
+        }
+        P2PQuakeEntry entry = P2PQuakeDecoder.decode(new StringReader(Fixtures.WEBSOCKET_EEW));
+        if (entry == null || entry.getCode() != 556 || !"659250fa0f1b0b7e5a6f1bf8".equals(entry.getId())
+                || !"659250fa0f1b0b7e5a6f1bf8".equals(entry.getData().getId())) {
+            throw new IllegalStateException("WebSocketの緊急地震速報のIDを読めませんでした");
+        }
+    }
+
+    @Benchmark
+    public P2PQuakeEntry eew() throws IOException {
+        return P2PQuakeWebSocket.isHandled(Fixtures.WEBSOCKET_EEW)
+                ? P2PQuakeDecoder.decode(new StringReader(Fixtures.WEBSOCKET_EEW))
+                : null;
+    }
+
+    @Benchmark
+    public boolean peers() {
+        return P2PQuakeWebSocket.isHandled(Fixtures.WEBSOCKET_PEERS);
+    }
+}
@@ -1,22 +1,65 @@
 package mochineko.natural_disaster;
 
-import mochineko.natural_disaster.api.P2PEEWAPI;
-import mochineko.natural_disaster.api.P2PEarthquakeAPI;
-import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.command.DisasterCommand;
+import mochineko.natural_disaster.delivery.AlertDelivery;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.delivery.SubscriptionIndex;
+import mochineko.natural_disaster.geo.GeoIndex;
+import mochineko.natural_disaster.geo.IntensityEstimator;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.monitor.DisasterMonitors;
+import mochineko.natural_disaster.replay.ReplaySession;
+import mochineko.natural_disaster.visual.EarthquakeEffects;
+import mochineko.natural_disaster.visual.TsunamiFlood;
+import mochineko.natural_disaster.visual.WavefrontVisualizer;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+
 public final class Main extends JavaPlugin {
 
     @Override
     public void onEnable() {
         // Plugin startup logic
-        P2PEarthquakeAPI.startMonitor();
-        P2PEEWAPI.startMonitor();
-        P2PTsunamiAPI.startMonitor();
+        saveDefaultConfig();
+        MessageRenderer.load(this);
+        SubscriptionIndex.load(new File(getDataFolder(), "subscriptions.yml"));
+        GeoIndex.load(this);
+        IntensityEstimator.configure(getConfig().getConfigurationSection("estimate"));
+        AlertRouter.configure(getConfig().getConfigurationSection("subscription"));
+        AlertDelivery.configure(getConfig().getConfigurationSection("delivery"));
+        WavefrontVisualizer.configure(getConfig().getConfigurationSection("visual"));
+        EarthquakeEffects.configure(getConfig().getConfigurationSection("visual"));
+        TsunamiFlood.configure(getConfig().getConfigurationSection("visual"));
+        getCommand("disaster").setExecutor(new DisasterCommand());
+        DisasterMonitors.start(this);
     }
 
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        ReplaySession.cancel();
+        WavefrontVisualizer.stop();
+        EarthquakeEffects.stop();
+        TsunamiFlood.stop();
+        DisasterMonitors.stop();
+        IntensityEstimator.stop();
+        AlertDelivery.stop();
+    }
+
+    /**
+     * 設定ファイルとメッセージファイルを読み込み直し、監視を作り直す関数
+     */
+    public void reload() {
+        ReplaySession.cancel();
+        reloadConfig();
+        MessageRenderer.load(this);
+        AlertRouter.configure(getConfig().getConfigurationSection("subscription"));
+        AlertDelivery.configure(getConfig().getConfigurationSection("delivery"));
+        IntensityEstimator.configure(getConfig().getConfigurationSection("estimate"));
+        WavefrontVisualizer.configure(getConfig().getConfigurationSection("visual"));
+        EarthquakeEffects.configure(getConfig().getConfigurationSection("visual"));
+        TsunamiFlood.configure(getConfig().getConfigurationSection("visual"));
+        DisasterMonitors.reload(this);
     }
 }
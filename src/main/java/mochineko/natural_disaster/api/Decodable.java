@@ -0,0 +1,14 @@
+package mochineko.natural_disaster.api;
+
+/**
+ * JSONからデコードされた直後に、時刻や列挙型の変換を済ませておくためのインターフェースです。
+ * {@link mochineko.natural_disaster.monitor.P2PQuakeDecoder} でデコードした場合に呼ばれます。
+ * 他のGsonでデコードされた場合でも、各getterが必要になった時点で変換します。
+ */
+public interface Decodable {
+
+    /**
+     * デコードの直後に呼ばれる関数
+     */
+    void onDecoded();
+}
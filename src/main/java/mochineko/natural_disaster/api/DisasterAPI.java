@@ -1,4 +1,32 @@
 package mochineko.natural_disaster.api;
 
-public abstract class DisasterAPI {
+import mochineko.natural_disaster.status.DisasterType;
+
+import javax.annotation.Nullable;
+import java.time.ZonedDateTime;
+
+/**
+ * 取得元からデコードされた、1件の災害情報のクラスです。
+ * 情報の種類ごとの処理は {@link DisasterProvider} に、種類の一覧は {@link DisasterType} にまとめています。
+ */
+public abstract class DisasterAPI implements Decodable {
+
+    /**
+     * 取得元での情報のIDを返す関数
+     * @apiNote 重複の判定に使われる。
+     */
+    @Nullable
+    public abstract String getId();
+
+    /**
+     * 情報の発表時刻を、取得元の形式のまま返す関数
+     */
+    @Nullable
+    public abstract String getTime();
+
+    /**
+     * 情報の発表時刻を日本時間で返す関数
+     */
+    @Nullable
+    public abstract ZonedDateTime getZonedDateTime();
 }
@@ -0,0 +1,48 @@
+package mochineko.natural_disaster.api;
+
+import mochineko.natural_disaster.status.DisasterType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 情報の種類ごとの処理をまとめたインターフェースです。
+ * 取得・デコード・重複の除外は {@link mochineko.natural_disaster.monitor.P2PQuakeMonitor} などが全種類まとめて行い、
+ * 新しい情報だけが {@link #handle(DisasterAPI)} に渡されます。
+ * 種類を追加する場合は、実装を {@link DisasterType} に登録します。スレッドや接続が増えることはありません。
+ * @param <T> デコードされる情報のクラス
+ */
+public interface DisasterProvider<T extends DisasterAPI> {
+
+    /**
+     * デコードされる情報のクラスを返す関数
+     * @apiNote TypeAdapterの作成と、記録から読み込んだ情報の変換に使われる。
+     */
+    @Nonnull
+    Class<T> getDataClass();
+
+    /**
+     * 新しい情報を受け取ったときに呼ばれる関数。
+     * 定期取得とWebSocketの両方から呼ばれる。処理済みの情報は除外されている。
+     * @return 通知した場合はtrue
+     */
+    boolean handle(@Nonnull T api);
+
+    /**
+     * 取得元が違っても、同じ情報であれば同じになる値を返す関数。
+     * 複数の取得元から同じ情報を受け取った場合に、2回目以降を重複として除外するために使う。
+     * 発表時刻の近い情報どうしでだけ比べるため、後から同じ内容の情報が発表された場合は除外されない。
+     * @return 取得元ごとのIDだけで判定する場合はnull
+     */
+    @Nullable
+    default String getEventKey(@Nonnull T api) {
+        return null;
+    }
+
+    /**
+     * {@link #handle(DisasterAPI)} で通知した後に呼ばれる関数。
+     * 取得の間隔を変えるなど、通知に応じた処理を行う。
+     */
+    default void onDelivered(@Nonnull T api) {
+    }
+}
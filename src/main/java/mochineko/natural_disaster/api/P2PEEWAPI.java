@@ -1,80 +1,136 @@
 package mochineko.natural_disaster.api;
 
-import com.google.gson.Gson;
-import mochineko.natural_disaster.Main;
+import com.google.gson.annotations.SerializedName;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.journal.EventJournal;
+import mochineko.natural_disaster.monitor.P2PQuakeDispatcher;
+import mochineko.natural_disaster.monitor.P2PQuakeMonitor;
+import mochineko.natural_disaster.monitor.SeenEventIndex;
+import mochineko.natural_disaster.status.DisasterType;
 import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.visual.WavefrontVisualizer;
 import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZonedDateTime;
 
 public class P2PEEWAPI extends DisasterAPI {
 
-    private static BukkitRunnable task;
 
+    // WebSocketでは「_id」だけが送られる
+    @SerializedName(value = "id", alternate = "_id")
+    private String id;
     private Area[] areas;
     private Earthquake earthquake;
+    private Issue issue;
+    private String time;
 
-    public static P2PEEWAPI[] getAPI() throws IOException {
-        URL url = new URL("https://api.p2pquake.net/v2/history?codes=556");
-        HttpsURLConnection con = (HttpsURLConnection)url.openConnection();
-        con.setRequestMethod("GET");
-        BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8));
-        StringBuilder content = new StringBuilder();
-
-        String inputLine;
-        while((inputLine = in.readLine()) != null) {
-            content.append(inputLine);
+    private transient ZonedDateTime zonedDateTime;
+
+    /**
+     * {@link DisasterType#EEW} に登録する、緊急地震速報の処理
+     */
+    public static final DisasterProvider<P2PEEWAPI> PROVIDER = new DisasterProvider<>() {
+        @Nonnull
+        @Override
+        public Class<P2PEEWAPI> getDataClass() {
+            return P2PEEWAPI.class;
         }
 
-        in.close();
-        con.disconnect();
-        return  (new Gson()).fromJson(content.toString(), P2PEEWAPI[].class);
+        @Override
+        public boolean handle(@Nonnull P2PEEWAPI api) {
+            return P2PEEWAPI.handle(api);
+        }
+
+        @Override
+        public void onDelivered(@Nonnull P2PEEWAPI api) {
+            P2PQuakeMonitor.onEEW();
+            WavefrontVisualizer.show(api);
+        }
+    };
+
+    /**
+     * 最新の情報を新しい順に取得する関数。
+     * 記録（{@link EventJournal}）に情報がある場合は、通信せずに記録から返す。
+     * 取得に失敗した場合は、最後に受け取った情報だけを返す。
+     * @throws IOException 取得に失敗し、まだ1件も受け取っていない場合
+     */
+    public static P2PEEWAPI[] getAPI() throws IOException {
+        return P2PQuakeDispatcher.getHistory(DisasterType.EEW, P2PEEWAPI.class, 10);
     }
 
+    /**
+     * 監視を開始する関数。
+     * 取得は {@link P2PQuakeMonitor} で他の情報とまとめて行われる。
+     */
     public static void startMonitor() {
-        int duration = 10;
-        if (task == null) {
-            Bukkit.getLogger().info("緊急地震速報（警報）の監視を開始しました。");
-            new BukkitRunnable() {
-                private LocalDateTime beforeGetTime = LocalDateTime.MIN.plusSeconds(duration);
-                static StringBuilder builder = new StringBuilder();
-                @Override
-                public void run() {
-                    try {
-                        P2PEEWAPI latestAPI = getAPI()[0];
-                        Earthquake earthquake = latestAPI.getEarthquake();
-                        LocalDateTime eew_dateTime = earthquake.getOriginLocalDateTime();
-
-                        if (beforeGetTime.isBefore(eew_dateTime)) {
-                            if (Math.abs(Duration.between(LocalDateTime.now(), eew_dateTime).toSeconds()) <= 60) {
-
-                                for (Area area : latestAPI.getAreas()) {
-
-                                    Bukkit.broadcastMessage("緊急地震速報　警報　強い揺れに警戒してください\n" +
-                                            "==========" + "\n" +
-                                            area.getName() + "\n" +
-                                            "========");
-                                }
-                                beforeGetTime = eew_dateTime;
-                            }
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }.runTaskTimer(Main.getPlugin(Main.class), 0L, 20L*duration);
+        Bukkit.getLogger().info("緊急地震速報（警報）の監視を開始しました。");
+        P2PQuakeMonitor.enable(DisasterType.EEW);
+    }
+
+    /**
+     * 受信した緊急地震速報が発生から間もない場合、購読しているプレイヤーに通知する関数。
+     * 定期取得とWebSocketの両方から呼ばれる。処理済みの情報は {@link SeenEventIndex} で除外されている。
+     * @return 通知した場合はtrue
+     */
+    public static synchronized boolean handle(@Nonnull P2PEEWAPI latestAPI) {
+        Earthquake earthquake = latestAPI.getEarthquake();
+        // 取消しの情報などは、地震の情報や発生時刻が無い
+        if (earthquake == null || earthquake.getOriginTime() == null) {
+            return false;
+        }
+        Instant eew_dateTime = earthquake.getOriginZonedDateTime().toInstant();
+
+        if (Math.abs(Duration.between(Instant.now(), eew_dateTime).toSeconds()) <= 60) {
+            AlertRouter.routeEEW(latestAPI);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * P2P地震情報での情報のIDを返す関数
+     * @apiNote 重複の判定に使われる。
+     */
+    @Nullable
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 情報の発表時刻を返す関数
+     * @return yyyy/MM/dd HH:mm:ss.SSS で返す。（例：2026/01/11 13:15:02.123）
+     */
+    @Nullable
+    @Override
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * 情報の発表時刻を日本時間で返す関数
+     * @return 発表時刻が無い場合はnullを返す
+     */
+    @Nullable
+    @Override
+    public ZonedDateTime getZonedDateTime() {
+        ZonedDateTime dateTime = zonedDateTime;
+        if (dateTime == null && time != null) {
+            dateTime = P2PTime.parse(time);
+            zonedDateTime = dateTime;
         }
+        return dateTime;
+    }
+
+    @Override
+    public void onDecoded() {
+        getZonedDateTime();
     }
 
     @Nullable
@@ -87,16 +143,57 @@ public class P2PEEWAPI extends DisasterAPI {
         return earthquake;
     }
 
+    /**
+     * 地震を識別するIDを返す関数。同じ地震の続報では同じ値になる
+     * @return 発表の情報が無い場合は、地震の発生時刻を返す。どちらも無い場合はnull
+     */
+    @Nullable
+    public String getEventId() {
+        if (issue != null && issue.eventId != null) {
+            return issue.eventId;
+        }
+        return earthquake == null ? null : earthquake.getOriginTime();
+    }
+
+    /**
+     * 緊急地震速報の発表の情報のクラス
+     */
+    public static class Issue {
+        private String eventId;
+        private String serial;
+
+        /**
+         * 地震を識別するIDを返す関数
+         * @return （例：20240101161009）
+         */
+        @Nullable
+        public String getEventId() {
+            return eventId;
+        }
+
+        /**
+         * 同じ地震の中での情報の番号を返す関数
+         */
+        @Nullable
+        public String getSerial() {
+            return serial;
+        }
+    }
+
     /**
      * 緊急地震速報のエリアのクラス
      */
-    public static class Area {
+    public static class Area implements Decodable {
         private String name;
         private String pref;
         private int scaleFrom;
         private int scaleTo;
         private String arrivalTime;
 
+        private transient EarthquakeScaleType scaleType;
+        private transient EarthquakeScaleType scaleToType;
+        private transient ZonedDateTime arrivalDateTime;
+
         /**
          * 地域名を返す関数
          * @return （例：岩手県内陸北部）
@@ -129,7 +226,12 @@ public class P2PEEWAPI extends DisasterAPI {
          */
         @Nonnull
         public EarthquakeScaleType getScaleType() {
-            return EarthquakeScaleType.convertP2PAPI(scaleFrom);
+            EarthquakeScaleType type = scaleType;
+            if (type == null) {
+                type = EarthquakeScaleType.convertP2PAPI(scaleFrom);
+                scaleType = type;
+            }
+            return type;
         }
 
         /**
@@ -140,6 +242,20 @@ public class P2PEEWAPI extends DisasterAPI {
             return scaleTo;
         }
 
+        /**
+         * 予想震度の最大震度を、列挙型で返す関数。
+         * @return （例：45の場合は、震度5弱({@link EarthquakeScaleType#FIVE_LOW})を返す）
+         */
+        @Nonnull
+        public EarthquakeScaleType getScaleToType() {
+            EarthquakeScaleType type = scaleToType;
+            if (type == null) {
+                type = EarthquakeScaleType.convertP2PAPI(scaleTo);
+                scaleToType = type;
+            }
+            return type;
+        }
+
         /**
          * 主要動の到達予想時刻を返す関数。
          * @return yyyy/MM/dd HH:mm:ss で返す。（例：2026/01/11 13:15:00）
@@ -148,13 +264,36 @@ public class P2PEEWAPI extends DisasterAPI {
         public String getArrivalTime() {
             return arrivalTime;
         }
+
+        /**
+         * 主要動の到達予想時刻を日本時間で返す関数。
+         * @return 到達予想時刻が無い場合はnullを返す
+         */
+        @Nullable
+        public ZonedDateTime getArrivalZonedDateTime() {
+            ZonedDateTime dateTime = arrivalDateTime;
+            if (dateTime == null && arrivalTime != null) {
+                dateTime = P2PTime.parse(arrivalTime);
+                arrivalDateTime = dateTime;
+            }
+            return dateTime;
+        }
+
+        @Override
+        public void onDecoded() {
+            getScaleType();
+            getScaleToType();
+            getArrivalZonedDateTime();
+        }
     }
 
-    public static class Earthquake {
+    public static class Earthquake implements Decodable {
         private String arrivalTime;
         private Hypocenter hypocenter;
         private String originTime;
 
+        private transient ZonedDateTime originDateTime;
+
         /**
          * 地震の発現の時刻
          * @return
@@ -174,10 +313,10 @@ public class P2PEEWAPI extends DisasterAPI {
 
         /**
          * 地震の発生時刻を返す関数。
-         * @return yyyy/MM/dd HH:mm:ss で返す。（例：2026/01/11 13:15:00）
+         * @return yyyy/MM/dd HH:mm:ss で返す。（例：2026/01/11 13:15:00）発生時刻が無い場合はnull
          * @apiNote {@link #getOriginLocalDateTime()} でLocalDateTimeに変換されたものを取得できる。
          */
-        @Nonnull
+        @Nullable
         public String getOriginTime() {
             return originTime;
         }
@@ -188,8 +327,28 @@ public class P2PEEWAPI extends DisasterAPI {
          */
         @Nonnull
         public LocalDateTime getOriginLocalDateTime() {
-            DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-            return LocalDateTime.parse(originTime, timeFormat);
+            return getOriginZonedDateTime().toLocalDateTime();
+        }
+
+        /**
+         * 地震の発生時刻を日本時間で返す関数
+         * @return ZonedDateTimeで返す。
+         */
+        @Nonnull
+        public ZonedDateTime getOriginZonedDateTime() {
+            ZonedDateTime dateTime = originDateTime;
+            if (dateTime == null) {
+                dateTime = P2PTime.parse(originTime);
+                originDateTime = dateTime;
+            }
+            return dateTime;
+        }
+
+        @Override
+        public void onDecoded() {
+            if (originTime != null) {
+                getOriginZonedDateTime();
+            }
         }
 
         /**
@@ -1,27 +1,25 @@
 package mochineko.natural_disaster.api;
 
-import com.google.gson.Gson;
-import mochineko.natural_disaster.Main;
+import com.google.gson.annotations.SerializedName;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.journal.EventJournal;
+import mochineko.natural_disaster.monitor.P2PQuakeDispatcher;
+import mochineko.natural_disaster.monitor.P2PQuakeMonitor;
+import mochineko.natural_disaster.monitor.SeenEventIndex;
+import mochineko.natural_disaster.status.DisasterType;
 import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.visual.EarthquakeEffects;
 import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.temporal.ChronoField;
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -30,81 +28,96 @@ import java.util.stream.Collectors;
  */
 public class P2PEarthquakeAPI extends DisasterAPI {
 
-    private static BukkitTask task;
-
+    // WebSocketでは「_id」だけが送られる
+    @SerializedName(value = "id", alternate = "_id")
+    private String id;
     private Earthquake earthquake;
     private Point[] points;
     private String time;
 
-    public static P2PEarthquakeAPI[] getAPI() throws IOException {
-        URL url = new URL("https://api.p2pquake.net/v2/history?codes=551");
-        HttpsURLConnection con = (HttpsURLConnection)url.openConnection();
-        con.setRequestMethod("GET");
-        BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8));
-        StringBuilder content = new StringBuilder();
-
-        String inputLine;
-        while((inputLine = in.readLine()) != null) {
-            content.append(inputLine);
+    private transient ZonedDateTime zonedDateTime;
+    private transient volatile Map<EarthquakeScaleType, List<Point>> scaleMap;
+
+    /**
+     * {@link DisasterType#EARTHQUAKE} に登録する、地震情報の処理
+     */
+    public static final DisasterProvider<P2PEarthquakeAPI> PROVIDER = new DisasterProvider<>() {
+        @Nonnull
+        @Override
+        public Class<P2PEarthquakeAPI> getDataClass() {
+            return P2PEarthquakeAPI.class;
+        }
+
+        @Override
+        public boolean handle(@Nonnull P2PEarthquakeAPI api) {
+            return P2PEarthquakeAPI.handle(api);
         }
 
-        in.close();
-        con.disconnect();
-        return  (new Gson()).fromJson(content.toString(), P2PEarthquakeAPI[].class);
+        /**
+         * 発生時刻・最大震度・震源・震度を観測した地点の数が同じ情報を、同じ情報とみなす。
+         * 同じ地震の震度速報と各地の震度に関する情報は、地点の数で区別する
+         */
+        @Override
+        public String getEventKey(@Nonnull P2PEarthquakeAPI api) {
+            Earthquake earthquake = api.getEarthquake();
+            if (earthquake == null || earthquake.getTime() == null) {
+                return null;
+            }
+            Earthquake.Hypocenter hypocenter = earthquake.getHypocenter();
+            String name = hypocenter == null || hypocenter.getName() == null ? "" : hypocenter.getName();
+            int points = api.getPoints() == null ? 0 : api.getPoints().length;
+            return earthquake.getTime() + "/" + earthquake.getMaxScale() + "/" + name + "/" + points;
+        }
+
+        @Override
+        public void onDelivered(@Nonnull P2PEarthquakeAPI api) {
+            if (api.getEarthquake() != null) {
+                P2PQuakeMonitor.onEarthquake(api.getEarthquake().getMaxScale());
+                EarthquakeEffects.apply(api);
+            }
+        }
+    };
+
+    /**
+     * 最新の情報を新しい順に取得する関数。
+     * 記録（{@link EventJournal}）に情報がある場合は、通信せずに記録から返す。
+     * 取得に失敗した場合は、最後に受け取った情報だけを返す。
+     * @throws IOException 取得に失敗し、まだ1件も受け取っていない場合
+     */
+    public static P2PEarthquakeAPI[] getAPI() throws IOException {
+        return P2PQuakeDispatcher.getHistory(DisasterType.EARTHQUAKE, P2PEarthquakeAPI.class, 10);
     }
 
+    /**
+     * 監視を開始する関数。
+     * 取得は {@link P2PQuakeMonitor} で他の情報とまとめて行われる。
+     */
     public static void startMonitor() {
-        int duration = 10;
-        if (task == null) {
-            Bukkit.getLogger().info("地震APIの監視を開始しました。");
-            new BukkitRunnable() {
-                private static LocalDateTime beforeGetTime = LocalDateTime.MIN.plusMinutes(1);
-                StringBuilder builder = new StringBuilder();
-                @Override
-                public void run() {
-                    try {
-                        P2PEarthquakeAPI latestAPI = getAPI()[0];
-                        Point[] pointList = latestAPI.getPoints();
-                        Earthquake earthquake = latestAPI.getEarthquake();
-                        Earthquake.Hypocenter hypocenter = earthquake.getHypocenter();
-                        LocalDateTime nowDate = LocalDateTime.now();
-                        LocalDateTime earthquakeDate = latestAPI.getLocalDateTime();
-                        Bukkit.getLogger().info(Math.abs(Duration.between(nowDate, earthquakeDate).toSeconds()) + "\n" +
-                                beforeGetTime + "\n" + earthquakeDate +  "\n" + beforeGetTime.isBefore(earthquakeDate));
-                        if (beforeGetTime.isBefore(earthquakeDate)) {
-                            if (Math.abs(Duration.between(nowDate, earthquakeDate).toSeconds()) <= 60) {
-                                Bukkit.broadcastMessage("震源名：" + hypocenter.getName() + "\n" +
-                                        "マグニチュード: " + hypocenter.getMagnitude() + "\n" +
-                                        "深さ：" + hypocenter.getDepth());
-
-                                builder.append("----観測情報----" + "\n");
-                                for (Map.Entry<EarthquakeScaleType, List<Point>> entry : latestAPI.getScaleMap().entrySet()) {
-                                    /*
-                                    出力イメージ：震度3：石川県金沢市○○
-                                    　　　　　　　震度2：石川県穴水町○○
-                                     */
-
-                                    EarthquakeScaleType key = entry.getKey();
-                                    List<Point> value = entry.getValue();
-                                    builder.append(key.getName() + ":");
-                                    for (Point point : value) {
-                                        builder.append(point.getPref() + point.getAddr() + ",");
-                                    }
-                                    builder.append("\n");
-                                }
-                                builder.append("------------");
-
-                                Bukkit.broadcastMessage(builder.toString());
-
-                                beforeGetTime = earthquakeDate;
-                            }
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }.runTaskTimer(Main.getPlugin(Main.class), 0L, 20L*duration);
+        Bukkit.getLogger().info("地震APIの監視を開始しました。");
+        P2PQuakeMonitor.enable(DisasterType.EARTHQUAKE);
+    }
+
+    /**
+     * 受信した地震情報が発生から間もない場合、購読しているプレイヤーに通知する関数。
+     * 定期取得とWebSocketの両方から呼ばれる。処理済みの情報は {@link SeenEventIndex} で除外されている。
+     * @return 通知した場合はtrue
+     */
+    public static synchronized boolean handle(@Nonnull P2PEarthquakeAPI latestAPI) {
+        if (Math.abs(Duration.between(Instant.now(), latestAPI.getInstant()).toSeconds()) <= 60) {
+            AlertRouter.routeEarthquake(latestAPI);
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * P2P地震情報での情報のIDを返す関数
+     * @apiNote 重複の判定に使われる。
+     */
+    @Nullable
+    @Override
+    public String getId() {
+        return id;
     }
 
     public Earthquake getEarthquake() {
@@ -115,37 +128,85 @@ public class P2PEarthquakeAPI extends DisasterAPI {
         return points;
     }
 
+    /**
+     * 観測点を震度ごとにまとめて返す関数
+     * @return 初回の呼び出しで作成したものを使い回すため、変更できないMapで返す
+     */
     public Map<EarthquakeScaleType, List<Point>> getScaleMap() {
-        Map<EarthquakeScaleType, List<Point>> map = new HashMap<>();
-        for (Point point : points) {
-            if (!map.containsKey(point.getScaleType())) {
-                map.put(point.getScaleType(), new ArrayList<>());
-            }
-            List<Point> list = map.get(point.getScaleType());
-            list.add(point);
+        Map<EarthquakeScaleType, List<Point>> map = scaleMap;
+        if (map == null) {
+            map = groupByScale(points);
+            scaleMap = map;
         }
         return map;
     }
 
+    /**
+     * 観測点を震度ごとにまとめる関数。
+     * {@link #getScaleMap()} は結果を使い回すため、毎回まとめ直す処理はこちらを使う。
+     * @return 変更できないMapで返す
+     */
+    public static Map<EarthquakeScaleType, List<Point>> groupByScale(Point[] points) {
+        EnumMap<EarthquakeScaleType, List<Point>> grouped = new EnumMap<>(EarthquakeScaleType.class);
+        for (Point point : points) {
+            grouped.computeIfAbsent(point.getScaleType(), key -> new ArrayList<>()).add(point);
+        }
+        grouped.replaceAll((key, list) -> Collections.unmodifiableList(list));
+        return Collections.unmodifiableMap(grouped);
+    }
+
+    @Override
     public String getTime() {
         return time;
     }
 
+    /**
+     * 発表時刻を日本時間で返す関数
+     */
+    @Override
+    public ZonedDateTime getZonedDateTime() {
+        ZonedDateTime dateTime = zonedDateTime;
+        if (dateTime == null) {
+            dateTime = P2PTime.parse(time);
+            zonedDateTime = dateTime;
+        }
+        return dateTime;
+    }
+
+    /**
+     * 発表時刻をInstantで返す関数
+     */
+    public Instant getInstant() {
+        return getZonedDateTime().toInstant();
+    }
+
+    /**
+     * 発表時刻を日本時間のLocalDateTimeで返す関数
+     */
     public LocalDateTime getLocalDateTime() {
-        DateTimeFormatter formatter = new DateTimeFormatterBuilder()
-                .appendPattern("yyyy/MM/dd HH:mm:ss")
-                .appendFraction(ChronoField.NANO_OF_SECOND, 2, 3, true)
-                .toFormatter();
-        return LocalDateTime.parse(time, formatter);
+        return getZonedDateTime().toLocalDateTime();
+    }
+
+    @Override
+    public void onDecoded() {
+        if (time != null) {
+            getZonedDateTime();
+        }
+        if (points != null) {
+            getScaleMap();
+        }
     }
 
-    public static class Earthquake {
+    public static class Earthquake implements Decodable {
         private String domesticTsunami;
         private String foreignTsunami;
         private Hypocenter hypocenter;
         private int maxScale;
         private String time;
 
+        private transient EarthquakeScaleType maxScaleType;
+        private transient ZonedDateTime zonedDateTime;
+
         /**
          * 国内への津波の有無を返す関数
          */
@@ -177,7 +238,12 @@ public class P2PEarthquakeAPI extends DisasterAPI {
          */
         @Nullable
         public EarthquakeScaleType getMaxScaleType() {
-            return EarthquakeScaleType.convertP2PAPI(maxScale);
+            EarthquakeScaleType type = maxScaleType;
+            if (type == null) {
+                type = EarthquakeScaleType.convertP2PAPI(maxScale);
+                maxScaleType = type;
+            }
+            return type;
         }
 
         /**
@@ -188,9 +254,31 @@ public class P2PEarthquakeAPI extends DisasterAPI {
             return time;
         }
 
+        /**
+         * 地震の発生時刻を日本時間で返す関数
+         */
+        public ZonedDateTime getZonedDateTime() {
+            ZonedDateTime dateTime = zonedDateTime;
+            if (dateTime == null) {
+                dateTime = P2PTime.parse(time);
+                zonedDateTime = dateTime;
+            }
+            return dateTime;
+        }
+
+        /**
+         * 地震の発生時刻を日本時間のLocalDateTimeで返す関数
+         */
         public LocalDateTime getDateTime() {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-            return LocalDateTime.parse(time, formatter);
+            return getZonedDateTime().toLocalDateTime();
+        }
+
+        @Override
+        public void onDecoded() {
+            getMaxScaleType();
+            if (time != null) {
+                getZonedDateTime();
+            }
         }
 
         public static class Hypocenter {
@@ -237,11 +325,13 @@ public class P2PEarthquakeAPI extends DisasterAPI {
         }
     }
 
-    public static class Point {
+    public static class Point implements Decodable {
         private String addr; //観測点名
         private String pref; //都道府県
         private int scale; //震度
 
+        private transient EarthquakeScaleType scaleType;
+
         /**
          * 都道府県を返す関数
          * @return 文字列で返す（例：石川県）
@@ -271,8 +361,17 @@ public class P2PEarthquakeAPI extends DisasterAPI {
          * @return {@link EarthquakeScaleType}　で返す
          */
         public EarthquakeScaleType getScaleType() {
-            return EarthquakeScaleType.convertP2PAPI(scale);
+            EarthquakeScaleType type = scaleType;
+            if (type == null) {
+                type = EarthquakeScaleType.convertP2PAPI(scale);
+                scaleType = type;
+            }
+            return type;
         }
 
+        @Override
+        public void onDecoded() {
+            getScaleType();
+        }
     }
 }
@@ -0,0 +1,50 @@
+package mochineko.natural_disaster.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+
+/**
+ * P2P地震情報の時刻を変換するクラスです。
+ * P2P地震情報の時刻はすべて日本時間のため、サーバーのタイムゾーンに関係なく日本時間として扱います。
+ */
+public final class P2PTime {
+
+    public static final ZoneId JST = ZoneId.of("Asia/Tokyo");
+
+    /**
+     * yyyy/MM/dd HH:mm:ss と、ミリ秒付きの yyyy/MM/dd HH:mm:ss.SSS の両方に対応したフォーマット
+     */
+    public static final DateTimeFormatter FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy/MM/dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 1, 3, true)
+            .optionalEnd()
+            .toFormatter()
+            .withZone(JST);
+
+    private P2PTime() {
+    }
+
+    /**
+     * P2P地震情報の時刻を、日本時間のZonedDateTimeに変換する関数
+     * @param text （例：2026/01/11 13:15:00）
+     * @return textがnullの場合はnullを返す
+     */
+    @Nullable
+    public static ZonedDateTime parse(@Nullable String text) {
+        return text == null ? null : ZonedDateTime.parse(text, FORMAT);
+    }
+
+    /**
+     * 日本時間の時刻を、P2P地震情報と同じ形式の文字列に変換する関数
+     */
+    @Nonnull
+    public static String format(@Nonnull ZonedDateTime dateTime) {
+        return FORMAT.format(dateTime);
+    }
+}
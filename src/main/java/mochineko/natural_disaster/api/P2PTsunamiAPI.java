@@ -1,110 +1,226 @@
 package mochineko.natural_disaster.api;
 
-import com.google.gson.Gson;
-import mochineko.natural_disaster.Main;
+import com.google.gson.annotations.SerializedName;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.journal.EventJournal;
+import mochineko.natural_disaster.monitor.P2PQuakeDispatcher;
+import mochineko.natural_disaster.monitor.P2PQuakeMonitor;
+import mochineko.natural_disaster.monitor.SeenEventIndex;
+import mochineko.natural_disaster.monitor.TsunamiStateTracker;
+import mochineko.natural_disaster.status.DisasterType;
 import mochineko.natural_disaster.status.TsunamiGrade;
+import mochineko.natural_disaster.visual.TsunamiFlood;
 import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
-public class P2PTsunamiAPI {
+public class P2PTsunamiAPI extends DisasterAPI {
 
-    private static BukkitTask task;
+    // WebSocketでは「_id」だけが送られる
+    @SerializedName(value = "id", alternate = "_id")
+    private String id;
+    private boolean cancelled;
     private Area[] areas;
     private String time;
 
-    public static P2PTsunamiAPI[] getAPI() throws IOException {
-        URL url = new URL("https://api.p2pquake.net/v2/history?codes=552");
-        HttpsURLConnection con = (HttpsURLConnection)url.openConnection();
-        con.setRequestMethod("GET");
-        BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8));
-        StringBuilder content = new StringBuilder();
+    private transient ZonedDateTime zonedDateTime;
+    private transient volatile Map<TsunamiGrade, List<Area>> gradeMap;
+
+    /**
+     * {@link DisasterType#TSUNAMI} に登録する、津波予報の処理
+     */
+    public static final DisasterProvider<P2PTsunamiAPI> PROVIDER = new DisasterProvider<>() {
+        @Nonnull
+        @Override
+        public Class<P2PTsunamiAPI> getDataClass() {
+            return P2PTsunamiAPI.class;
+        }
+
+        @Override
+        public boolean handle(@Nonnull P2PTsunamiAPI api) {
+            return P2PTsunamiAPI.handle(api);
+        }
+
+        /**
+         * 予報区ごとの等級・直ちに来襲するか・津波の状態がすべて同じ情報を、同じ情報とみなす
+         */
+        @Override
+        public String getEventKey(@Nonnull P2PTsunamiAPI api) {
+            Area[] areas = api.getArea();
+            // 解除の情報は内容が同じになるため、IDだけで判定する
+            if (areas == null || areas.length == 0) {
+                return null;
+            }
+            List<String> keys = new ArrayList<>(areas.length);
+            for (Area area : areas) {
+                Area.FirstHeight firstHeight = area.getFirstHeight();
+                keys.add(area.getName() + "=" + area.getGrade() + "/" + area.isImmediate()
+                        + "/" + (firstHeight == null || firstHeight.getCondition() == null ? "" : firstHeight.getCondition()));
+            }
+            Collections.sort(keys);
+            return String.join(",", keys);
+        }
 
-        String inputLine;
-        while((inputLine = in.readLine()) != null) {
-            content.append(inputLine);
+        @Override
+        public void onDelivered(@Nonnull P2PTsunamiAPI api) {
+            Map<TsunamiGrade, ?> grades = api.getGradeMap();
+            P2PQuakeMonitor.onTsunami(!api.isCancelled() && (grades.containsKey(TsunamiGrade.MAJOR_WARNING)
+                    || grades.containsKey(TsunamiGrade.WARNING)
+                    || grades.containsKey(TsunamiGrade.WATCH)));
+            TsunamiFlood.update(api);
         }
+    };
 
-        in.close();
-        con.disconnect();
-        return  (new Gson()).fromJson(content.toString(), P2PTsunamiAPI[].class);
+    /**
+     * 最新の情報を新しい順に取得する関数。
+     * 記録（{@link EventJournal}）に情報がある場合は、通信せずに記録から返す。
+     * 取得に失敗した場合は、最後に受け取った情報だけを返す。
+     * @throws IOException 取得に失敗し、まだ1件も受け取っていない場合
+     */
+    public static P2PTsunamiAPI[] getAPI() throws IOException {
+        return P2PQuakeDispatcher.getHistory(DisasterType.TSUNAMI, P2PTsunamiAPI.class, 10);
     }
 
+    /**
+     * 監視を開始する関数。
+     * 取得は {@link P2PQuakeMonitor} で他の情報とまとめて行われる。
+     */
     public static void startMonitor() {
-        if (task == null) {
-            Bukkit.getLogger().info("津波到達予想の監視を開始しました");
-            new BukkitRunnable() {
-                private LocalDateTime beforeGetTime = LocalDateTime.MIN.plusSeconds(10);
-                private StringBuilder builder = new StringBuilder();
-                @Override
-                public void run() {
-                    if (beforeGetTime.isBefore(LocalDateTime.now())) {
-                        try {
-                            P2PTsunamiAPI latestAPI = getAPI()[0];
-                            Map<TsunamiGrade, List<Area>> areas = latestAPI.getGradeMap();
-                            if (Math.abs(Duration.between(LocalDateTime.now(), latestAPI.getConvertTime()).toSeconds()) >= 60) {
-                                for (Map.Entry<TsunamiGrade, List<Area>> entry : areas.entrySet()) {
-                                    builder.append(entry.getKey().getName() + ":");
-                                    for (Area area : entry.getValue()) {
-                                        builder.append(area.getName() + ":" + area.getFirstHeight().getCondition() + "\n");
-                                    }
-                                    builder.append("\n");
-                                }
-                            }
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-            }.runTaskTimer(Main.getPlugin(Main.class), 0L, 20L*10);
+        Bukkit.getLogger().info("津波到達予想の監視を開始しました");
+        P2PQuakeMonitor.enable(DisasterType.TSUNAMI);
+    }
+
+    /**
+     * 受信した津波予報を予報区ごとの状態（{@link TsunamiStateTracker}）に反映し、
+     * 発表から間もない場合は、変化した予報区だけを購読しているプレイヤーに通知する関数。
+     * 定期取得とWebSocketの両方から呼ばれる。処理済みの情報は {@link SeenEventIndex} で除外されている。
+     * @return 通知した場合はtrue
+     */
+    public static synchronized boolean handle(P2PTsunamiAPI latestAPI) {
+        // 古い情報でも状態には反映し、次の情報との差分を正しく取れるようにする
+        List<TsunamiStateTracker.Change> changes = TsunamiStateTracker.apply(latestAPI);
+        if (changes.isEmpty()) {
+            return false;
+        }
+        if (Math.abs(Duration.between(Instant.now(), latestAPI.getInstant()).toSeconds()) <= 60) {
+            AlertRouter.routeTsunami(latestAPI, changes);
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * P2P地震情報での情報のIDを返す関数
+     * @apiNote 重複の判定に使われる。
+     */
+    @Nullable
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 津波予報がすべて解除された情報かどうかを返す関数
+     */
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     public Area[] getArea() {
         return areas;
     }
 
+    /**
+     * 予報区を津波の等級ごとにまとめて返す関数
+     * @return 初回の呼び出しで作成したものを使い回すため、変更できないMapで返す
+     */
     public Map<TsunamiGrade, List<Area>> getGradeMap() {
-        Map<TsunamiGrade, List<Area>> gradeMap = new HashMap<>();
-        for (Area area : areas) {
-            if (!gradeMap.containsKey(area.getGradeType())) {
-                gradeMap.put(area.getGradeType(), new ArrayList<>());
+        Map<TsunamiGrade, List<Area>> map = gradeMap;
+        if (map == null) {
+            map = groupByGrade(areas);
+            gradeMap = map;
+        }
+        return map;
+    }
+
+    /**
+     * 予報区を津波の等級ごとにまとめる関数。
+     * {@link #getGradeMap()} は結果を使い回すため、毎回まとめ直す処理はこちらを使う。
+     * @return 変更できないMapで返す
+     */
+    public static Map<TsunamiGrade, List<Area>> groupByGrade(Area[] areas) {
+        EnumMap<TsunamiGrade, List<Area>> grouped = new EnumMap<>(TsunamiGrade.class);
+        if (areas != null) {
+            for (Area area : areas) {
+                grouped.computeIfAbsent(area.getGradeType(), key -> new ArrayList<>()).add(area);
             }
-            gradeMap.get(area.getGradeType()).add(area);
         }
-        return gradeMap;
+        grouped.replaceAll((key, list) -> Collections.unmodifiableList(list));
+        return Collections.unmodifiableMap(grouped);
     }
 
+    @Override
     public String getTime() {
         return time;
     }
 
+    /**
+     * 発表時刻を日本時間で返す関数
+     */
+    @Override
+    public ZonedDateTime getZonedDateTime() {
+        ZonedDateTime dateTime = zonedDateTime;
+        if (dateTime == null) {
+            dateTime = P2PTime.parse(time);
+            zonedDateTime = dateTime;
+        }
+        return dateTime;
+    }
+
+    /**
+     * 発表時刻をInstantで返す関数
+     */
+    public Instant getInstant() {
+        return getZonedDateTime().toInstant();
+    }
+
+    /**
+     * 発表時刻を日本時間のLocalDateTimeで返す関数
+     */
     public LocalDateTime getConvertTime() {
-        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-        return LocalDateTime.parse(time, format);
+        return getZonedDateTime().toLocalDateTime();
     }
 
-    public static class Area {
+    @Override
+    public void onDecoded() {
+        if (time != null) {
+            getZonedDateTime();
+        }
+        if (areas != null) {
+            getGradeMap();
+        }
+    }
+
+    public static class Area implements Decodable {
         private String name;
         private String grade;
         private boolean immediate;
         private FirstHeight firstHeight;
         private MaxHeight maxHeight;
 
+        private transient TsunamiGrade gradeType;
+
         public String getName() {
             return name;
         }
@@ -114,7 +230,12 @@ public class P2PTsunamiAPI {
         }
 
         public TsunamiGrade getGradeType() {
-            return TsunamiGrade.convertP2PAPI(grade);
+            TsunamiGrade type = gradeType;
+            if (type == null) {
+                type = TsunamiGrade.convertP2PAPI(grade);
+                gradeType = type;
+            }
+            return type;
         }
 
         public boolean isImmediate() {
@@ -129,6 +250,11 @@ public class P2PTsunamiAPI {
             return maxHeight;
         }
 
+        @Override
+        public void onDecoded() {
+            getGradeType();
+        }
+
         public static class FirstHeight {
             private String arrivalTime;
             private String condition;
@@ -0,0 +1,341 @@
+package mochineko.natural_disaster.command;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.api.P2PTime;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.delivery.Regions;
+import mochineko.natural_disaster.delivery.SubscriptionIndex;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.message.RenderedMessage;
+import mochineko.natural_disaster.metrics.Histogram;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.CircuitBreaker;
+import mochineko.natural_disaster.monitor.P2PQuakeClient;
+import mochineko.natural_disaster.monitor.P2PQuakeDispatcher;
+import mochineko.natural_disaster.monitor.P2PQuakeEntry;
+import mochineko.natural_disaster.relay.RelayNode;
+import mochineko.natural_disaster.replay.ReplaySession;
+import mochineko.natural_disaster.status.DisasterType;
+import mochineko.natural_disaster.monitor.P2PQuakeWebSocket;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * /disaster コマンドです。
+ */
+public class DisasterCommand implements TabExecutor {
+
+    private static final List<String> SUB_COMMANDS = List.of("page", "subscribe", "unsubscribe", "regions", "status", "stats", "replay", "reload");
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+        switch (args[0].toLowerCase()) {
+            case "page":
+                return page(sender, args);
+            case "subscribe":
+                return subscribe(sender, args, true);
+            case "unsubscribe":
+                return subscribe(sender, args, false);
+            case "regions":
+                return regions(sender);
+            case "status":
+                return status(sender);
+            case "stats":
+                return stats(sender);
+            case "replay":
+                return replay(sender, args);
+            case "reload":
+                return reload(sender);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 最後に送られた情報の、指定したページを表示する
+     */
+    private boolean page(CommandSender sender, String[] args) {
+        MessageRenderer renderer = MessageRenderer.get();
+        RenderedMessage latest = AlertRouter.getLastReceived(sender);
+        if (latest == null) {
+            sender.sendMessage(renderer.format("page.none", Map.of()));
+            return true;
+        }
+        int page = 1;
+        if (args.length >= 2) {
+            try {
+                page = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        sender.sendMessage(latest.getPage(page));
+        return true;
+    }
+
+    /**
+     * 地域の購読を追加・削除する
+     */
+    private boolean subscribe(CommandSender sender, String[] args, boolean subscribe) {
+        MessageRenderer renderer = MessageRenderer.get();
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(renderer.format("command.player-only", Map.of()));
+            return true;
+        }
+        if (args.length < 2) {
+            return false;
+        }
+        UUID uuid = ((Player) sender).getUniqueId();
+        for (int i = 1; i < args.length; i++) {
+            String region = Regions.normalize(args[i]);
+            boolean changed = subscribe ? SubscriptionIndex.subscribe(uuid, region) : SubscriptionIndex.unsubscribe(uuid, region);
+            String key = subscribe ? (changed ? "subscription.added" : "subscription.already") : (changed ? "subscription.removed" : "subscription.not-subscribed");
+            sender.sendMessage(renderer.format(key, Map.of("region", region)));
+        }
+        return true;
+    }
+
+    /**
+     * 購読している地域を表示する
+     */
+    private boolean regions(CommandSender sender) {
+        MessageRenderer renderer = MessageRenderer.get();
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(renderer.format("command.player-only", Map.of()));
+            return true;
+        }
+        Set<String> regions = SubscriptionIndex.getRegions(((Player) sender).getUniqueId());
+        if (regions.isEmpty()) {
+            sender.sendMessage(renderer.format("subscription.none", Map.of()));
+        } else {
+            sender.sendMessage(renderer.format("subscription.list", Map.of("regions", String.join(", ", regions))));
+        }
+        return true;
+    }
+
+    /**
+     * 災害情報の取得の状態を表示する
+     */
+    private boolean status(CommandSender sender) {
+        MessageRenderer renderer = MessageRenderer.get();
+        CircuitBreaker breaker = P2PQuakeClient.getBreaker();
+        sender.sendMessage(renderer.format("status.header", Map.of()));
+        sender.sendMessage(renderer.format("status.websocket", Map.of("state",
+                renderer.format(P2PQuakeWebSocket.isConnected() ? "status.connected" : "status.disconnected", Map.of()))));
+        sender.sendMessage(renderer.format("status.polling", Map.of("state", breaker.getState().getName(), "failures", breaker.getFailures())));
+        sender.sendMessage(renderer.format("status.last-success", Map.of("time", renderer.formatTime(toDateTime(breaker.getLastSuccess())))));
+        if (breaker.getLastError() != null) {
+            sender.sendMessage(renderer.format("status.last-error", Map.of(
+                    "time", renderer.formatTime(toDateTime(breaker.getLastFailure())), "error", breaker.getLastError())));
+        }
+        if (breaker.getOpenUntil() > 0) {
+            sender.sendMessage(renderer.format("status.resume", Map.of("time", renderer.formatTime(toDateTime(breaker.getOpenUntil())))));
+        }
+        sender.sendMessage(renderer.format("status.latest", Map.of(
+                "earthquake", renderer.formatTime(latestTime(DisasterType.EARTHQUAKE)),
+                "tsunami", renderer.formatTime(latestTime(DisasterType.TSUNAMI)),
+                "eew", renderer.formatTime(latestTime(DisasterType.EEW)))));
+        RelayNode.Role role = RelayNode.getRole();
+        if (role != null) {
+            String leader = RelayNode.getLeader();
+            sender.sendMessage(renderer.format("status.relay", Map.of("role", role.getName(),
+                    "leader", leader != null ? leader : "-", "followers", RelayNode.getFollowerCount())));
+        }
+        return true;
+    }
+
+    /**
+     * 計測値を表示する
+     */
+    private boolean stats(CommandSender sender) {
+        MessageRenderer renderer = MessageRenderer.get();
+        sender.sendMessage(renderer.format("stats.header", Map.of()));
+        boolean empty = true;
+        empty &= sendHistograms(sender, renderer, "stats.fetch", Metrics.FETCH);
+        empty &= sendHistograms(sender, renderer, "stats.decode", Metrics.DECODE);
+        empty &= sendCounters(sender, renderer, "stats.bytes", Metrics.BYTES);
+        empty &= sendCounters(sender, renderer, "stats.events", Metrics.EVENTS);
+        empty &= sendCounters(sender, renderer, "stats.alerts", Metrics.ALERTS);
+        empty &= sendCounters(sender, renderer, "stats.duplicates", Metrics.DUPLICATES);
+        empty &= sendHistograms(sender, renderer, "stats.receive-latency", Metrics.RECEIVE_LATENCY);
+        empty &= sendHistograms(sender, renderer, "stats.alert-latency", Metrics.ALERT_LATENCY);
+        empty &= sendHistograms(sender, renderer, "stats.render", Metrics.RENDER);
+        empty &= sendHistograms(sender, renderer, "stats.main-thread", Metrics.MAIN_THREAD);
+        empty &= sendCounters(sender, renderer, "stats.deliveries", Metrics.DELIVERIES);
+        empty &= sendCounters(sender, renderer, "stats.coalesced", Metrics.COALESCED);
+        empty &= sendCounters(sender, renderer, "stats.rejected", Metrics.REJECTED);
+        empty &= sendCounters(sender, renderer, "stats.missed", Metrics.MISSED);
+        if (empty) {
+            sender.sendMessage(renderer.format("stats.none", Map.of()));
+        }
+        return true;
+    }
+
+    /**
+     * @return 表示するものが無かった場合はtrue
+     */
+    private static boolean sendHistograms(CommandSender sender, MessageRenderer renderer, String key, Metrics.Family<Histogram> family) {
+        Map<String, Histogram> all = family.getAll();
+        for (Map.Entry<String, Histogram> entry : all.entrySet()) {
+            Histogram histogram = entry.getValue();
+            sender.sendMessage(renderer.format("stats.histogram", Map.of(
+                    "metric", renderer.format(key, Map.of()),
+                    "label", entry.getKey(),
+                    "count", histogram.getCount(),
+                    "p50", formatNanos(histogram.getQuantileNanos(0.5)),
+                    "p95", formatNanos(histogram.getQuantileNanos(0.95)),
+                    "max", formatNanos(histogram.getMaxNanos()))));
+        }
+        return all.isEmpty();
+    }
+
+    /**
+     * @return 表示するものが無かった場合はtrue
+     */
+    private static boolean sendCounters(CommandSender sender, MessageRenderer renderer, String key, Metrics.Family<LongAdder> family) {
+        Map<String, LongAdder> all = family.getAll();
+        for (Map.Entry<String, LongAdder> entry : all.entrySet()) {
+            sender.sendMessage(renderer.format("stats.counter", Map.of(
+                    "metric", renderer.format(key, Map.of()),
+                    "label", entry.getKey(),
+                    "value", entry.getValue().sum())));
+        }
+        return all.isEmpty();
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * 記録した情報を、時間を縮めて再生する。
+     * 記録はプラグインのフォルダの「replay」に置く。
+     */
+    private boolean replay(CommandSender sender, String[] args) {
+        MessageRenderer renderer = MessageRenderer.get();
+        if (!sender.hasPermission("natural_disaster.replay")) {
+            sender.sendMessage(renderer.format("command.no-permission", Map.of()));
+            return true;
+        }
+        if (args.length < 2) {
+            sender.sendMessage(renderer.format("replay.usage", Map.of()));
+            return true;
+        }
+        if (args[1].equalsIgnoreCase("stop")) {
+            if (!ReplaySession.stop()) {
+                sender.sendMessage(renderer.format("replay.not-running", Map.of()));
+            }
+            return true;
+        }
+        if (ReplaySession.isRunning()) {
+            sender.sendMessage(renderer.format("replay.already-running", Map.of()));
+            return true;
+        }
+        double minutes = 2;
+        if (args.length >= 3) {
+            try {
+                minutes = Double.parseDouble(args[2]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(renderer.format("replay.usage", Map.of()));
+                return true;
+            }
+        }
+        Main plugin = Main.getPlugin(Main.class);
+        File folder = new File(plugin.getDataFolder(), "replay");
+        File file = new File(folder, args[1]);
+        // フォルダの外のファイルは読み込まない
+        if (!file.isFile() || !folder.toPath().normalize().equals(file.toPath().normalize().getParent())) {
+            sender.sendMessage(renderer.format("replay.not-found", Map.of("file", args[1])));
+            return true;
+        }
+        // 再生の後に元の設定へ戻すため、先に設定ファイルを読み込み直す
+        plugin.reloadConfig();
+        try {
+            ReplaySession session = ReplaySession.start(plugin, sender, file, minutes);
+            sender.sendMessage(renderer.format("replay.started", Map.of(
+                    "file", file.getName(),
+                    "count", session.getCount(),
+                    "minutes", args.length >= 3 ? args[2] : "2",
+                    "speed", String.format("%.0f", session.getSpeed()))));
+        } catch (IOException e) {
+            sender.sendMessage(renderer.format("replay.failed", Map.of("error", String.valueOf(e.getMessage()))));
+        }
+        return true;
+    }
+
+    /**
+     * 設定を再読み込みし、監視を作り直す
+     */
+    private boolean reload(CommandSender sender) {
+        if (!sender.hasPermission("natural_disaster.reload")) {
+            sender.sendMessage(MessageRenderer.get().format("command.no-permission", Map.of()));
+            return true;
+        }
+        Main.getPlugin(Main.class).reload();
+        sender.sendMessage(MessageRenderer.get().format("command.reloaded", Map.of()));
+        return true;
+    }
+
+    @Nullable
+    private static ZonedDateTime toDateTime(long millis) {
+        return millis <= 0 ? null : Instant.ofEpochMilli(millis).atZone(P2PTime.JST);
+    }
+
+    @Nullable
+    private static ZonedDateTime latestTime(DisasterType type) {
+        P2PQuakeEntry entry = P2PQuakeDispatcher.getLatest(type.getCode());
+        return entry == null || entry.getTime() == null ? null : P2PTime.parse(entry.getTime());
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        List<String> list = new ArrayList<>();
+        if (args.length == 1) {
+            for (String sub : SUB_COMMANDS) {
+                if (sub.startsWith(args[0].toLowerCase())) {
+                    list.add(sub);
+                }
+            }
+        } else if (args.length >= 2 && (args[0].equalsIgnoreCase("subscribe") || args[0].equalsIgnoreCase("unsubscribe"))) {
+            String input = args[args.length - 1];
+            if (Regions.ALL.startsWith(input.toLowerCase())) {
+                list.add(Regions.ALL);
+            }
+            for (String prefecture : Regions.getPrefectures()) {
+                if (prefecture.startsWith(input)) {
+                    list.add(prefecture);
+                }
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("replay")) {
+            if ("stop".startsWith(args[1].toLowerCase())) {
+                list.add("stop");
+            }
+            String[] files = new File(Main.getPlugin(Main.class).getDataFolder(), "replay").list();
+            if (files != null) {
+                for (String file : files) {
+                    if (file.startsWith(args[1])) {
+                        list.add(file);
+                    }
+                }
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,534 @@
+package mochineko.natural_disaster.delivery;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.message.RenderedMessage;
+import mochineko.natural_disaster.metrics.Metrics;
+import net.md_5.bungee.api.ChatMessageType;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.Sound;
+import org.bukkit.boss.BarColor;
+import org.bukkit.boss.BarStyle;
+import org.bukkit.boss.BossBar;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link AlertRouter} が振り分けた通知を、チャット・タイトル・アクションバー・ボスバー・効果音でプレイヤーへ届けるクラスです。
+ * 届いた通知はすぐには送らず、プレイヤーごとに重要度に応じた時間だけためます。
+ * その間に届いた同じ地震の続報は新しいものに置き換え、別の地震などの通知は捨てずに、同じ種類ごとに1回の送信にまとめます。
+ * 重要度ごとに1人が1分間に受け取る数を制限し、1回の処理で送るパケットの数にも上限を設けて、
+ * 緊急地震速報の続報や余震の情報が続いても、チャットが埋まったり一度に大量のパケットを送ったりしないようにします。
+ * メインスレッドからのみ使います。
+ */
+public final class AlertDelivery {
+
+    /**
+     * 通知の重要度
+     */
+    public enum Severity {
+        /**
+         * 小さな地震の情報や、若干の海面変動など
+         */
+        INFO,
+        /**
+         * 震度5弱以上の地震情報や、津波注意報など
+         */
+        WARNING,
+        /**
+         * 緊急地震速報や、津波警報・大津波警報など
+         */
+        CRITICAL;
+
+        private String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * 通知を送る方法
+     */
+    public enum Channel {
+        CHAT,
+        TITLE,
+        ACTION_BAR,
+        BOSS_BAR,
+        SOUND;
+
+        private String key() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        @Nullable
+        private static Channel parse(@Nonnull String name) {
+            try {
+                return valueOf(name.strip().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 主要動の到達予想時刻です。ボスバーの残り時間の表示に使います。
+     */
+    public static final class Arrival {
+        private final String area;
+        private final long millis;
+
+        /**
+         * @param area 予報区の名前（例：石川県能登）
+         * @param millis 到達予想時刻（エポックミリ秒）
+         */
+        public Arrival(@Nonnull String area, long millis) {
+            this.area = area;
+            this.millis = millis;
+        }
+    }
+
+    // 到達した後もボスバーを表示しておく時間
+    private static final long ARRIVED_MILLIS = 10_000;
+    private static final Severity[] SEVERITIES = Severity.values();
+
+    private static Settings settings;
+    private static BukkitTask task;
+    // メインスレッドからのみ触る。まだ送っていない通知があるプレイヤーを先頭から順に処理する
+    private static final Map<UUID, Recipient> recipients = new LinkedHashMap<>();
+    private static final Map<UUID, Countdown> countdowns = new HashMap<>();
+
+    private AlertDelivery() {
+    }
+
+    /**
+     * 送り方の設定を読み込み、送る処理を開始する関数。メインスレッドで呼ぶこと。
+     * 無効にした場合は、すべての通知をすぐにチャットで送る。
+     * @param section config.ymlの「delivery」セクション
+     */
+    public static void configure(@Nullable ConfigurationSection section) {
+        stop();
+        if (section == null || !section.getBoolean("enabled", true)) {
+            return;
+        }
+        try {
+            settings = new Settings(section);
+        } catch (IllegalArgumentException e) {
+            Bukkit.getLogger().warning("通知の送り方の設定が正しくないため、チャットだけで送ります：" + e.getMessage());
+            return;
+        }
+        task = Bukkit.getScheduler().runTaskTimer(Main.getPlugin(Main.class), AlertDelivery::flush,
+                settings.intervalTicks, settings.intervalTicks);
+    }
+
+    /**
+     * 送る処理を停止し、表示中のボスバーを消す関数。まだ送っていない通知は破棄する。メインスレッドで呼ぶこと。
+     */
+    public static void stop() {
+        settings = null;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        recipients.clear();
+        for (Countdown countdown : countdowns.values()) {
+            countdown.bar.removeAll();
+        }
+        countdowns.clear();
+    }
+
+    /**
+     * 通知を送る予定に加える関数。メインスレッドで呼ぶこと。
+     * まだ送っていない同じ種類・同じ出来事の通知がある場合は新しい通知で置き換え、違う出来事の場合は後ろに加える。
+     * @param type 情報の種類（例：eew）。config.ymlの「delivery.channels」のキー
+     * @param eventKey 同じ出来事の続報で同じになる値（例：緊急地震速報の地震のID）。続報が無い情報の場合はnull
+     * @param arrival 主要動の到達予想時刻（無い場合はnull）
+     */
+    public static void enqueue(@Nonnull Player player, @Nonnull String type, @Nullable String eventKey, @Nonnull Severity severity,
+                               @Nonnull RenderedMessage message, @Nullable Arrival arrival) {
+        Settings current = settings;
+        if (current == null) {
+            player.sendMessage(message.getPage(1));
+            Metrics.DELIVERIES.get(Channel.CHAT.key()).increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Recipient recipient = recipients.computeIfAbsent(player.getUniqueId(), uuid -> new Recipient(current, now));
+        // 既にためている場合は最初に届いた時刻から数えて、続報が続いても送るのが遅れ続けないようにする
+        Pending pending = recipient.pending.computeIfAbsent(type, key -> new Pending(type, now));
+        if (pending.add(eventKey, severity, message, arrival)) {
+            Metrics.COALESCED.get(type).increment();
+        }
+    }
+
+    /**
+     * ためていた通知のうち、待ち時間が過ぎて上限にかからないものを送り、ボスバーの残り時間を更新する
+     */
+    private static void flush() {
+        Settings current = settings;
+        if (current == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        int budget = current.maxPackets;
+
+        List<UUID> served = new ArrayList<>();
+        Iterator<Map.Entry<UUID, Recipient>> iterator = recipients.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Recipient> entry = iterator.next();
+            Recipient recipient = entry.getValue();
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null) {
+                iterator.remove();
+                continue;
+            }
+            recipient.refill(current, now);
+            if (budget <= 0) {
+                // 上限に達した場合は、残りのプレイヤーを次の処理で送る
+                continue;
+            }
+            List<Pending> ready = recipient.takeReady(current, now);
+            if (!ready.isEmpty()) {
+                budget -= deliver(player, ready, current, now);
+                served.add(entry.getKey());
+            }
+            if (recipient.pending.isEmpty() && recipient.isFull(current)) {
+                iterator.remove();
+            }
+        }
+        // 送ったプレイヤーを後ろに回し、上限に達しても同じプレイヤーばかりが先に送られないようにする
+        for (UUID uuid : served) {
+            Recipient recipient = recipients.remove(uuid);
+            if (recipient != null) {
+                recipients.put(uuid, recipient);
+            }
+        }
+
+        updateCountdowns(now);
+        Metrics.MAIN_THREAD.get("delivery").observeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * 1人に通知を送る。チャットはためていた通知をすべて送り、タイトル・アクションバー・効果音は、最も重要度の高い種類の最新の通知の分だけ送る
+     * @return 送ったパケットの数
+     */
+    private static int deliver(Player player, List<Pending> ready, Settings current, long now) {
+        ready.sort(Comparator.comparing((Pending pending) -> pending.severity).reversed());
+        int packets = 0;
+        Set<Channel> done = EnumSet.noneOf(Channel.class);
+        for (Pending pending : ready) {
+            Set<Channel> channels = current.channels(pending.type);
+            for (Channel channel : channels) {
+                if (channel != Channel.CHAT && !done.add(channel)) {
+                    continue;
+                }
+                int sent = send(player, channel, pending, current, now);
+                if (sent > 0) {
+                    packets += sent;
+                    Metrics.DELIVERIES.get(channel.key()).increment();
+                }
+            }
+        }
+        return packets;
+    }
+
+    private static int send(Player player, Channel channel, Pending pending, Settings current, long now) {
+        RenderedMessage message = pending.latest();
+        switch (channel) {
+            case CHAT: {
+                int packets = 0;
+                for (Part part : pending.parts) {
+                    String page = part.message.getPage(1);
+                    player.sendMessage(page);
+                    packets += 1 + (int) page.chars().filter(c -> c == '\n').count();
+                }
+                return packets;
+            }
+            case TITLE: {
+                String[] lines = message.getPage(1).split("\n", 3);
+                String subtitle = lines.length > 1 ? lines[1] : "";
+                player.sendTitle(message.getTitle(), subtitle, current.fadeInTicks, current.stayTicks, current.fadeOutTicks);
+                return 3;
+            }
+            case ACTION_BAR:
+                player.spigot().sendMessage(ChatMessageType.ACTION_BAR, TextComponent.fromLegacyText(message.getTitle()));
+                return 1;
+            case SOUND: {
+                Sound sound = current.sounds.get(pending.severity);
+                if (sound == null) {
+                    return 0;
+                }
+                player.playSound(player.getLocation(), sound, 1.0f, 1.0f);
+                return 1;
+            }
+            case BOSS_BAR: {
+                Arrival arrival = pending.arrival;
+                if (arrival == null || arrival.millis + ARRIVED_MILLIS <= now) {
+                    return 0;
+                }
+                Countdown countdown = countdowns.get(player.getUniqueId());
+                if (countdown == null) {
+                    BossBar bar = Bukkit.createBossBar("", current.barColor, BarStyle.SOLID);
+                    bar.addPlayer(player);
+                    countdown = new Countdown(bar);
+                    countdowns.put(player.getUniqueId(), countdown);
+                }
+                countdown.start(arrival, now);
+                return 2;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * ボスバーの残り時間を、表示する秒数が変わったときだけ更新する
+     */
+    private static void updateCountdowns(long now) {
+        MessageRenderer renderer = null;
+        Iterator<Map.Entry<UUID, Countdown>> iterator = countdowns.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Countdown> entry = iterator.next();
+            Countdown countdown = entry.getValue();
+            long remaining = countdown.arrival.millis - now;
+            if (Bukkit.getPlayer(entry.getKey()) == null || remaining <= -ARRIVED_MILLIS) {
+                countdown.bar.removeAll();
+                iterator.remove();
+                continue;
+            }
+            long seconds = Math.max(0, (remaining + 999) / 1000);
+            if (seconds == countdown.shownSeconds) {
+                continue;
+            }
+            countdown.shownSeconds = seconds;
+            if (renderer == null) {
+                renderer = MessageRenderer.get();
+            }
+            countdown.bar.setTitle(seconds > 0
+                    ? renderer.format("visual.countdown", Map.of("area", countdown.arrival.area, "seconds", seconds))
+                    : renderer.format("visual.arrived", Map.of("area", countdown.arrival.area)));
+            double total = countdown.arrival.millis - countdown.startedAt;
+            countdown.bar.setProgress(total <= 0 ? 0 : Math.max(0, Math.min(1, remaining / total)));
+        }
+    }
+
+    /**
+     * まだ送っていない、1つの種類の通知です。出来事ごとのメッセージを、届いた順に持ちます。
+     */
+    private static final class Pending {
+        private final String type;
+        private final long queuedAt;
+        private final List<Part> parts = new ArrayList<>(1);
+        private Severity severity = Severity.INFO;
+        @Nullable
+        private Arrival arrival;
+
+        private Pending(String type, long queuedAt) {
+            this.type = type;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * 通知を加える。同じ出来事の通知がある場合は、その場所で新しい通知に置き換える
+         * @return 置き換えた場合はtrue
+         */
+        private boolean add(@Nullable String eventKey, Severity severity, RenderedMessage message, @Nullable Arrival arrival) {
+            if (severity.compareTo(this.severity) > 0) {
+                this.severity = severity;
+            }
+            if (arrival != null) {
+                this.arrival = arrival;
+            }
+            Part part = new Part(eventKey, message);
+            if (eventKey != null) {
+                for (int i = 0; i < parts.size(); i++) {
+                    if (eventKey.equals(parts.get(i).eventKey)) {
+                        parts.set(i, part);
+                        return true;
+                    }
+                }
+            }
+            parts.add(part);
+            return false;
+        }
+
+        /**
+         * 最後に届いた通知を返す
+         */
+        private RenderedMessage latest() {
+            return parts.get(parts.size() - 1).message;
+        }
+    }
+
+    /**
+     * 1つの出来事のメッセージです。
+     */
+    private static final class Part {
+        @Nullable
+        private final String eventKey;
+        private final RenderedMessage message;
+
+        private Part(@Nullable String eventKey, RenderedMessage message) {
+            this.eventKey = eventKey;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 1人のプレイヤーの、まだ送っていない通知と、重要度ごとの送れる残りの数（トークンバケット）です。
+     */
+    private static final class Recipient {
+        // 情報の種類ごとに1つ。届いた順に並ぶ
+        private final Map<String, Pending> pending = new LinkedHashMap<>();
+        private final double[] tokens = new double[SEVERITIES.length];
+        private long refilledAt;
+
+        private Recipient(Settings settings, long now) {
+            for (Severity severity : SEVERITIES) {
+                tokens[severity.ordinal()] = settings.ratePerMinute[severity.ordinal()];
+            }
+            refilledAt = now;
+        }
+
+        private void refill(Settings settings, long now) {
+            long elapsed = now - refilledAt;
+            refilledAt = now;
+            for (Severity severity : SEVERITIES) {
+                int rate = settings.ratePerMinute[severity.ordinal()];
+                tokens[severity.ordinal()] = Math.min(rate, tokens[severity.ordinal()] + rate * elapsed / 60_000.0);
+            }
+        }
+
+        private boolean isFull(Settings settings) {
+            for (Severity severity : SEVERITIES) {
+                if (tokens[severity.ordinal()] < settings.ratePerMinute[severity.ordinal()]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 待ち時間が過ぎていて、上限にかからない通知を取り出す。上限にかかった通知は残して、続報とまとめる
+         */
+        private List<Pending> takeReady(Settings settings, long now) {
+            List<Pending> ready = new ArrayList<>();
+            Iterator<Pending> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                Pending next = iterator.next();
+                int index = next.severity.ordinal();
+                if (now - next.queuedAt < settings.coalesceMillis[index]) {
+                    continue;
+                }
+                if (settings.ratePerMinute[index] > 0) {
+                    if (tokens[index] < 1) {
+                        continue;
+                    }
+                    tokens[index]--;
+                }
+                ready.add(next);
+                iterator.remove();
+            }
+            return ready;
+        }
+    }
+
+    /**
+     * 1人のプレイヤーに表示している、主要動の到達までのボスバーです。
+     */
+    private static final class Countdown {
+        private final BossBar bar;
+        private Arrival arrival;
+        private long startedAt;
+        private long shownSeconds = -1;
+
+        private Countdown(BossBar bar) {
+            this.bar = bar;
+        }
+
+        private void start(Arrival next, long now) {
+            // 続報で到達予想時刻が変わっても、バーの長さは最初の表示からの割合にする
+            if (arrival == null || arrival.millis + ARRIVED_MILLIS <= now) {
+                startedAt = now;
+            }
+            arrival = next;
+            shownSeconds = -1;
+        }
+    }
+
+    private static final class Settings {
+        private final long intervalTicks;
+        private final int maxPackets;
+        private final long[] coalesceMillis = new long[SEVERITIES.length];
+        private final int[] ratePerMinute = new int[SEVERITIES.length];
+        private final Map<Severity, Sound> sounds = new EnumMap<>(Severity.class);
+        private final Map<String, Set<Channel>> channels = new HashMap<>();
+        private final BarColor barColor;
+        private final int fadeInTicks;
+        private final int stayTicks;
+        private final int fadeOutTicks;
+
+        private Settings(ConfigurationSection section) {
+            intervalTicks = Math.max(1, section.getLong("interval-ticks", 2));
+            maxPackets = Math.max(1, section.getInt("max-packets", 400));
+            for (Severity severity : SEVERITIES) {
+                coalesceMillis[severity.ordinal()] = Math.max(0, section.getLong("coalesce-millis." + severity.key(), 0));
+                ratePerMinute[severity.ordinal()] = Math.max(0, section.getInt("rate-per-minute." + severity.key(), 0));
+                String sound = section.getString("sounds." + severity.key());
+                if (sound != null && !sound.isEmpty() && !sound.equalsIgnoreCase("none")) {
+                    try {
+                        sounds.put(severity, Sound.valueOf(sound.toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("効果音の名前が正しくありません：" + sound);
+                    }
+                }
+            }
+            ConfigurationSection channelSection = section.getConfigurationSection("channels");
+            if (channelSection != null) {
+                for (String type : channelSection.getKeys(false)) {
+                    Set<Channel> set = EnumSet.noneOf(Channel.class);
+                    for (String name : channelSection.getStringList(type)) {
+                        Channel channel = Channel.parse(name);
+                        if (channel == null) {
+                            throw new IllegalArgumentException("送る方法の名前が正しくありません：" + name);
+                        }
+                        set.add(channel);
+                    }
+                    channels.put(type, set);
+                }
+            }
+            try {
+                barColor = BarColor.valueOf(section.getString("boss-bar-color", "RED").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("ボスバーの色が正しくありません：" + section.getString("boss-bar-color"));
+            }
+            fadeInTicks = Math.max(0, section.getInt("title.fade-in-ticks", 5));
+            stayTicks = Math.max(1, section.getInt("title.stay-ticks", 60));
+            fadeOutTicks = Math.max(0, section.getInt("title.fade-out-ticks", 10));
+        }
+
+        /**
+         * 情報の種類の送り方を返す。設定に無い種類はチャットで送る
+         */
+        private Set<Channel> channels(String type) {
+            Set<Channel> set = channels.get(type);
+            return set == null ? EnumSet.of(Channel.CHAT) : set;
+        }
+    }
+}
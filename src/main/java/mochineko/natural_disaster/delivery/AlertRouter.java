@@ -0,0 +1,240 @@
+package mochineko.natural_disaster.delivery;
+
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.geo.IntensityEstimator;
+import mochineko.natural_disaster.geo.IntensityGrid;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.message.RenderedMessage;
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import mochineko.natural_disaster.monitor.TsunamiStateTracker;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.status.TsunamiGrade;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * 災害情報を、その地域を購読しているプレイヤーだけに届けるクラスです。
+ * 情報に含まれる地域から {@link SubscriptionIndex} で1回だけプレイヤーを引き、
+ * 購読している地域の組み合わせごとに1回だけメッセージを描画して、1人に1通だけ {@link AlertDelivery} へ渡します。
+ */
+public final class AlertRouter {
+
+    private static boolean defaultAll = true;
+    private static volatile RenderedMessage latest;
+    // メインスレッドからのみ触る
+    private static final Map<UUID, RenderedMessage> received = new HashMap<>();
+
+    private AlertRouter() {
+    }
+
+    /**
+     * 配信の設定を読み込む関数
+     * @param section config.ymlの「subscription」セクション
+     */
+    public static void configure(@Nonnull ConfigurationSection section) {
+        defaultAll = section.getBoolean("default-all", true);
+    }
+
+    /**
+     * 何も購読していないプレイヤーにも、すべての情報を送るかどうかを返す関数
+     */
+    public static boolean isDefaultAll() {
+        return defaultAll;
+    }
+
+    /**
+     * 地震情報を、震度を観測した都道府県を購読しているプレイヤーへ送る関数
+     */
+    public static void routeEarthquake(@Nonnull P2PEarthquakeAPI api) {
+        Set<String> regions = new HashSet<>();
+        if (api.getPoints() != null) {
+            for (P2PEarthquakeAPI.Point point : api.getPoints()) {
+                addIfPresent(regions, Regions.ofPrefecture(point.getPref()));
+            }
+        }
+        P2PEarthquakeAPI.Earthquake earthquake = api.getEarthquake();
+        EarthquakeScaleType maxScale = earthquake == null ? EarthquakeScaleType.UNKNOWN : earthquake.getMaxScaleType();
+        AlertDelivery.Severity severity = maxScale != EarthquakeScaleType.UNKNOWN && maxScale.ordinal() >= EarthquakeScaleType.FIVE_LOW.ordinal()
+                ? AlertDelivery.Severity.WARNING : AlertDelivery.Severity.INFO;
+        route("earthquake", earthquake == null ? null : earthquake.getTime(), severity, earthquake == null || earthquake.getTime() == null ? api.getZonedDateTime() : earthquake.getZonedDateTime(),
+                regions, filter -> MessageRenderer.get().renderEarthquake(api, filter), null);
+    }
+
+    /**
+     * 緊急地震速報を、対象の府県予報区を購読しているプレイヤーへ送る関数。
+     * 震源から推定した震度（{@link IntensityEstimator}）が設定以上の都道府県も、情報に含まれていなくても対象にする。
+     */
+    public static void routeEEW(@Nonnull P2PEEWAPI api) {
+        Set<String> regions = new HashSet<>();
+        if (api.getAreas() != null) {
+            for (P2PEEWAPI.Area area : api.getAreas()) {
+                addIfPresent(regions, Regions.ofPrefecture(area.getPref()));
+            }
+        }
+        Map<String, EarthquakeScaleType> estimated = new LinkedHashMap<>();
+        EarthquakeScaleType warnScale = IntensityEstimator.getWarnScale();
+        IntensityGrid grid = api.getEarthquake() == null ? null : IntensityEstimator.estimate(api.getEarthquake().getHypocenter());
+        if (grid != null && warnScale != null) {
+            for (Map.Entry<String, EarthquakeScaleType> entry : grid.getRegionScales().entrySet()) {
+                if (entry.getValue().ordinal() >= warnScale.ordinal() && !regions.contains(entry.getKey())) {
+                    estimated.put(entry.getKey(), entry.getValue());
+                }
+            }
+            regions.addAll(estimated.keySet());
+        }
+        route("eew", api.getEventId(), AlertDelivery.Severity.CRITICAL,
+                api.getEarthquake() == null ? api.getZonedDateTime() : api.getEarthquake().getOriginZonedDateTime(),
+                regions, filter -> MessageRenderer.get().renderEEW(api, estimated, filter), filter -> earliestArrival(api, filter));
+    }
+
+    /**
+     * 津波予報で変化した予報区を、その都道府県・津波予報区を購読しているプレイヤーへ送る関数。
+     * 変化の無い予報区だけを購読しているプレイヤーには送らない。
+     * @param changes {@link TsunamiStateTracker#apply(P2PTsunamiAPI)} で得た変化
+     */
+    public static void routeTsunami(@Nonnull P2PTsunamiAPI api, @Nonnull List<TsunamiStateTracker.Change> changes) {
+        Set<String> regions = new HashSet<>();
+        for (TsunamiStateTracker.Change change : changes) {
+            regions.addAll(Regions.ofTsunamiArea(change.getName()));
+            addIfPresent(regions, Regions.ofAreaName(change.getName()));
+        }
+        // 変化ごとの通知は続報で置き換えられないため、出来事は指定しない
+        route("tsunami", null, tsunamiSeverity(changes), api.getZonedDateTime(), regions,
+                filter -> MessageRenderer.get().renderTsunamiChanges(api, changes, filter), null);
+    }
+
+    /**
+     * 地域で絞り込んだ予報区の中で、主要動の到達予想時刻が最も早いものを返す
+     * @param filter 地域（nullの場合はすべての予報区）
+     */
+    @Nullable
+    private static AlertDelivery.Arrival earliestArrival(P2PEEWAPI api, @Nullable Set<String> filter) {
+        if (api.getAreas() == null) {
+            return null;
+        }
+        AlertDelivery.Arrival earliest = null;
+        long earliestMillis = Long.MAX_VALUE;
+        for (P2PEEWAPI.Area area : api.getAreas()) {
+            ZonedDateTime arrival = area.getArrivalZonedDateTime();
+            if (arrival == null || area.getName() == null
+                    || (filter != null && !filter.contains(Regions.ofPrefecture(area.getPref())))) {
+                continue;
+            }
+            long millis = arrival.toInstant().toEpochMilli();
+            if (millis < earliestMillis) {
+                earliestMillis = millis;
+                earliest = new AlertDelivery.Arrival(area.getName(), millis);
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * 津波警報以上が発表・引き上げられた場合は最も重要とし、津波注意報が含まれる場合はその次とする
+     */
+    private static AlertDelivery.Severity tsunamiSeverity(List<TsunamiStateTracker.Change> changes) {
+        AlertDelivery.Severity severity = AlertDelivery.Severity.INFO;
+        for (TsunamiStateTracker.Change change : changes) {
+            if (change.getKind() == TsunamiStateTracker.Kind.CANCELLED || change.getKind() == TsunamiStateTracker.Kind.DOWNGRADE) {
+                continue;
+            }
+            if (change.getGrade() == TsunamiGrade.MAJOR_WARNING || change.getGrade() == TsunamiGrade.WARNING) {
+                return AlertDelivery.Severity.CRITICAL;
+            }
+            if (change.getGrade() == TsunamiGrade.WATCH) {
+                severity = AlertDelivery.Severity.WARNING;
+            }
+        }
+        return severity;
+    }
+
+    /**
+     * 送る相手ごとのメッセージを取得スレッドで描画し、送信だけをメインスレッドで行う
+     * @param type 計測値と送り方の設定で使う情報の種類（例：earthquake）
+     * @param eventKey 同じ出来事の続報で同じになる値。まだ送っていない同じ出来事の通知を置き換えるのに使う
+     * @param severity 通知の重要度。まとめるまでの待ち時間と、送る数の上限に使う
+     * @param origin 地震の発生時刻。送るまでの時間の計測に使う
+     * @param eventRegions 情報に含まれる地域
+     * @param render 地域で絞り込んだメッセージを描画する関数（nullの場合はすべての地域）
+     * @param arrival 地域で絞り込んだ主要動の到達予想時刻を返す関数（到達予想時刻の無い情報の場合はnull）
+     */
+    private static void route(String type, @Nullable String eventKey, AlertDelivery.Severity severity, @Nullable ZonedDateTime origin, Set<String> eventRegions,
+                              Function<Set<String>, RenderedMessage> render, @Nullable Function<Set<String>, AlertDelivery.Arrival> arrival) {
+        long start = System.nanoTime();
+        RenderedMessage full = render.apply(null);
+        Map<Set<String>, RenderedMessage> rendered = new HashMap<>();
+        Map<UUID, RenderedMessage> messages = new HashMap<>();
+        AlertDelivery.Arrival fullArrival = arrival == null ? null : arrival.apply(null);
+        Map<Set<String>, AlertDelivery.Arrival> arrivals = new HashMap<>();
+        Map<UUID, AlertDelivery.Arrival> playerArrivals = new HashMap<>();
+        for (Map.Entry<UUID, Set<String>> entry : SubscriptionIndex.match(eventRegions).entrySet()) {
+            Set<String> regions = entry.getValue();
+            boolean all = regions.contains(Regions.ALL);
+            messages.put(entry.getKey(), all ? full : rendered.computeIfAbsent(regions, render));
+            if (arrival != null) {
+                AlertDelivery.Arrival playerArrival = all ? fullArrival : arrivals.computeIfAbsent(regions, arrival);
+                if (playerArrival != null) {
+                    playerArrivals.put(entry.getKey(), playerArrival);
+                }
+            }
+        }
+        Metrics.RENDER.get(type).observeNanos(System.nanoTime() - start);
+
+        DisasterExecutor.runSync("broadcast", () -> {
+            latest = full;
+            received.keySet().removeIf(uuid -> Bukkit.getPlayer(uuid) == null);
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                UUID uuid = player.getUniqueId();
+                RenderedMessage message = messages.get(uuid);
+                AlertDelivery.Arrival playerArrival = playerArrivals.get(uuid);
+                if (message == null && defaultAll && !SubscriptionIndex.hasSubscriptions(uuid)) {
+                    message = full;
+                    playerArrival = fullArrival;
+                }
+                if (message != null) {
+                    AlertDelivery.enqueue(player, type, eventKey, severity, message, playerArrival);
+                    received.put(uuid, message);
+                }
+            }
+            Bukkit.getConsoleSender().sendMessage(full.getPage(1));
+            if (origin != null) {
+                Metrics.ALERT_LATENCY.get(type).observeMillis(System.currentTimeMillis() - origin.toInstant().toEpochMilli());
+            }
+        });
+    }
+
+    /**
+     * 最後に受け取ったメッセージを返す関数。メインスレッドで呼ぶこと。
+     * @return プレイヤー以外の場合は、最後に描画した全地域のメッセージを返す
+     */
+    @Nullable
+    public static RenderedMessage getLastReceived(@Nonnull CommandSender sender) {
+        if (sender instanceof Player) {
+            return received.get(((Player) sender).getUniqueId());
+        }
+        return latest;
+    }
+
+    private static void addIfPresent(Set<String> set, @Nullable String value) {
+        if (value != null) {
+            set.add(value);
+        }
+    }
+}
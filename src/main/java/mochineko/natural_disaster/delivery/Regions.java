@@ -0,0 +1,146 @@
+package mochineko.natural_disaster.delivery;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 購読の単位となる地域の名前をそろえるクラスです。
+ * 都道府県は「石川県」「石川」のどちらで指定しても「石川」として扱います。
+ * 津波予報区は、名前が都道府県で始まるものはその都道府県に、始まらないもの（例：東京湾内湾）は沿岸の都道府県に当てはめ、
+ * あわせて予報区の名前そのものも地域として扱います。
+ */
+public final class Regions {
+
+    /**
+     * すべての地域を表す名前
+     */
+    public static final String ALL = "all";
+
+    private static final String[] PREFECTURES = {
+            "北海道", "青森県", "岩手県", "宮城県", "秋田県", "山形県", "福島県",
+            "茨城県", "栃木県", "群馬県", "埼玉県", "千葉県", "東京都", "神奈川県",
+            "新潟県", "富山県", "石川県", "福井県", "山梨県", "長野県", "岐阜県",
+            "静岡県", "愛知県", "三重県", "滋賀県", "京都府", "大阪府", "兵庫県",
+            "奈良県", "和歌山県", "鳥取県", "島根県", "岡山県", "広島県", "山口県",
+            "徳島県", "香川県", "愛媛県", "高知県", "福岡県", "佐賀県", "長崎県",
+            "熊本県", "大分県", "宮崎県", "鹿児島県", "沖縄県"
+    };
+
+    /**
+     * 名前が都道府県で始まらない津波予報区と、沿岸の都道府県
+     */
+    private static final Map<String, List<String>> TSUNAMI_AREAS = Map.ofEntries(
+            Map.entry("オホーツク海沿岸", List.of("北海道")),
+            Map.entry("陸奥湾", List.of("青森")),
+            Map.entry("東京湾内湾", List.of("東京", "千葉", "神奈川")),
+            Map.entry("伊豆諸島", List.of("東京")),
+            Map.entry("小笠原諸島", List.of("東京")),
+            Map.entry("相模湾・三浦半島", List.of("神奈川")),
+            Map.entry("佐渡", List.of("新潟")),
+            Map.entry("伊勢・三河湾", List.of("愛知", "三重")),
+            Map.entry("淡路島南部", List.of("兵庫")),
+            Map.entry("隠岐", List.of("島根")),
+            Map.entry("壱岐・対馬", List.of("長崎")),
+            Map.entry("有明・八代海", List.of("福岡", "佐賀", "長崎", "熊本", "鹿児島")),
+            Map.entry("種子島・屋久島地方", List.of("鹿児島")),
+            Map.entry("奄美群島・トカラ列島", List.of("鹿児島")),
+            Map.entry("沖縄本島地方", List.of("沖縄")),
+            Map.entry("大東島地方", List.of("沖縄")),
+            Map.entry("宮古島・八重山地方", List.of("沖縄"))
+    );
+
+    private static final Map<String, String> LOOKUP = new HashMap<>();
+    private static final List<String> SHORT_NAMES = new ArrayList<>();
+
+    static {
+        for (String prefecture : PREFECTURES) {
+            String shortName = prefecture.equals("北海道") ? prefecture : prefecture.substring(0, prefecture.length() - 1);
+            LOOKUP.put(prefecture, shortName);
+            LOOKUP.put(shortName, shortName);
+            SHORT_NAMES.add(shortName);
+        }
+    }
+
+    private Regions() {
+    }
+
+    /**
+     * コマンドで指定された地域名をそろえる関数
+     * @param input （例：「石川県」「石川」「all」「全国」「東京湾内湾」）
+     */
+    @Nonnull
+    public static String normalize(@Nonnull String input) {
+        String trimmed = input.trim();
+        if (trimmed.equalsIgnoreCase(ALL) || trimmed.equals("全国")) {
+            return ALL;
+        }
+        String prefecture = LOOKUP.get(trimmed);
+        return prefecture != null ? prefecture : trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 都道府県名、または府県予報区の名前から地域名を返す関数
+     * @param pref （例：「石川県」「石川」）
+     * @return 都道府県に当てはまらない場合はnull
+     */
+    @Nullable
+    public static String ofPrefecture(@Nullable String pref) {
+        if (pref == null) {
+            return null;
+        }
+        String prefecture = LOOKUP.get(pref);
+        if (prefecture != null) {
+            return prefecture;
+        }
+        return ofPrefix(pref);
+    }
+
+    /**
+     * 津波予報区の名前から、沿岸の都道府県の地域名を返す関数
+     * @param name （例：「石川県能登」の場合は「石川」、「東京湾内湾」の場合は「東京」「千葉」「神奈川」）
+     * @return 都道府県に当てはまらない予報区の場合は空のList
+     */
+    @Nonnull
+    public static List<String> ofTsunamiArea(@Nullable String name) {
+        if (name == null) {
+            return List.of();
+        }
+        List<String> prefectures = TSUNAMI_AREAS.get(name);
+        if (prefectures != null) {
+            return prefectures;
+        }
+        String prefecture = ofPrefix(name);
+        return prefecture == null ? List.of() : List.of(prefecture);
+    }
+
+    /**
+     * 津波予報区の名前を、購読の地域名にそろえる関数
+     */
+    @Nullable
+    public static String ofAreaName(@Nullable String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 都道府県の地域名の一覧を返す関数
+     */
+    @Nonnull
+    public static List<String> getPrefectures() {
+        return SHORT_NAMES;
+    }
+
+    @Nullable
+    private static String ofPrefix(String name) {
+        for (String prefecture : PREFECTURES) {
+            if (name.startsWith(prefecture)) {
+                return LOOKUP.get(prefecture);
+            }
+        }
+        return null;
+    }
+}
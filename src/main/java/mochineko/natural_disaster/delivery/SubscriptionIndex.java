@@ -0,0 +1,191 @@
+package mochineko.natural_disaster.delivery;
+
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * プレイヤーが購読している地域を管理するクラスです。
+ * 地域 → 購読しているプレイヤーの索引を持っているため、1つの情報に関係するプレイヤーを1回で引けます。
+ */
+public final class SubscriptionIndex {
+
+    private static final Map<String, Set<UUID>> byRegion = new HashMap<>();
+    private static final Map<UUID, Set<String>> byPlayer = new HashMap<>();
+    private static File file;
+    private static final Object saveLock = new Object();
+    private static long version;
+
+    private SubscriptionIndex() {
+    }
+
+    /**
+     * 購読の情報をファイルから読み込む関数
+     * @param file subscriptions.yml
+     */
+    public static synchronized void load(@Nonnull File file) {
+        SubscriptionIndex.file = file;
+        byRegion.clear();
+        byPlayer.clear();
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+        for (String key : yaml.getKeys(false)) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            for (String region : yaml.getStringList(key)) {
+                add(uuid, region);
+            }
+        }
+    }
+
+    /**
+     * 地域を購読する関数
+     * @return 新しく購読した場合はtrue
+     */
+    public static boolean subscribe(@Nonnull UUID uuid, @Nonnull String region) {
+        boolean added;
+        synchronized (SubscriptionIndex.class) {
+            added = add(uuid, region);
+        }
+        if (added) {
+            save();
+        }
+        return added;
+    }
+
+    /**
+     * 地域の購読をやめる関数
+     * @param region {@link Regions#ALL} の場合はすべての購読をやめる
+     * @return 購読をやめた場合はtrue
+     */
+    public static boolean unsubscribe(@Nonnull UUID uuid, @Nonnull String region) {
+        boolean removed = false;
+        synchronized (SubscriptionIndex.class) {
+            Set<String> regions = byPlayer.get(uuid);
+            if (regions == null) {
+                return false;
+            }
+            Collection<String> targets = region.equals(Regions.ALL) ? new ArrayList<>(regions) : List.of(region);
+            for (String target : targets) {
+                if (regions.remove(target)) {
+                    removed = true;
+                    Set<UUID> players = byRegion.get(target);
+                    if (players != null && players.remove(uuid) && players.isEmpty()) {
+                        byRegion.remove(target);
+                    }
+                }
+            }
+            if (regions.isEmpty()) {
+                byPlayer.remove(uuid);
+            }
+        }
+        if (removed) {
+            save();
+        }
+        return removed;
+    }
+
+    /**
+     * プレイヤーが購読している地域を返す関数
+     */
+    @Nonnull
+    public static synchronized Set<String> getRegions(@Nonnull UUID uuid) {
+        Set<String> regions = byPlayer.get(uuid);
+        return regions == null ? Collections.emptySet() : new TreeSet<>(regions);
+    }
+
+    /**
+     * プレイヤーが1つでも地域を購読しているかを返す関数
+     */
+    public static synchronized boolean hasSubscriptions(@Nonnull UUID uuid) {
+        return byPlayer.containsKey(uuid);
+    }
+
+    /**
+     * 情報に含まれる地域から、関係するプレイヤーと、そのプレイヤーが購読している地域を返す関数
+     * @param eventRegions 情報に含まれる地域
+     * @return プレイヤーごとに、一致した地域を返す。すべての地域を購読している場合は {@link Regions#ALL} が含まれる。
+     */
+    @Nonnull
+    public static synchronized Map<UUID, Set<String>> match(@Nonnull Set<String> eventRegions) {
+        Map<UUID, Set<String>> matched = new HashMap<>();
+        for (String region : eventRegions) {
+            Set<UUID> players = byRegion.get(region);
+            if (players != null) {
+                for (UUID uuid : players) {
+                    matched.computeIfAbsent(uuid, key -> new HashSet<>()).add(region);
+                }
+            }
+        }
+        Set<UUID> all = byRegion.get(Regions.ALL);
+        if (all != null) {
+            for (UUID uuid : all) {
+                matched.computeIfAbsent(uuid, key -> new HashSet<>()).add(Regions.ALL);
+            }
+        }
+        return matched;
+    }
+
+    private static boolean add(UUID uuid, String region) {
+        if (!byPlayer.computeIfAbsent(uuid, key -> new HashSet<>()).add(region)) {
+            return false;
+        }
+        byRegion.computeIfAbsent(region, key -> new HashSet<>()).add(uuid);
+        return true;
+    }
+
+    /**
+     * 購読の情報を、取得スレッドでファイルに保存する
+     */
+    private static void save() {
+        Map<String, List<String>> snapshot = new HashMap<>();
+        File target;
+        long snapshotVersion;
+        synchronized (SubscriptionIndex.class) {
+            target = file;
+            snapshotVersion = ++version;
+            byPlayer.forEach((uuid, regions) -> snapshot.put(uuid.toString(), new ArrayList<>(new TreeSet<>(regions))));
+        }
+        if (target == null) {
+            return;
+        }
+        DisasterExecutor.get().execute(() -> {
+            synchronized (saveLock) {
+                synchronized (SubscriptionIndex.class) {
+                    // より新しい保存が予約されている場合は、そちらに任せる
+                    if (snapshotVersion != version) {
+                        return;
+                    }
+                }
+                YamlConfiguration yaml = new YamlConfiguration();
+                snapshot.forEach(yaml::set);
+                try {
+                    yaml.save(target);
+                } catch (IOException e) {
+                    Bukkit.getLogger().log(Level.WARNING, "購読の情報を保存できませんでした。", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,245 @@
+package mochineko.natural_disaster.geo;
+
+import mochineko.natural_disaster.delivery.Regions;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+
+/**
+ * 観測点・予報区・都道府県の代表地点の緯度・経度を引くクラスです。
+ * 地震情報や緊急地震速報には地点の名前しか無いため、名前から緯度・経度を求めたり、震源に近い地点を探したりするのに使います。
+ *
+ * <p>地点はプラグインに同梱した「geo/locations.csv」と、データフォルダの「geo/locations.csv」（任意。同じ名前は上書き）から読み、
+ * 初回に「geo/locations.bin」へバイナリの表として書き出して、以降はその表をメモリマップして使います。
+ * 地点はIDの番号で扱い、名前からIDは O(1)、最近傍・半径の検索は KD木で O(log n) で求め、検索ごとのオブジェクトは作りません。</p>
+ */
+public final class GeoIndex {
+
+    /**
+     * 地点の種類
+     */
+    public enum Kind {
+        /**
+         * 都道府県の代表地点（都道府県庁の所在地）。名前は {@link Regions#ofPrefecture(String)} でそろえたもの（例：石川）
+         */
+        PREFECTURE,
+        /**
+         * 震度観測点。名前は地震情報の観測点と同じもの（例：輪島市鳳至町）
+         */
+        STATION,
+        /**
+         * 緊急地震速報・津波予報の予報区。名前は予報区の名前（例：石川県能登）
+         */
+        AREA
+    }
+
+    private static final String RESOURCE = "geo/locations.csv";
+    private static final String TABLE = "geo/locations.bin";
+
+    private static volatile GeoTable table;
+
+    private GeoIndex() {
+    }
+
+    /**
+     * 地点の表を読み込む関数。
+     * 元のCSVが変わっていない場合は、書き出し済みの表をそのままメモリマップする。
+     */
+    public static synchronized void load(@Nonnull JavaPlugin plugin) {
+        try {
+            byte[] bundled = readBundled();
+            File custom = new File(plugin.getDataFolder(), RESOURCE);
+            byte[] extra = custom.isFile() ? Files.readAllBytes(custom.toPath()) : null;
+            long hash = hash(bundled, extra);
+
+            Path path = new File(plugin.getDataFolder(), TABLE).toPath();
+            if (Files.isRegularFile(path)) {
+                try {
+                    GeoTable mapped = map(path);
+                    if (mapped.getSourceHash() == hash) {
+                        table = mapped;
+                        return;
+                    }
+                } catch (IOException e) {
+                    Bukkit.getLogger().warning("地点の表を読み込めないため、作り直します：" + e.getMessage());
+                }
+            }
+
+            byte[] built = build(bundled, extra, hash);
+            try {
+                Files.createDirectories(path.getParent());
+                Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+                Files.write(temporary, built);
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                table = map(path);
+            } catch (IOException e) {
+                // 書き出せない場合も、メモリ上の表で動かす
+                Bukkit.getLogger().log(Level.WARNING, "地点の表を書き出せませんでした", e);
+                table = new GeoTable(ByteBuffer.wrap(built));
+            }
+            Bukkit.getLogger().info("地点の表を作成しました（" + table.size() + "地点）");
+        } catch (IOException e) {
+            Bukkit.getLogger().log(Level.WARNING, "地点の一覧を読み込めませんでした", e);
+        }
+    }
+
+    /**
+     * 読み込み済みの表を返す。プラグインを使わない場合（ベンチマークなど）は、同梱のCSVからメモリ上に作る
+     */
+    private static GeoTable table() {
+        GeoTable current = table;
+        if (current == null) {
+            synchronized (GeoIndex.class) {
+                current = table;
+                if (current == null) {
+                    try {
+                        byte[] bundled = readBundled();
+                        current = new GeoTable(ByteBuffer.wrap(build(bundled, null, hash(bundled, null))));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("同梱の地点の一覧を読み込めませんでした", e);
+                    }
+                    table = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static GeoTable map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // マップしたバッファはチャンネルを閉じても使える
+            return new GeoTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static byte[] readBundled() throws IOException {
+        try (InputStream in = GeoIndex.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IOException(RESOURCE + "がプラグインに含まれていません");
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] build(byte[] bundled, @Nullable byte[] extra, long hash) throws IOException {
+        GeoTableWriter writer = new GeoTableWriter();
+        writer.read(new StringReader(new String(bundled, StandardCharsets.UTF_8)), "同梱の" + RESOURCE);
+        if (extra != null) {
+            writer.read(new StringReader(new String(extra, StandardCharsets.UTF_8)), RESOURCE);
+        }
+        return writer.write(hash);
+    }
+
+    private static long hash(byte[] bundled, @Nullable byte[] extra) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bundled);
+            if (extra != null) {
+                digest.update((byte) 0);
+                digest.update(extra);
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 地点の数を返す関数。IDは0からこの数より小さい値になる
+     */
+    public static int size() {
+        return table().size();
+    }
+
+    /**
+     * 名前から地点のIDを返す関数
+     * @param name （例：石川、輪島市鳳至町、石川県能登）
+     * @return 見つからない場合は-1
+     */
+    public static int find(@Nullable String name) {
+        return name == null ? -1 : table().find(name);
+    }
+
+    /**
+     * 地点の名前から、見つからない場合は都道府県の代表地点から、地点のIDを返す関数
+     * @param name 観測点・予報区の名前
+     * @param prefecture 地点のある都道府県（例：石川県）
+     * @return どちらも見つからない場合は-1
+     */
+    public static int locate(@Nullable String name, @Nullable String prefecture) {
+        int id = find(name);
+        return id >= 0 ? id : find(Regions.ofPrefecture(prefecture));
+    }
+
+    @Nonnull
+    public static String getName(int id) {
+        return table().getName(id);
+    }
+
+    /**
+     * 地点が属する都道府県を返す関数。
+     * 観測点・予報区の場合は、最も近い都道府県の代表地点の都道府県とする
+     * @return 都道府県（例：石川）。代表地点が1つも無い場合はnull
+     */
+    @Nullable
+    public static String getRegion(int id) {
+        GeoTable current = table();
+        int region = current.getRegion(id);
+        return region < 0 ? null : current.getName(region);
+    }
+
+    @Nonnull
+    public static Kind getKind(int id) {
+        return table().getKind(id);
+    }
+
+    public static double getLatitude(int id) {
+        return table().getLatitude(id);
+    }
+
+    public static double getLongitude(int id) {
+        return table().getLongitude(id);
+    }
+
+    /**
+     * 地点から、指定した緯度・経度までの距離（km）を返す関数
+     */
+    public static double distanceKm(int id, double latitude, double longitude) {
+        return table().distanceKm(id, latitude, longitude);
+    }
+
+    /**
+     * 指定した緯度・経度（例：震源）に最も近い地点を返す関数
+     * @param kind 地点の種類（nullの場合はすべての種類）
+     * @return 地点が無い場合は-1
+     */
+    public static int nearest(double latitude, double longitude, @Nullable Kind kind) {
+        return table().nearest(latitude, longitude, kind == null ? -1 : kind.ordinal());
+    }
+
+    /**
+     * 指定した緯度・経度から半径の中にある地点のIDを、順不同ですべて渡す関数
+     * @param kind 地点の種類（nullの場合はすべての種類）
+     * @return 渡した地点の数
+     */
+    public static int within(double latitude, double longitude, double radiusKm, @Nullable Kind kind, @Nonnull IntConsumer consumer) {
+        return table().within(latitude, longitude, radiusKm, kind == null ? -1 : kind.ordinal(), consumer);
+    }
+}
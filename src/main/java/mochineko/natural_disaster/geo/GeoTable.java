@@ -0,0 +1,242 @@
+package mochineko.natural_disaster.geo;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * 地点の表（{@link GeoTableWriter} で作ったバイナリ）を読み、名前と近さで地点を引くクラスです。
+ * 緯度・経度と単位球上の座標はバッファ（メモリマップしたファイル）から直接読み、地点ごとのオブジェクトは作りません。
+ * 地点は暗黙のKD木（範囲の中央が節、左右が子）の順に並んでいるため、最近傍・半径の検索は木をたどるだけで行えます。
+ */
+final class GeoTable {
+
+    static final int MAGIC = 0x4E444754;
+    static final int VERSION = 1;
+    /**
+     * 地球の半径（km）
+     */
+    static final double EARTH_RADIUS = 6371.0;
+
+    private static final GeoIndex.Kind[] KINDS = GeoIndex.Kind.values();
+
+    private final long sourceHash;
+    private final int count;
+    private final FloatBuffer latitudes;
+    private final FloatBuffer longitudes;
+    private final FloatBuffer xs;
+    private final FloatBuffer ys;
+    private final FloatBuffer zs;
+    private final ByteBuffer kinds;
+    private final ByteBuffer axes;
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    // 地点ごとの、属する都道府県の代表地点のID
+    private final int[] regions;
+
+    /**
+     * @param buffer {@link GeoTableWriter#write} で作ったバイナリ
+     * @throws IOException 形式が違う場合
+     */
+    GeoTable(@Nonnull ByteBuffer buffer) throws IOException {
+        ByteBuffer header = buffer.duplicate();
+        if (header.remaining() < 20 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("地点の表の形式が違います");
+        }
+        sourceHash = header.getLong();
+        count = header.getInt();
+        int position = header.position();
+        latitudes = floats(buffer, position, count);
+        longitudes = floats(buffer, position += count * 4, count);
+        xs = floats(buffer, position += count * 4, count);
+        ys = floats(buffer, position += count * 4, count);
+        zs = floats(buffer, position += count * 4, count);
+        kinds = slice(buffer, position += count * 4, count);
+        axes = slice(buffer, position += count, count);
+        position += count;
+
+        // 名前だけは読み込み時に文字列にし、名前からIDへの表を作る
+        ByteBuffer offsets = slice(buffer, position, (count + 1) * 4);
+        int nameStart = position + (count + 1) * 4;
+        names = new String[count];
+        ids = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int start = offsets.getInt(i * 4);
+            int end = offsets.getInt((i + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            slice(buffer, nameStart + start, end - start).get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+            ids.put(names[i], i);
+        }
+        // 都道府県の代表地点以外は、最も近い代表地点の都道府県に属するものとする
+        regions = new int[count];
+        int prefecture = GeoIndex.Kind.PREFECTURE.ordinal();
+        for (int i = 0; i < count; i++) {
+            regions[i] = kinds.get(i) == prefecture ? i : nearest(latitudes.get(i), longitudes.get(i), prefecture);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > buffer.limit()) {
+            throw new IOException("地点の表が途中で切れています");
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position).limit(position + length);
+        return slice.slice().order(buffer.order());
+    }
+
+    private static FloatBuffer floats(ByteBuffer buffer, int position, int count) throws IOException {
+        return slice(buffer, position, count * 4).asFloatBuffer();
+    }
+
+    /**
+     * 表を作った元のCSVのハッシュを返す関数
+     */
+    long getSourceHash() {
+        return sourceHash;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int find(@Nonnull String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    @Nonnull
+    String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * 地点が属する都道府県の代表地点のIDを返す関数
+     * @return 代表地点が1つも無い場合は-1
+     */
+    int getRegion(int id) {
+        return regions[id];
+    }
+
+    @Nonnull
+    GeoIndex.Kind getKind(int id) {
+        return KINDS[kinds.get(id)];
+    }
+
+    double getLatitude(int id) {
+        return latitudes.get(id);
+    }
+
+    double getLongitude(int id) {
+        return longitudes.get(id);
+    }
+
+    /**
+     * 地点と、指定した緯度・経度の間の距離（km）を返す関数
+     */
+    double distanceKm(int id, double latitude, double longitude) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        double dx = xs.get(id) - Math.cos(phi) * Math.cos(lambda);
+        double dy = ys.get(id) - Math.cos(phi) * Math.sin(lambda);
+        double dz = zs.get(id) - Math.sin(phi);
+        return chordToKm(Math.sqrt(dx * dx + dy * dy + dz * dz));
+    }
+
+    /**
+     * 最も近い地点を返す関数
+     * @param kind 地点の種類（-1の場合はすべて）
+     * @return 地点が無い場合は-1
+     */
+    int nearest(double latitude, double longitude, int kind) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        return nearest(0, count, Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi), kind, -1);
+    }
+
+    private int nearest(int low, int high, double x, double y, double z, int kind, int best) {
+        if (low >= high) {
+            return best;
+        }
+        int mid = (low + high) >>> 1;
+        if ((kind < 0 || kinds.get(mid) == kind) && (best < 0 || distance2(mid, x, y, z) < distance2(best, x, y, z))) {
+            best = mid;
+        }
+        double diff = axisValue(x, y, z, axes.get(mid)) - axisValue(mid, axes.get(mid));
+        boolean lower = diff < 0;
+        best = nearest(lower ? low : mid + 1, lower ? mid : high, x, y, z, kind, best);
+        if (best < 0 || diff * diff < distance2(best, x, y, z)) {
+            best = nearest(lower ? mid + 1 : low, lower ? high : mid, x, y, z, kind, best);
+        }
+        return best;
+    }
+
+    /**
+     * 指定した半径の中にある地点を、順不同ですべて渡す関数
+     * @param kind 地点の種類（-1の場合はすべて）
+     * @return 渡した地点の数
+     */
+    int within(double latitude, double longitude, double radiusKm, int kind, @Nonnull IntConsumer consumer) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        // 球面上の距離を、単位球上の弦の長さに直す
+        double chord = 2 * Math.sin(Math.min(Math.PI, radiusKm / EARTH_RADIUS) / 2);
+        return within(0, count, Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi),
+                chord * chord, kind, consumer);
+    }
+
+    private int within(int low, int high, double x, double y, double z, double radius2, int kind, IntConsumer consumer) {
+        if (low >= high) {
+            return 0;
+        }
+        int mid = (low + high) >>> 1;
+        int found = 0;
+        if ((kind < 0 || kinds.get(mid) == kind) && distance2(mid, x, y, z) <= radius2) {
+            consumer.accept(mid);
+            found++;
+        }
+        double diff = axisValue(x, y, z, axes.get(mid)) - axisValue(mid, axes.get(mid));
+        if (diff < 0 || diff * diff <= radius2) {
+            found += within(low, mid, x, y, z, radius2, kind, consumer);
+        }
+        if (diff >= 0 || diff * diff <= radius2) {
+            found += within(mid + 1, high, x, y, z, radius2, kind, consumer);
+        }
+        return found;
+    }
+
+    private double distance2(int id, double x, double y, double z) {
+        double dx = xs.get(id) - x;
+        double dy = ys.get(id) - y;
+        double dz = zs.get(id) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double axisValue(int id, int axis) {
+        return switch (axis) {
+            case 0 -> xs.get(id);
+            case 1 -> ys.get(id);
+            default -> zs.get(id);
+        };
+    }
+
+    private static double axisValue(double x, double y, double z, int axis) {
+        return switch (axis) {
+            case 0 -> x;
+            case 1 -> y;
+            default -> z;
+        };
+    }
+
+    /**
+     * 単位球上の弦の長さを、地表での距離（km）に直す
+     */
+    static double chordToKm(double chord) {
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, chord / 2));
+    }
+}
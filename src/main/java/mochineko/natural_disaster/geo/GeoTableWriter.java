@@ -0,0 +1,154 @@
+package mochineko.natural_disaster.geo;
+
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * CSVの地点の一覧から、{@link GeoTable} で読むバイナリの表を作るクラスです。
+ * CSVは「種類,名前,緯度,経度」の形式で、「#」で始まる行と空行は読み飛ばします。
+ */
+final class GeoTableWriter {
+
+    // 名前から地点へ。同じ名前は後から追加したもので上書きする
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * CSVの地点を追加する関数。既に同じ名前の地点がある場合は上書きする
+     * @param source ログに出す読み込み元の名前
+     */
+    void read(@Nonnull Reader reader, @Nonnull String source) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split(",");
+            try {
+                if (columns.length != 4) {
+                    throw new IllegalArgumentException();
+                }
+                GeoIndex.Kind kind = GeoIndex.Kind.valueOf(columns[0].strip().toUpperCase(Locale.ROOT));
+                double latitude = Double.parseDouble(columns[2].strip());
+                double longitude = Double.parseDouble(columns[3].strip());
+                if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180 || columns[1].isBlank()) {
+                    throw new IllegalArgumentException();
+                }
+                entries.put(columns[1].strip(), new Entry(kind, columns[1].strip(), latitude, longitude));
+            } catch (IllegalArgumentException e) {
+                Bukkit.getLogger().warning(source + "の" + number + "行目を読み込めませんでした：" + line);
+            }
+        }
+    }
+
+    /**
+     * 追加した地点を、暗黙のKD木の順に並べてバイナリにする関数
+     * @param sourceHash 元のCSVのハッシュ。次に読み込むときに、作り直すかの判定に使う
+     */
+    @Nonnull
+    byte[] write(long sourceHash) throws IOException {
+        Entry[] sorted = entries.values().toArray(new Entry[0]);
+        byte[] axes = new byte[sorted.length];
+        build(sorted, axes, 0, sorted.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(GeoTable.MAGIC);
+        out.writeInt(GeoTable.VERSION);
+        out.writeLong(sourceHash);
+        out.writeInt(sorted.length);
+        for (Entry entry : sorted) {
+            out.writeFloat((float) entry.latitude);
+        }
+        for (Entry entry : sorted) {
+            out.writeFloat((float) entry.longitude);
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            for (Entry entry : sorted) {
+                out.writeFloat((float) entry.position[axis]);
+            }
+        }
+        for (Entry entry : sorted) {
+            out.writeByte(entry.kind.ordinal());
+        }
+        out.write(axes);
+
+        byte[][] names = new byte[sorted.length][];
+        int offset = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            names[i] = sorted[i].name.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(offset);
+            offset += names[i].length;
+        }
+        out.writeInt(offset);
+        for (byte[] name : names) {
+            out.write(name);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 範囲の中で最も広がっている軸の中央値を節にし、左右を再帰的に並べる
+     */
+    private static void build(Entry[] entries, byte[] axes, int low, int high) {
+        if (high - low <= 0) {
+            return;
+        }
+        int axis = 0;
+        double widest = -1;
+        for (int a = 0; a < 3; a++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = low; i < high; i++) {
+                min = Math.min(min, entries[i].position[a]);
+                max = Math.max(max, entries[i].position[a]);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = a;
+            }
+        }
+        int splitAxis = axis;
+        // 読み込む側は単精度で比べるため、並べるときも単精度の値で比べる
+        Arrays.sort(entries, low, high, Comparator.comparingDouble(entry -> (float) entry.position[splitAxis]));
+        int mid = (low + high) >>> 1;
+        axes[mid] = (byte) axis;
+        build(entries, axes, low, mid);
+        build(entries, axes, mid + 1, high);
+    }
+
+    private static final class Entry {
+        private final GeoIndex.Kind kind;
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        // 単位球上の座標
+        private final double[] position;
+
+        private Entry(GeoIndex.Kind kind, String name, double latitude, double longitude) {
+            this.kind = kind;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            double phi = Math.toRadians(latitude);
+            double lambda = Math.toRadians(longitude);
+            position = new double[]{Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi)};
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package mochineko.natural_disaster.geo;
+
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 緊急地震速報の震源とマグニチュードから、各地の震度を推定するクラスです。
+ * 距離減衰式（司・翠川 1999）で工学的基盤の最大速度を求め、地表の増幅率を掛けて、
+ * 最大速度と計測震度の関係（翠川ほか 1999）で計測震度にします。
+ *
+ * <p>格子と {@link GeoIndex} の地点の単位球上の座標は設定を読み込むときに配列へ用意しておき、
+ * 推定では Fork/Join で配列を分けて並列に計算します。同じ震源の続報では計算し直さないよう、結果を震源ごとにキャッシュします。</p>
+ */
+public final class IntensityEstimator {
+
+    /**
+     * 1つのタスクで計算する格子の数
+     */
+    private static final int SPLIT = 4096;
+    private static final int CACHE_SIZE = 8;
+    /**
+     * 距離減衰式を使える断層最短距離の下限（km）
+     */
+    private static final double MIN_DISTANCE = 3.0;
+    /**
+     * 距離減衰式を使える震源の深さの上限（km）
+     */
+    private static final double MAX_DEPTH = 200.0;
+    /**
+     * 距離減衰式でマグニチュードが飽和する値
+     */
+    private static final double MAX_MAGNITUDE = 8.3;
+
+    private static volatile Settings settings;
+    private static volatile ForkJoinPool pool;
+    private static final Map<String, IntensityGrid> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IntensityGrid> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private IntensityEstimator() {
+    }
+
+    /**
+     * 設定を読み込む関数。{@link GeoIndex#load} の後に呼ぶこと。
+     * @param section config.ymlの「estimate」セクション（nullの場合は推定しない）
+     */
+    public static synchronized void configure(@Nullable ConfigurationSection section) {
+        synchronized (cache) {
+            cache.clear();
+        }
+        if (section == null || !section.getBoolean("enabled", true)) {
+            settings = null;
+            return;
+        }
+        try {
+            settings = new Settings(section);
+        } catch (IllegalArgumentException e) {
+            settings = null;
+            Bukkit.getLogger().warning("震度の推定の設定が正しくないため、推定しません：" + e.getMessage());
+            return;
+        }
+        int threads = section.getInt("threads", 0);
+        int parallelism = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ForkJoinPool current = pool;
+        if (current == null || current.getParallelism() != parallelism) {
+            pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("NaturalDisaster-Intensity-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+            if (current != null) {
+                current.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 推定をやめ、スレッドを止める関数
+     */
+    public static synchronized void stop() {
+        settings = null;
+        synchronized (cache) {
+            cache.clear();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * この震度以上と推定された都道府県にも通知する、という震度を返す関数
+     * @return 推定しない場合はnull
+     */
+    @Nullable
+    public static EarthquakeScaleType getWarnScale() {
+        Settings current = settings;
+        return current == null ? null : current.warnScale;
+    }
+
+    /**
+     * 緊急地震速報の震源から震度を推定する関数
+     * @return 推定しない設定の場合や、震源の緯度・経度・深さ・マグニチュードが不明な場合はnull
+     */
+    @Nullable
+    public static IntensityGrid estimate(@Nullable P2PEEWAPI.Earthquake.Hypocenter hypocenter) {
+        // P2P地震情報では、不明な値は緯度・経度が-200、深さ・マグニチュードが-1になる
+        if (hypocenter == null || Math.abs(hypocenter.getLatitude()) > 90 || Math.abs(hypocenter.getLongitude()) > 180
+                || hypocenter.getDepth() < 0 || hypocenter.getMagnitude() <= 0) {
+            return null;
+        }
+        return estimate(hypocenter.getLatitude(), hypocenter.getLongitude(), hypocenter.getDepth(), hypocenter.getMagnitude());
+    }
+
+    /**
+     * 震源から震度を推定する関数。同じ震源の結果はキャッシュから返す
+     * @param depth 深さ（km）
+     * @param magnitude マグニチュード（モーメントマグニチュードとして扱う）
+     * @return 推定しない設定の場合はnull
+     */
+    @Nullable
+    public static IntensityGrid estimate(double latitude, double longitude, double depth, double magnitude) {
+        Settings current = settings;
+        if (current == null) {
+            return null;
+        }
+        String key = latitude + "," + longitude + "," + depth + "," + magnitude;
+        synchronized (cache) {
+            IntensityGrid cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Source source = new Source(latitude, longitude, depth, magnitude, current.logAmplification);
+        long start = System.nanoTime();
+        float[] cells = new float[current.cellX.length];
+        run(new Evaluate(source, current.cellX, current.cellY, current.cellZ, cells, 0, cells.length));
+        long gridEnd = System.nanoTime();
+        float[] points = new float[current.pointX.length];
+        run(new Evaluate(source, current.pointX, current.pointY, current.pointZ, points, 0, points.length));
+
+        Map<String, Float> regions = new HashMap<>();
+        for (int i = 0; i < points.length; i++) {
+            String region = current.pointRegions[i];
+            if (region != null) {
+                regions.merge(region, points[i], Math::max);
+            }
+        }
+        IntensityGrid grid = new IntensityGrid(current.north, current.west, current.step, current.rows, current.columns,
+                cells, points, regions);
+        long end = System.nanoTime();
+        Metrics.ESTIMATE.get("grid").observeNanos(gridEnd - start);
+        Metrics.ESTIMATE.get("points").observeNanos(end - gridEnd);
+
+        synchronized (cache) {
+            cache.put(key, grid);
+        }
+        return grid;
+    }
+
+    private static void run(Evaluate task) {
+        ForkJoinPool current = pool;
+        if (current != null) {
+            try {
+                current.invoke(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 停止と重なった場合は、呼び出したスレッドで計算する
+            }
+        }
+        task.source.evaluate(task.x, task.y, task.z, task.out, task.from, task.to);
+    }
+
+    /**
+     * 1つの震源についての、距離減衰式の定数です。
+     */
+    private static final class Source {
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double depth2;
+        // 計測震度 = 2.68 + 1.72 * (constant - log10(X + near) - 0.002X)
+        private final double constant;
+        private final double near;
+        private final double halfLength;
+
+        private Source(double latitude, double longitude, double depth, double magnitude, double logAmplification) {
+            double phi = Math.toRadians(latitude);
+            double lambda = Math.toRadians(longitude);
+            x = Math.cos(phi) * Math.cos(lambda);
+            y = Math.cos(phi) * Math.sin(lambda);
+            z = Math.sin(phi);
+            depth2 = depth * depth;
+            double mw = Math.min(magnitude, MAX_MAGNITUDE);
+            constant = 0.58 * mw + 0.0038 * Math.min(depth, MAX_DEPTH) - 1.29 + logAmplification;
+            near = 0.0028 * Math.pow(10, 0.5 * mw);
+            // 断層の長さ（宇津 log10 L = 0.5M - 1.85）の半分だけ、震源距離から差し引いて断層最短距離とする
+            halfLength = Math.pow(10, 0.5 * mw - 1.85) / 2;
+        }
+
+        private void evaluate(float[] xs, float[] ys, float[] zs, float[] out, int from, int to) {
+            for (int i = from; i < to; i++) {
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                double dz = zs[i] - z;
+                // 震央距離 = 2R asin(弦 / 2)。格子の範囲（数千km）では級数の3項で十分な精度になる
+                double half = Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+                double half2 = half * half;
+                double epicentral = 2 * GeoTable.EARTH_RADIUS * half * (1 + half2 * (1.0 / 6 + half2 * (3.0 / 40)));
+                double distance = Math.max(MIN_DISTANCE, Math.sqrt(epicentral * epicentral + depth2) - halfLength);
+                out[i] = (float) (2.68 + 1.72 * (constant - Math.log10(distance + near) - 0.002 * distance));
+            }
+        }
+    }
+
+    /**
+     * 配列の範囲を半分ずつに分けて計算するタスクです。
+     */
+    private static final class Evaluate extends RecursiveAction {
+        private final Source source;
+        private final float[] x;
+        private final float[] y;
+        private final float[] z;
+        private final float[] out;
+        private final int from;
+        private final int to;
+
+        private Evaluate(Source source, float[] x, float[] y, float[] z, float[] out, int from, int to) {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT) {
+                source.evaluate(x, y, z, out, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Evaluate(source, x, y, z, out, from, mid), new Evaluate(source, x, y, z, out, mid, to));
+        }
+    }
+
+    /**
+     * 設定の値と、格子・地点の座標をまとめたクラスです。読み込み直すと作り直されます。
+     */
+    private static final class Settings {
+        private final EarthquakeScaleType warnScale;
+        private final double logAmplification;
+        private final double north;
+        private final double west;
+        private final double step;
+        private final int rows;
+        private final int columns;
+        private final float[] cellX;
+        private final float[] cellY;
+        private final float[] cellZ;
+        private final float[] pointX;
+        private final float[] pointY;
+        private final float[] pointZ;
+        private final String[] pointRegions;
+
+        private Settings(ConfigurationSection section) {
+            warnScale = EarthquakeScaleType.convertP2PAPI(section.getInt("warn-scale", 40));
+            if (warnScale == EarthquakeScaleType.UNKNOWN) {
+                throw new IllegalArgumentException("warn-scale");
+            }
+            double amplification = section.getDouble("site-amplification", 1.5);
+            if (amplification <= 0) {
+                throw new IllegalArgumentException("site-amplification");
+            }
+            logAmplification = Math.log10(amplification);
+
+            ConfigurationSection grid = section.getConfigurationSection("grid");
+            north = grid == null ? 46.0 : grid.getDouble("north", 46.0);
+            double south = grid == null ? 24.0 : grid.getDouble("south", 24.0);
+            west = grid == null ? 122.0 : grid.getDouble("west", 122.0);
+            double east = grid == null ? 154.0 : grid.getDouble("east", 154.0);
+            step = grid == null ? 0.1 : grid.getDouble("step", 0.1);
+            if (north <= south || east <= west || step <= 0) {
+                throw new IllegalArgumentException("grid");
+            }
+            rows = (int) Math.floor((north - south) / step + 1e-9) + 1;
+            columns = (int) Math.floor((east - west) / step + 1e-9) + 1;
+            if ((long) rows * columns > 4_000_000) {
+                throw new IllegalArgumentException("grid.step");
+            }
+
+            // 経度ごとの値を先に求め、格子ごとの三角関数の計算を減らす
+            double[] cosLambda = new double[columns];
+            double[] sinLambda = new double[columns];
+            for (int column = 0; column < columns; column++) {
+                double lambda = Math.toRadians(west + column * step);
+                cosLambda[column] = Math.cos(lambda);
+                sinLambda[column] = Math.sin(lambda);
+            }
+            cellX = new float[rows * columns];
+            cellY = new float[rows * columns];
+            cellZ = new float[rows * columns];
+            for (int row = 0; row < rows; row++) {
+                double phi = Math.toRadians(north - row * step);
+                double cosPhi = Math.cos(phi);
+                float sinPhi = (float) Math.sin(phi);
+                for (int column = 0; column < columns; column++) {
+                    int index = row * columns + column;
+                    cellX[index] = (float) (cosPhi * cosLambda[column]);
+                    cellY[index] = (float) (cosPhi * sinLambda[column]);
+                    cellZ[index] = sinPhi;
+                }
+            }
+
+            int count = GeoIndex.size();
+            pointX = new float[count];
+            pointY = new float[count];
+            pointZ = new float[count];
+            pointRegions = new String[count];
+            for (int id = 0; id < count; id++) {
+                double phi = Math.toRadians(GeoIndex.getLatitude(id));
+                double lambda = Math.toRadians(GeoIndex.getLongitude(id));
+                pointX[id] = (float) (Math.cos(phi) * Math.cos(lambda));
+                pointY[id] = (float) (Math.cos(phi) * Math.sin(lambda));
+                pointZ[id] = (float) Math.sin(phi);
+                pointRegions[id] = GeoIndex.getRegion(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package mochineko.natural_disaster.geo;
+
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 1つの震源について {@link IntensityEstimator} で推定した震度です。
+ * 緯度・経度の格子ごとの計測震度と、{@link GeoIndex} の地点ごとの計測震度、都道府県ごとの最大の震度を持ちます。
+ * 作成した後は変更しないため、どのスレッドから読んでもかまいません。
+ */
+public final class IntensityGrid {
+
+    private final double north;
+    private final double west;
+    private final double step;
+    private final int rows;
+    private final int columns;
+    private final float[] cells;
+    private final float[] points;
+    private final Map<String, EarthquakeScaleType> regions;
+    private final float maxIntensity;
+
+    IntensityGrid(double north, double west, double step, int rows, int columns, float[] cells, float[] points,
+                  Map<String, Float> regionIntensities) {
+        this.north = north;
+        this.west = west;
+        this.step = step;
+        this.rows = rows;
+        this.columns = columns;
+        this.cells = cells;
+        this.points = points;
+
+        float max = Float.NEGATIVE_INFINITY;
+        for (float intensity : cells) {
+            max = Math.max(max, intensity);
+        }
+        for (float intensity : points) {
+            max = Math.max(max, intensity);
+        }
+        maxIntensity = max;
+
+        // 震度の大きい順に並べる
+        Map<String, EarthquakeScaleType> sorted = new LinkedHashMap<>();
+        regionIntensities.entrySet().stream()
+                .sorted(Map.Entry.<String, Float>comparingByValue().reversed())
+                .forEach(entry -> sorted.put(entry.getKey(), EarthquakeScaleType.fromIntensity(entry.getValue())));
+        regions = Collections.unmodifiableMap(sorted);
+    }
+
+    /**
+     * 指定した緯度・経度に最も近い格子の計測震度を返す関数
+     * @return 格子の範囲外の場合はNaN
+     */
+    public double getIntensity(double latitude, double longitude) {
+        long row = Math.round((north - latitude) / step);
+        long column = Math.round((longitude - west) / step);
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            return Double.NaN;
+        }
+        return cells[(int) row * columns + (int) column];
+    }
+
+    /**
+     * 指定した緯度・経度に最も近い格子の震度を返す関数
+     * @return 格子の範囲外の場合は {@link EarthquakeScaleType#UNKNOWN}
+     */
+    @Nonnull
+    public EarthquakeScaleType getScale(double latitude, double longitude) {
+        return EarthquakeScaleType.fromIntensity(getIntensity(latitude, longitude));
+    }
+
+    /**
+     * {@link GeoIndex} の地点の計測震度を返す関数
+     * @param id 地点のID
+     * @return 推定した後に地点の表が変わった場合などで、地点が無い場合はNaN
+     */
+    public double getPointIntensity(int id) {
+        return id < 0 || id >= points.length ? Double.NaN : points[id];
+    }
+
+    /**
+     * 都道府県ごとの、地点での最大の震度を返す関数
+     * @return 都道府県（例：石川）から震度へのMap。震度の大きい順に並んでいる
+     */
+    @Nonnull
+    public Map<String, EarthquakeScaleType> getRegionScales() {
+        return regions;
+    }
+
+    /**
+     * 格子と地点の中で最大の計測震度を返す関数
+     */
+    public double getMaxIntensity() {
+        return maxIntensity;
+    }
+
+    /**
+     * 格子の数を返す関数
+     */
+    public int getCellCount() {
+        return cells.length;
+    }
+}
@@ -0,0 +1,395 @@
+package mochineko.natural_disaster.journal;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import mochineko.natural_disaster.monitor.P2PQuakeEntry;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 受け取った災害情報を、プラグインのフォルダに追記していく記録です。
+ * 再起動や再読み込みの後も処理済みの情報を覚えておき、過去の情報を通信せずに返すために使います。
+ *
+ * <p>記録は「journal/events-000001.ndj」のような複数のファイル（セグメント）に分かれ、
+ * 1つのファイルが上限の大きさに達すると次のファイルに切り替わります。古いファイルは上限の数を超えた分から削除されます。
+ * 読み込みはメモリマップで行うため、起動時の復元はIDと時刻だけを読み、情報のデコードは必要になったときと、
+ * 状態の復元（{@link Replay}）に使う情報だけで行います。</p>
+ *
+ * <p>1件の形式：長さ(int) CRC32(int) コード(short) 受信時刻(long) IDの長さ(short) ID JSON</p>
+ */
+public final class EventJournal {
+
+    private static final int MAGIC = 0x4E444A31; // "NDJ1"
+    private static final int RECORD_HEADER = 8;
+    private static final Pattern FILE_NAME = Pattern.compile("events-(\\d+)\\.ndj");
+
+    private static EventJournal instance;
+
+    private final File directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Location> locations = new ArrayList<>();
+    private Segment active;
+    private FileChannel channel;
+
+    private EventJournal(File directory, long segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * 記録を開き、処理済みの情報を復元する関数
+     * @param folder プラグインのフォルダ
+     * @param section config.ymlの「journal」セクション
+     * @param restore 記録に残っている情報を古い順に受け取る関数（IDの復元に使う）
+     * @param replay 記録に残っている情報のうち、状態の復元に使うものを古い順に受け取る処理
+     * @param latest コードごとに最新の1件を受け取る関数
+     */
+    public static synchronized void open(@Nonnull File folder, @Nonnull ConfigurationSection section,
+                                         @Nonnull Consumer<String> restore, @Nonnull Replay replay,
+                                         @Nonnull Consumer<P2PQuakeEntry> latest) {
+        if (instance != null || !section.getBoolean("enabled", true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        EventJournal journal = new EventJournal(new File(folder, "journal"),
+                Math.max(64, section.getLong("segment-size-kb", 1024)) * 1024L,
+                Math.max(1, section.getInt("max-segments", 8)));
+        try {
+            journal.load(restore);
+        } catch (IOException e) {
+            Bukkit.getLogger().log(Level.WARNING, "災害情報の記録を開けませんでした。記録せずに続けます。", e);
+            journal.closeChannel();
+            return;
+        }
+        instance = journal;
+        journal.replay(replay);
+        for (P2PQuakeEntry entry : journal.latestEntries()) {
+            latest.accept(entry);
+        }
+        Bukkit.getLogger().info("災害情報の記録から" + journal.locations.size() + "件を復元しました。（"
+                + (System.nanoTime() - start) / 1_000_000 + "ms）");
+    }
+
+    /**
+     * 記録を閉じる関数
+     */
+    public static synchronized void close() {
+        if (instance != null) {
+            instance.closeChannel();
+            instance = null;
+        }
+    }
+
+    /**
+     * 1件の情報を記録に追加する関数。記録が開かれていない場合は何もしない。
+     */
+    public static synchronized void append(@Nonnull P2PQuakeEntry entry) {
+        if (instance == null) {
+            return;
+        }
+        try {
+            instance.write(entry, System.currentTimeMillis());
+        } catch (IOException e) {
+            Bukkit.getLogger().log(Level.WARNING, "災害情報の記録に失敗しました。", e);
+        }
+    }
+
+    /**
+     * 指定したコードの情報を、記録から新しい順に返す関数。通信は行わない。
+     * @param code 情報のコード（例：551）
+     * @param limit 返す件数の上限
+     * @return 記録が開かれていない場合は空のリスト
+     */
+    @Nonnull
+    public static synchronized List<P2PQuakeEntry> query(int code, int limit) {
+        if (instance == null) {
+            return Collections.emptyList();
+        }
+        List<P2PQuakeEntry> entries = new ArrayList<>(Math.min(limit, 16));
+        for (int i = instance.locations.size() - 1; i >= 0 && entries.size() < limit; i--) {
+            Location location = instance.locations.get(i);
+            if (location.code == code) {
+                P2PQuakeEntry entry = instance.read(location);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 記録が開かれているかを返す関数
+     */
+    public static synchronized boolean isOpen() {
+        return instance != null;
+    }
+
+    private void load(Consumer<String> restore) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("フォルダを作成できません：" + directory);
+        }
+        File[] files = directory.listFiles();
+        List<Segment> found = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    found.add(new Segment(Long.parseLong(matcher.group(1)), file));
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+
+        for (int i = 0; i < found.size(); i++) {
+            Segment segment = found.get(i);
+            long valid = scan(segment, restore);
+            if (valid < 0) {
+                Bukkit.getLogger().warning("災害情報の記録「" + segment.file.getName() + "」が壊れているため、読み込みませんでした。");
+                continue;
+            }
+            segments.add(segment);
+            if (valid < segment.file.length()) {
+                // 書き込みの途中で止まった分を切り捨てる
+                try (FileChannel truncate = FileChannel.open(segment.file.toPath(), StandardOpenOption.WRITE)) {
+                    truncate.truncate(valid);
+                }
+                segment.unmap();
+            }
+        }
+
+        if (segments.isEmpty() || segments.get(segments.size() - 1).file.length() >= segmentSize) {
+            rotate();
+        } else {
+            active = segments.get(segments.size() - 1);
+            channel = FileChannel.open(active.file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * セグメントの中身を読み、記録の位置を登録する
+     * @return 正しく読めた末尾の位置。セグメントとして読めない場合は-1
+     */
+    private long scan(Segment segment, Consumer<String> restore) throws IOException {
+        ByteBuffer buffer = segment.map();
+        if (buffer.limit() < 4 || buffer.getInt(0) != MAGIC) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        int position = 4;
+        while (position + RECORD_HEADER <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length < 12 || position + RECORD_HEADER + length > buffer.limit()) {
+                break;
+            }
+            crc.reset();
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(position + RECORD_HEADER).limit(position + RECORD_HEADER + length);
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            int base = position + RECORD_HEADER;
+            int code = buffer.getShort(base);
+            int idLength = buffer.getShort(base + 10) & 0xFFFF;
+            if (idLength > 0) {
+                byte[] id = new byte[idLength];
+                buffer.get(base + 12, id);
+                restore.accept(new String(id, StandardCharsets.UTF_8));
+            }
+            locations.add(new Location(segment, position, code, buffer.getLong(base + 2)));
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * 状態の復元に使う情報だけをデコードし、古い順に渡す
+     */
+    private void replay(Replay replay) {
+        for (Location location : locations) {
+            if (replay.wants(location.code, location.received)) {
+                P2PQuakeEntry entry = read(location);
+                if (entry != null) {
+                    replay.accept(entry);
+                }
+            }
+        }
+    }
+
+    private List<P2PQuakeEntry> latestEntries() {
+        List<P2PQuakeEntry> latest = new ArrayList<>();
+        List<Integer> codes = new ArrayList<>();
+        for (int i = locations.size() - 1; i >= 0; i--) {
+            Location location = locations.get(i);
+            if (!codes.contains(location.code)) {
+                codes.add(location.code);
+                P2PQuakeEntry entry = read(location);
+                if (entry != null) {
+                    latest.add(0, entry);
+                }
+            }
+        }
+        return latest;
+    }
+
+    private void write(P2PQuakeEntry entry, long received) throws IOException {
+        byte[] id = entry.getId() == null ? new byte[0] : entry.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] json = P2PQuakeDecoder.GSON.toJson(entry.getData()).getBytes(StandardCharsets.UTF_8);
+        int length = 12 + id.length + json.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+        buffer.putInt(length).putInt(0)
+                .putShort((short) entry.getCode()).putLong(received).putShort((short) id.length)
+                .put(id).put(json);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        if (channel.size() > 4 && channel.size() + buffer.remaining() > segmentSize) {
+            rotate();
+        }
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        active.unmap();
+        locations.add(new Location(active, (int) position, entry.getCode(), received));
+    }
+
+    @Nullable
+    private P2PQuakeEntry read(Location location) {
+        try {
+            ByteBuffer buffer = location.segment.map();
+            int length = buffer.getInt(location.offset);
+            int base = location.offset + RECORD_HEADER;
+            int idLength = buffer.getShort(base + 10) & 0xFFFF;
+            byte[] json = new byte[length - 12 - idLength];
+            buffer.get(base + 12 + idLength, json);
+            JsonObject object = JsonParser.parseString(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+            object.addProperty("code", location.code);
+            return P2PQuakeDecoder.decode(object);
+        } catch (IOException | JsonParseException | IllegalStateException | IndexOutOfBoundsException e) {
+            Bukkit.getLogger().log(Level.WARNING, "災害情報の記録を読み込めませんでした。", e);
+            return null;
+        }
+    }
+
+    /**
+     * 新しいセグメントに切り替え、上限を超えた古いセグメントを削除する
+     */
+    private void rotate() throws IOException {
+        closeChannel();
+        long sequence = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).sequence + 1;
+        Segment segment = new Segment(sequence, new File(directory, String.format("events-%06d.ndj", sequence)));
+        channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+        segments.add(segment);
+        active = segment;
+
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            oldest.unmap();
+            locations.removeIf(location -> location.segment == oldest);
+            if (!oldest.file.delete()) {
+                Bukkit.getLogger().warning("古い災害情報の記録「" + oldest.file.getName() + "」を削除できませんでした。");
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * 記録のファイル1つです。読み込み用のメモリマップを、ファイルが変わるまで使い回します。
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private MappedByteBuffer mapped;
+
+        private Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        private ByteBuffer map() throws IOException {
+            if (mapped == null) {
+                try (FileChannel read = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    mapped = read.map(FileChannel.MapMode.READ_ONLY, 0, read.size());
+                }
+            }
+            return mapped;
+        }
+
+        private void unmap() {
+            mapped = null;
+        }
+    }
+
+    /**
+     * 1件の記録の位置です。
+     */
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int code;
+        private final long received;
+
+        private Location(Segment segment, int offset, int code, long received) {
+            this.segment = segment;
+            this.offset = offset;
+            this.code = code;
+            this.received = received;
+        }
+    }
+
+    /**
+     * 記録を開いたときに、記録に残っている情報から状態を復元する処理です。
+     * 情報のデコードは、{@link #wants(int, long)} でtrueを返した情報だけ行います。
+     */
+    public interface Replay {
+
+        /**
+         * 情報を受け取るかを返す関数
+         * @param code 情報のコード（例：552）
+         * @param receivedMillis 情報を受け取った時刻（エポックミリ秒）
+         */
+        boolean wants(int code, long receivedMillis);
+
+        /**
+         * 情報を1件受け取る関数。通知は行わないこと
+         */
+        void accept(@Nonnull P2PQuakeEntry entry);
+    }
+}
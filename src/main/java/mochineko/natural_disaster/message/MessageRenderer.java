@@ -0,0 +1,480 @@
+package mochineko.natural_disaster.message;
+
+import mochineko.natural_disaster.api.DisasterAPI;
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.delivery.Regions;
+import mochineko.natural_disaster.monitor.TsunamiStateTracker;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.status.TsunamiGrade;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * 災害情報をプレイヤー向けのメッセージに変換するクラスです。
+ * テンプレートは読み込み時に解析され、1つの情報は1回だけ描画されてキャッシュされます。
+ * 長い情報は1行・1ページの文字数の上限に合わせて折り返し、ページ数の上限を超えた分は省略します。
+ */
+public final class MessageRenderer {
+
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * 震度の表示順（強い順）
+     */
+    private static final EarthquakeScaleType[] SCALE_ORDER = {
+            EarthquakeScaleType.SEVEN, EarthquakeScaleType.SIX_HIGH, EarthquakeScaleType.SIX_LOW,
+            EarthquakeScaleType.FIVE_HIGH, EarthquakeScaleType.FIVE_LOW, EarthquakeScaleType.NODATA,
+            EarthquakeScaleType.FOUR, EarthquakeScaleType.THREE, EarthquakeScaleType.TWO,
+            EarthquakeScaleType.ONE, EarthquakeScaleType.ZERO, EarthquakeScaleType.UNKNOWN
+    };
+
+    /**
+     * 津波の等級の表示順（重い順）
+     */
+    private static final TsunamiGrade[] GRADE_ORDER = {
+            TsunamiGrade.MAJOR_WARNING, TsunamiGrade.WARNING, TsunamiGrade.WATCH,
+            TsunamiGrade.SLIGHT, TsunamiGrade.UNKNOWN, TsunamiGrade.NONE
+    };
+
+    private static volatile MessageRenderer instance;
+
+    private final Map<String, MessageTemplate> templates;
+    private final DateTimeFormatter timeFormat;
+    private final int maxLineLength;
+    private final int linesPerPage;
+    private final int maxPages;
+    private final Map<String, RenderedMessage> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RenderedMessage> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private MessageRenderer(Map<String, MessageTemplate> templates, DateTimeFormatter timeFormat, int maxLineLength, int linesPerPage, int maxPages) {
+        this.templates = templates;
+        this.timeFormat = timeFormat;
+        this.maxLineLength = maxLineLength;
+        this.linesPerPage = linesPerPage;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * メッセージの設定を読み込む関数
+     * @param plugin 設定ファイルを読み込むプラグイン
+     */
+    public static void load(@Nonnull JavaPlugin plugin) {
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("message");
+        String locale = section.getString("locale", "ja");
+        String fileName = "messages_" + locale + ".yml";
+        if (plugin.getResource(fileName) == null && !new File(plugin.getDataFolder(), fileName).exists()) {
+            Bukkit.getLogger().warning(fileName + "が見つからないため、messages_ja.ymlを使用します。");
+            fileName = "messages_ja.yml";
+        }
+        File file = new File(plugin.getDataFolder(), fileName);
+        if (!file.exists() && plugin.getResource(fileName) != null) {
+            plugin.saveResource(fileName, false);
+        }
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+        InputStream defaults = plugin.getResource(fileName);
+        if (defaults != null) {
+            yaml.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+        }
+
+        instance = create(yaml, section);
+    }
+
+    /**
+     * 読み込み済みのメッセージファイルから、MessageRendererを作成する関数。
+     * プラグインを使わずに作成できるため、ベンチマークなどでも使える。
+     * @param messages メッセージファイル
+     * @param section config.ymlの「message」セクション
+     */
+    @Nonnull
+    public static MessageRenderer create(@Nonnull ConfigurationSection messages, @Nonnull ConfigurationSection section) {
+        Map<String, MessageTemplate> templates = new HashMap<>();
+        for (String key : messages.getKeys(true)) {
+            if (!messages.isConfigurationSection(key)) {
+                templates.put(key, MessageTemplate.parse(messages.getString(key, "")));
+            }
+        }
+        return new MessageRenderer(templates,
+                DateTimeFormatter.ofPattern(messages.getString("common.time-format", "M月d日 H時mm分")),
+                Math.max(32, section.getInt("max-line-length", 200)),
+                Math.max(1, section.getInt("lines-per-page", 8)),
+                Math.max(1, section.getInt("max-pages", 5)));
+    }
+
+    /**
+     * 読み込み済みのMessageRendererを返す関数
+     */
+    @Nonnull
+    public static MessageRenderer get() {
+        MessageRenderer renderer = instance;
+        if (renderer == null) {
+            throw new IllegalStateException("MessageRenderer is not loaded");
+        }
+        return renderer;
+    }
+
+    /**
+     * テンプレートに値を埋め込んだ1行を返す関数
+     * @param key messages.ymlのキー（例：earthquake.header）
+     */
+    @Nonnull
+    public String format(@Nonnull String key, @Nonnull Map<String, ?> values) {
+        MessageTemplate template = templates.get(key);
+        return template == null ? key : template.render(values);
+    }
+
+    /**
+     * 地震情報を描画する関数
+     */
+    @Nonnull
+    public RenderedMessage renderEarthquake(@Nonnull P2PEarthquakeAPI api) {
+        return renderEarthquake(api, null);
+    }
+
+    /**
+     * 地震情報を、指定した地域の観測点だけに絞って描画する関数
+     * @param regions 地域（{@link Regions}）。nullの場合はすべての地域
+     */
+    @Nonnull
+    public RenderedMessage renderEarthquake(@Nonnull P2PEarthquakeAPI api, @Nullable Set<String> regions) {
+        String id = cacheId(api);
+        return cached("551:" + id + cacheSuffix(regions), id != null, () -> {
+            P2PEarthquakeAPI.Earthquake earthquake = api.getEarthquake();
+            P2PEarthquakeAPI.Earthquake.Hypocenter hypocenter = earthquake == null ? null : earthquake.getHypocenter();
+            Map<String, Object> values = new HashMap<>();
+            values.put("time", earthquake == null || earthquake.getTime() == null ? unknown() : formatTime(earthquake.getZonedDateTime()));
+            values.put("hypocenter", hypocenter == null || hypocenter.getName() == null || hypocenter.getName().isEmpty() ? unknown() : hypocenter.getName());
+            values.put("magnitude", hypocenter == null || hypocenter.getMagnitude() < 0 ? unknown() : String.format("%.1f", hypocenter.getMagnitude()));
+            values.put("depth", hypocenter == null || hypocenter.getDepth() < 0 ? unknown() : hypocenter.getDepth() == 0 ? format("common.shallow", Map.of()) : hypocenter.getDepth() + "km");
+            values.put("maxScale", earthquake == null ? unknown() : earthquake.getMaxScaleType().getName());
+
+            List<String> lines = new ArrayList<>();
+            lines.add(format("earthquake.header", values));
+            lines.add(format("earthquake.detail", values));
+            if (api.getPoints() != null) {
+                Map<EarthquakeScaleType, List<P2PEarthquakeAPI.Point>> scaleMap = api.getScaleMap();
+                for (EarthquakeScaleType scale : SCALE_ORDER) {
+                    List<P2PEarthquakeAPI.Point> points = scaleMap.get(scale);
+                    if (points == null) {
+                        continue;
+                    }
+                    List<String> names = new ArrayList<>(points.size());
+                    Map<String, Object> pointValues = new HashMap<>();
+                    for (P2PEarthquakeAPI.Point point : points) {
+                        if (!matches(regions, Regions.ofPrefecture(point.getPref()), null)) {
+                            continue;
+                        }
+                        pointValues.put("pref", point.getPref());
+                        pointValues.put("addr", point.getAddr());
+                        names.add(format("earthquake.point", pointValues));
+                    }
+                    if (names.isEmpty()) {
+                        continue;
+                    }
+                    wrap(lines, "earthquake.scale-line", "earthquake.scale-continued", "points", "earthquake.separator",
+                            Map.of("scale", scale.getName()), names);
+                }
+            }
+            return paginate(lines.get(0), lines);
+        });
+    }
+
+    /**
+     * 緊急地震速報を描画する関数。
+     * 対象の地域は府県予報区ごとに1行にまとめる。
+     */
+    @Nonnull
+    public RenderedMessage renderEEW(@Nonnull P2PEEWAPI api) {
+        return renderEEW(api, Map.of(), null);
+    }
+
+    /**
+     * 緊急地震速報を、指定した地域だけに絞って描画する関数
+     * @param estimated 情報に含まれないが、推定した震度が大きい都道府県（例：石川）と、その震度
+     * @param regions 地域（{@link Regions}）。nullの場合はすべての地域
+     */
+    @Nonnull
+    public RenderedMessage renderEEW(@Nonnull P2PEEWAPI api, @Nonnull Map<String, EarthquakeScaleType> estimated,
+                                     @Nullable Set<String> regions) {
+        String id = cacheId(api);
+        return cached("556:" + id + cacheSuffix(regions), id != null, () -> {
+            P2PEEWAPI.Earthquake earthquake = api.getEarthquake();
+            P2PEEWAPI.Earthquake.Hypocenter hypocenter = earthquake == null ? null : earthquake.getHypocenter();
+            Map<String, Object> values = new HashMap<>();
+            values.put("time", earthquake == null ? unknown() : formatTime(earthquake.getOriginZonedDateTime()));
+            values.put("hypocenter", hypocenter == null || hypocenter.getName() == null ? unknown() : hypocenter.getName());
+            values.put("magnitude", hypocenter == null || hypocenter.getMagnitude() < 0 ? unknown() : String.format("%.1f", hypocenter.getMagnitude()));
+
+            List<String> lines = new ArrayList<>();
+            lines.add(format("eew.header", values));
+            lines.add(format("eew.detail", values));
+            if (api.getAreas() != null) {
+                Map<String, List<String>> prefs = new LinkedHashMap<>();
+                Map<String, Object> areaValues = new HashMap<>();
+                for (P2PEEWAPI.Area area : api.getAreas()) {
+                    if (!matches(regions, Regions.ofPrefecture(area.getPref()), null)) {
+                        continue;
+                    }
+                    areaValues.put("name", area.getName());
+                    areaValues.put("scale", area.getScaleType().getName());
+                    prefs.computeIfAbsent(area.getPref(), key -> new ArrayList<>()).add(format("eew.area", areaValues));
+                }
+                for (Map.Entry<String, List<String>> entry : prefs.entrySet()) {
+                    wrap(lines, "eew.area-line", "eew.area-continued", "areas", "eew.separator",
+                            Map.of("pref", entry.getKey() == null ? unknown() : entry.getKey()), entry.getValue());
+                }
+            }
+            // 推定した震度は、震度ごとにまとめる
+            Map<EarthquakeScaleType, List<String>> scales = new EnumMap<>(EarthquakeScaleType.class);
+            for (Map.Entry<String, EarthquakeScaleType> entry : estimated.entrySet()) {
+                if (matches(regions, entry.getKey(), null)) {
+                    scales.computeIfAbsent(entry.getValue(), key -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            for (EarthquakeScaleType scale : SCALE_ORDER) {
+                List<String> names = scales.get(scale);
+                if (names != null) {
+                    wrap(lines, "eew.estimated-line", "eew.area-continued", "areas", "eew.separator",
+                            Map.of("scale", scale.getName()), names);
+                }
+            }
+            return paginate(lines.get(0), lines);
+        });
+    }
+
+    /**
+     * 津波予報を描画する関数
+     */
+    @Nonnull
+    public RenderedMessage renderTsunami(@Nonnull P2PTsunamiAPI api) {
+        return renderTsunami(api, null);
+    }
+
+    /**
+     * 津波予報を、指定した地域の予報区だけに絞って描画する関数
+     * @param regions 地域（{@link Regions}）。nullの場合はすべての地域
+     */
+    @Nonnull
+    public RenderedMessage renderTsunami(@Nonnull P2PTsunamiAPI api, @Nullable Set<String> regions) {
+        String id = cacheId(api);
+        return cached("552:" + id + cacheSuffix(regions), id != null, () -> {
+            Map<String, Object> values = new HashMap<>();
+            values.put("time", formatTime(api.getZonedDateTime()));
+
+            List<String> lines = new ArrayList<>();
+            lines.add(format("tsunami.header", values));
+            if (api.getArea() != null) {
+                Map<TsunamiGrade, List<P2PTsunamiAPI.Area>> gradeMap = api.getGradeMap();
+                Map<String, Object> areaValues = new HashMap<>();
+                for (TsunamiGrade grade : GRADE_ORDER) {
+                    List<P2PTsunamiAPI.Area> areas = gradeMap.get(grade);
+                    if (areas == null) {
+                        continue;
+                    }
+                    List<String> names = new ArrayList<>(areas.size());
+                    for (P2PTsunamiAPI.Area area : areas) {
+                        if (!matchesAny(regions, Regions.ofTsunamiArea(area.getName()), Regions.ofAreaName(area.getName()))) {
+                            continue;
+                        }
+                        areaValues.put("name", area.getName());
+                        areaValues.put("condition", area.getFirstHeight() == null || area.getFirstHeight().getCondition() == null
+                                ? "" : format("tsunami.condition", Map.of("condition", area.getFirstHeight().getCondition())));
+                        names.add(format("tsunami.area", areaValues));
+                    }
+                    if (names.isEmpty()) {
+                        continue;
+                    }
+                    wrap(lines, "tsunami.grade-line", "tsunami.grade-continued", "areas", "tsunami.separator",
+                            Map.of("grade", grade.getName() == null ? unknown() : grade.getName()), names);
+                }
+            }
+            return paginate(lines.get(0), lines);
+        });
+    }
+
+    /**
+     * 津波予報で変化した予報区だけを、変化の種類・等級ごとにまとめて描画する関数。
+     * 変化は受け取るたびに異なるため、キャッシュしない。
+     * @param regions 地域（{@link Regions}）。nullの場合はすべての地域
+     */
+    @Nonnull
+    public RenderedMessage renderTsunamiChanges(@Nonnull P2PTsunamiAPI api, @Nonnull List<TsunamiStateTracker.Change> changes,
+                                                @Nullable Set<String> regions) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("time", formatTime(api.getZonedDateTime()));
+
+        List<String> lines = new ArrayList<>();
+        lines.add(format("tsunami.change-header", values));
+        // 変化は種類の順に並んでいるため、種類ごとに等級でまとめる
+        Map<TsunamiGrade, List<String>> grades = new EnumMap<>(TsunamiGrade.class);
+        Map<String, Object> areaValues = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            TsunamiStateTracker.Change change = changes.get(i);
+            if (matchesAny(regions, Regions.ofTsunamiArea(change.getName()), Regions.ofAreaName(change.getName()))) {
+                areaValues.put("name", change.getName());
+                areaValues.put("condition", change.getCondition() == null
+                        ? "" : format("tsunami.condition", Map.of("condition", change.getCondition())));
+                grades.computeIfAbsent(change.getGrade(), key -> new ArrayList<>()).add(format("tsunami.area", areaValues));
+            }
+            if (i + 1 < changes.size() && changes.get(i + 1).getKind() == change.getKind()) {
+                continue;
+            }
+            String key = "tsunami.change-" + change.getKind().name().toLowerCase(Locale.ROOT);
+            for (TsunamiGrade grade : GRADE_ORDER) {
+                List<String> names = grades.get(grade);
+                if (names != null) {
+                    wrap(lines, key, "tsunami.grade-continued", "areas", "tsunami.separator",
+                            Map.of("grade", grade.getName() == null ? unknown() : grade.getName()), names);
+                }
+            }
+            grades.clear();
+        }
+        return paginate(lines.get(0), lines);
+    }
+
+    private RenderedMessage cached(String key, boolean cacheable, Supplier<RenderedMessage> renderer) {
+        if (!cacheable) {
+            return renderer.get();
+        }
+        synchronized (cache) {
+            RenderedMessage message = cache.get(key);
+            if (message != null) {
+                return message;
+            }
+        }
+        RenderedMessage message = renderer.get();
+        synchronized (cache) {
+            cache.put(key, message);
+        }
+        return message;
+    }
+
+    /**
+     * 項目を区切り文字でつなぎ、1行の上限を超える場合は続きの行へ折り返す
+     */
+    private void wrap(List<String> lines, String firstKey, String continuedKey, String itemsName, String separatorKey,
+                      Map<String, ?> values, List<String> items) {
+        String separator = format(separatorKey, Map.of());
+        Map<String, Object> lineValues = new HashMap<>(values);
+        String key = firstKey;
+        StringBuilder joined = new StringBuilder();
+        int base = format(firstKey, lineValues).length();
+        for (String item : items) {
+            if (joined.length() > 0 && base + joined.length() + separator.length() + item.length() > maxLineLength) {
+                lineValues.put(itemsName, joined.toString());
+                lines.add(format(key, lineValues));
+                joined.setLength(0);
+                key = continuedKey;
+                lineValues.put(itemsName, "");
+                base = format(key, lineValues).length();
+            }
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(item.length() > maxLineLength - base ? item.substring(0, Math.max(1, maxLineLength - base - 1)) + "…" : item);
+        }
+        lineValues.put(itemsName, joined.toString());
+        lines.add(format(key, lineValues));
+    }
+
+    /**
+     * 行をページに分け、ページ数の上限を超える分は省略する
+     */
+    private RenderedMessage paginate(String title, List<String> lines) {
+        int capacity = linesPerPage * maxPages;
+        int omitted = 0;
+        if (lines.size() > capacity) {
+            omitted = lines.size() - (capacity - 1);
+            lines = new ArrayList<>(lines.subList(0, capacity - 1));
+            lines.add(format("page.truncated", Map.of("count", omitted)));
+        }
+        int pageCount = (lines.size() + linesPerPage - 1) / linesPerPage;
+        List<String> pages = new ArrayList<>(pageCount);
+        for (int page = 0; page < pageCount; page++) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = page * linesPerPage; i < Math.min(lines.size(), (page + 1) * linesPerPage); i++) {
+                if (builder.length() > 0) {
+                    builder.append('\n');
+                }
+                builder.append(lines.get(i));
+            }
+            if (pageCount > 1) {
+                builder.append('\n').append(format(page + 1 < pageCount ? "page.footer" : "page.last-footer",
+                        Map.of("page", page + 1, "pages", pageCount, "next", page + 2)));
+            }
+            pages.add(builder.toString());
+        }
+        return new RenderedMessage(title, pages);
+    }
+
+    private static boolean matches(@Nullable Set<String> regions, @Nullable String region, @Nullable String area) {
+        return regions == null || (region != null && regions.contains(region)) || (area != null && regions.contains(area));
+    }
+
+    private static boolean matchesAny(@Nullable Set<String> regions, @Nonnull List<String> prefectures, @Nullable String area) {
+        if (regions == null || (area != null && regions.contains(area))) {
+            return true;
+        }
+        for (String prefecture : prefectures) {
+            if (regions.contains(prefecture)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 描画結果を使い回すために、情報を識別する値を返す
+     * @return IDが無い場合は発表時刻。どちらも無い場合はnull（使い回さない）
+     */
+    @Nullable
+    private static String cacheId(DisasterAPI api) {
+        if (api.getId() != null) {
+            return api.getId();
+        }
+        return api.getTime() == null ? null : "@" + api.getTime();
+    }
+
+    private static String cacheSuffix(@Nullable Set<String> regions) {
+        return regions == null ? "" : ":" + new TreeSet<>(regions);
+    }
+
+    private String unknown() {
+        return format("common.unknown", Map.of());
+    }
+
+    /**
+     * 時刻をメッセージファイルの「common.time-format」で文字列にする関数
+     * @return 時刻が無い場合は「common.unknown」を返す
+     */
+    @Nonnull
+    public String formatTime(@Nullable ZonedDateTime dateTime) {
+        return dateTime == null ? unknown() : timeFormat.format(dateTime);
+    }
+}
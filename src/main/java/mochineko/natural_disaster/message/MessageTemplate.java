@@ -0,0 +1,86 @@
+package mochineko.natural_disaster.message;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 読み込み時に解析済みのメッセージのテンプレートです。
+ * 「{name}」の部分が置き換えられ、「&amp;」は色コードに変換されます。
+ */
+public final class MessageTemplate {
+
+    private final String[] literals;
+    private final String[] keys;
+    private final int estimatedLength;
+
+    private MessageTemplate(String[] literals, String[] keys, int estimatedLength) {
+        this.literals = literals;
+        this.keys = keys;
+        this.estimatedLength = estimatedLength;
+    }
+
+    /**
+     * テンプレートの文字列を解析する関数
+     * @param text （例：「&amp;c震源：{hypocenter}」）
+     */
+    @Nonnull
+    public static MessageTemplate parse(@Nonnull String text) {
+        String colored = translateColor(text);
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < colored.length()) {
+            char c = colored.charAt(i);
+            int end = c == '{' ? colored.indexOf('}', i + 1) : -1;
+            if (end > i + 1) {
+                literals.add(literal.toString());
+                keys.add(colored.substring(i + 1, end));
+                literal.setLength(0);
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(new String[0]), keys.toArray(new String[0]), colored.length() + keys.size() * 8);
+    }
+
+    /**
+     * 値を埋め込んだ文字列を返す関数
+     * @param values 「{name}」に埋め込む値。無いものは空文字になる。
+     */
+    @Nonnull
+    public String render(@Nonnull Map<String, ?> values) {
+        StringBuilder builder = new StringBuilder(estimatedLength);
+        appendTo(builder, values);
+        return builder.toString();
+    }
+
+    /**
+     * 値を埋め込んだ文字列をbuilderに追加する関数
+     */
+    public void appendTo(@Nonnull StringBuilder builder, @Nonnull Map<String, ?> values) {
+        for (int i = 0; i < keys.length; i++) {
+            builder.append(literals[i]);
+            Object value = values.get(keys[i]);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+        builder.append(literals[keys.length]);
+    }
+
+    private static String translateColor(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length - 1; i++) {
+            if (chars[i] == '&' && "0123456789AaBbCcDdEeFfKkLlMmNnOoRr".indexOf(chars[i + 1]) >= 0) {
+                chars[i] = '§';
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,51 @@
+package mochineko.natural_disaster.message;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * 描画済みのメッセージです。
+ * 大きな情報は複数のページに分けられ、1ページ目だけが全体に送られます。
+ */
+public final class RenderedMessage {
+
+    private final String title;
+    private final List<String> pages;
+
+    RenderedMessage(@Nonnull String title, @Nonnull List<String> pages) {
+        this.title = title;
+        this.pages = List.copyOf(pages);
+    }
+
+    /**
+     * メッセージの見出しを返す関数
+     */
+    @Nonnull
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * すべてのページを返す関数
+     */
+    @Nonnull
+    public List<String> getPages() {
+        return pages;
+    }
+
+    /**
+     * ページ数を返す関数
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * 指定したページを返す関数
+     * @param page 1から始まるページ番号
+     */
+    @Nonnull
+    public String getPage(int page) {
+        return pages.get(Math.max(1, Math.min(pages.size(), page)) - 1);
+    }
+}
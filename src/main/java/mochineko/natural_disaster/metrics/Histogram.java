@@ -0,0 +1,168 @@
+package mochineko.natural_disaster.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定の区切りで値の分布を数えるヒストグラムです。
+ * 記録はロックを使わず配列の1要素を増やすだけなので、通知の処理の中から呼んでも負荷になりません。
+ * 値はナノ秒で記録し、Prometheusへは秒で出力します。
+ */
+public final class Histogram {
+
+    /**
+     * 通信・通知までの遅延向けの区切り（秒）
+     */
+    public static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120};
+
+    /**
+     * デコード・描画・メインスレッドの処理向けの区切り（秒）
+     */
+    public static final double[] FAST_BUCKETS = {0.00001, 0.00005, 0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.5};
+
+    private final double[] bounds;
+    private final long[] boundNanos;
+    private final AtomicLongArray counts;
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram(@Nonnull double[] bounds) {
+        this.bounds = bounds;
+        this.boundNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            boundNanos[i] = (long) (bounds[i] * 1_000_000_000L);
+        }
+        // 最後の要素は、すべての区切りを超えた値
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * 値を記録する関数
+     * @param nanos ナノ秒
+     */
+    public void observeNanos(long nanos) {
+        long value = Math.max(0, nanos);
+        int index = 0;
+        while (index < boundNanos.length && value > boundNanos[index]) {
+            index++;
+        }
+        counts.incrementAndGet(index);
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * 値を記録する関数
+     * @param millis ミリ秒
+     */
+    public void observeMillis(long millis) {
+        observeNanos(millis * 1_000_000L);
+    }
+
+    /**
+     * 記録した回数を返す関数
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * 記録した値の合計を返す関数
+     * @return ナノ秒で返す
+     */
+    public long getSumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * 記録した値の最大を返す関数
+     * @return ナノ秒で返す
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * 百分位数を、区切りの上限で近似して返す関数
+     * @param quantile 0～1（例：0.95）
+     * @return ナノ秒で返す。すべての区切りを超える場合は最大値を返す
+     */
+    public long getQuantileNanos(double quantile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < boundNanos.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(boundNanos[i], getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * 現在の記録を写した、新しいヒストグラムを返す関数。
+     * {@link #since(Histogram)} と組み合わせて、ある期間の分だけを集計するために使う。
+     */
+    @Nonnull
+    public Histogram snapshot() {
+        Histogram copy = new Histogram(bounds);
+        for (int i = 0; i < counts.length(); i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        copy.sum.add(sum.sum());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * 写した時点からの増加分だけを持つ、新しいヒストグラムを返す関数。
+     * 最大値は期間ごとには記録していないため、増加分のある最も大きい区切りの上限で近似する。
+     * @param earlier 以前に {@link #snapshot()} で写したもの
+     */
+    @Nonnull
+    public Histogram since(@Nonnull Histogram earlier) {
+        Histogram diff = new Histogram(bounds);
+        int highest = -1;
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i) - earlier.counts.get(i);
+            diff.counts.set(i, Math.max(0, count));
+            if (count > 0) {
+                highest = i;
+            }
+        }
+        diff.sum.add(Math.max(0, sum.sum() - earlier.sum.sum()));
+        if (highest >= 0) {
+            diff.max.set(highest < boundNanos.length ? Math.min(boundNanos[highest], max.get()) : max.get());
+        }
+        return diff;
+    }
+
+    /**
+     * Prometheusのテキスト形式で出力する関数
+     * @param name メトリクスの名前
+     * @param labels ラベル（例：source="p2pquake"）。無い場合は空文字
+     */
+    void writePrometheus(@Nonnull StringBuilder out, @Nonnull String name, @Nonnull String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(bounds.length);
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,193 @@
+package mochineko.natural_disaster.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * プラグインの計測値をまとめるクラスです。
+ * 値は /disaster stats と、有効にした場合はPrometheusの形式（{@link PrometheusEndpoint}）で確認できます。
+ */
+public final class Metrics {
+
+    /**
+     * 通信を始めてから、レスポンスのヘッダーを受け取るまでの時間（取得元ごと）
+     */
+    public static final Family<Histogram> FETCH = histograms("natural_disaster_fetch_seconds",
+            "通信を始めてからレスポンスを受け取るまでの時間", "source", Histogram.LATENCY_BUCKETS);
+
+    /**
+     * レスポンスの本文を受信しながらデコードした時間（取得元ごと）
+     */
+    public static final Family<Histogram> DECODE = histograms("natural_disaster_decode_seconds",
+            "レスポンスの本文をデコードした時間", "source", Histogram.FAST_BUCKETS);
+
+    /**
+     * 受信したバイト数（取得元ごと）
+     */
+    public static final Family<LongAdder> BYTES = counters("natural_disaster_received_bytes_total",
+            "受信したバイト数", "source");
+
+    /**
+     * 新しく処理した情報の件数（情報の種類ごと）
+     */
+    public static final Family<LongAdder> EVENTS = counters("natural_disaster_events_total",
+            "新しく処理した情報の件数", "type");
+
+    /**
+     * プレイヤーへ通知した情報の件数（情報の種類ごと）
+     */
+    public static final Family<LongAdder> ALERTS = counters("natural_disaster_alerts_total",
+            "プレイヤーへ通知した情報の件数", "type");
+
+    /**
+     * 既に処理していたため無視した情報の件数（受け取った方法ごと）
+     */
+    public static final Family<LongAdder> DUPLICATES = counters("natural_disaster_duplicates_total",
+            "既に処理していたため無視した情報の件数", "transport");
+
+    /**
+     * 情報の発表時刻から受け取るまでの時間（受け取った方法ごと）
+     */
+    public static final Family<Histogram> RECEIVE_LATENCY = histograms("natural_disaster_receive_latency_seconds",
+            "情報の発表時刻から受け取るまでの時間", "transport", Histogram.LATENCY_BUCKETS);
+
+    /**
+     * 地震の発生時刻（津波予報は発表時刻）から、プレイヤーへ送るまでの時間（情報の種類ごと）
+     */
+    public static final Family<Histogram> ALERT_LATENCY = histograms("natural_disaster_alert_latency_seconds",
+            "地震の発生時刻からプレイヤーへ送るまでの時間", "type", Histogram.LATENCY_BUCKETS);
+
+    /**
+     * メッセージの描画にかかった時間（情報の種類ごと）
+     */
+    public static final Family<Histogram> RENDER = histograms("natural_disaster_render_seconds",
+            "メッセージの描画にかかった時間", "type", Histogram.FAST_BUCKETS);
+
+    /**
+     * メインスレッドで使った時間（処理ごと）
+     */
+    public static final Family<Histogram> MAIN_THREAD = histograms("natural_disaster_main_thread_seconds",
+            "メインスレッドで使った時間", "task", Histogram.FAST_BUCKETS);
+
+    /**
+     * 震度の推定にかかった時間（格子・地点ごと）
+     */
+    public static final Family<Histogram> ESTIMATE = histograms("natural_disaster_estimate_seconds",
+            "震度の推定にかかった時間", "target", Histogram.FAST_BUCKETS);
+
+    /**
+     * プレイヤーへ送った通知の件数（送る方法ごと）
+     */
+    public static final Family<LongAdder> DELIVERIES = counters("natural_disaster_deliveries_total",
+            "プレイヤーへ送った通知の件数", "channel");
+
+    /**
+     * 送る前に、同じ種類の新しい通知にまとめた件数（情報の種類ごと）
+     */
+    public static final Family<LongAdder> COALESCED = counters("natural_disaster_coalesced_total",
+            "送る前に新しい通知にまとめた件数", "type");
+
+    /**
+     * 取得スレッドのキューがいっぱいで、すぐに受け付けられなかった処理の件数（代わりに行った対応ごと）
+     */
+    public static final Family<LongAdder> REJECTED = counters("natural_disaster_rejected_tasks_total",
+            "取得スレッドのキューがいっぱいで受け付けられなかった処理の件数", "action");
+
+    /**
+     * 定期取得で処理済みの情報までたどり着けず、古い情報を取りこぼした可能性がある回数（取得元ごと）
+     */
+    public static final Family<LongAdder> MISSED = counters("natural_disaster_missed_history_total",
+            "定期取得で古い情報を取りこぼした可能性がある回数", "source");
+
+    private static final Family<?>[] FAMILIES = {
+            FETCH, DECODE, BYTES, EVENTS, ALERTS, DUPLICATES, RECEIVE_LATENCY, ALERT_LATENCY, RENDER, MAIN_THREAD, ESTIMATE,
+            DELIVERIES, COALESCED, REJECTED, MISSED
+    };
+
+    private Metrics() {
+    }
+
+    /**
+     * すべての計測値を、Prometheusのテキスト形式で返す関数
+     */
+    @Nonnull
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family<?> family : FAMILIES) {
+            family.writePrometheus(out);
+        }
+        return out.toString();
+    }
+
+    private static Family<Histogram> histograms(String name, String help, String label, double[] buckets) {
+        return new Family<>(name, help, label, "histogram", () -> new Histogram(buckets));
+    }
+
+    private static Family<LongAdder> counters(String name, String help, String label) {
+        return new Family<>(name, help, label, "counter", LongAdder::new);
+    }
+
+    /**
+     * ラベルの値ごとに計測値を持つ、同じ名前のメトリクスの集まりです。
+     */
+    public static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final String label;
+        private final String type;
+        private final Supplier<T> factory;
+        private final Map<String, T> values = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String label, String type, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+            this.type = type;
+            this.factory = factory;
+        }
+
+        /**
+         * ラベルの値に対応する計測値を返す関数。無い場合は作成する
+         * @param value ラベルの値（例：earthquake）
+         */
+        @Nonnull
+        public T get(@Nonnull String value) {
+            T metric = values.get(value);
+            return metric != null ? metric : values.computeIfAbsent(value, key -> factory.get());
+        }
+
+        /**
+         * ラベルの値ごとの計測値を、ラベルの順に返す関数
+         */
+        @Nonnull
+        public Map<String, T> getAll() {
+            return new TreeMap<>(values);
+        }
+
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        private void writePrometheus(StringBuilder out) {
+            if (values.isEmpty()) {
+                return;
+            }
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, T> entry : getAll().entrySet()) {
+                String labels = label + "=\"" + entry.getKey() + "\"";
+                T metric = entry.getValue();
+                if (metric instanceof Histogram) {
+                    ((Histogram) metric).writePrometheus(out, name, labels);
+                } else if (metric instanceof LongAdder) {
+                    out.append(name).append('{').append(labels).append("} ").append(((LongAdder) metric).sum()).append('\n');
+                }
+            }
+        }
+    }
+}
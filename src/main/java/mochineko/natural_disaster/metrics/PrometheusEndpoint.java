@@ -0,0 +1,71 @@
+package mochineko.natural_disaster.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+/**
+ * 計測値をPrometheusのテキスト形式で返す、ローカル用のHTTPサーバーです。
+ * 既定では無効で、有効にした場合も 127.0.0.1 でのみ待ち受けます。
+ */
+public final class PrometheusEndpoint {
+
+    private static HttpServer server;
+
+    private PrometheusEndpoint() {
+    }
+
+    /**
+     * サーバーを起動する関数
+     * @param section config.ymlの「metrics」セクション
+     */
+    public static synchronized void start(@Nonnull ConfigurationSection section) {
+        if (server != null || !section.getBoolean("prometheus-enabled", false)) {
+            return;
+        }
+        String bind = section.getString("prometheus-bind", "127.0.0.1");
+        int port = section.getInt("prometheus-port", 9464);
+        try {
+            HttpServer created = HttpServer.create(new InetSocketAddress(bind, port), 0);
+            created.createContext("/metrics", PrometheusEndpoint::handle);
+            created.start();
+            server = created;
+            Bukkit.getLogger().info("Prometheusの計測値を http://" + bind + ":" + port + "/metrics で公開しました。");
+        } catch (IOException e) {
+            Bukkit.getLogger().log(Level.WARNING, "Prometheusのサーバーを起動できませんでした。", e);
+        }
+    }
+
+    /**
+     * サーバーを停止する関数
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
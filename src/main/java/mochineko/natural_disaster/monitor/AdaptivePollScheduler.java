@@ -0,0 +1,129 @@
+package mochineko.natural_disaster.monitor;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+
+/**
+ * 地震活動に合わせて、定期取得の間隔を決めるクラスです。
+ * 平常時はゆっくり取得し、緊急地震速報・大きな地震・津波予報の後は一定時間だけ短い間隔で取得します。
+ * その時間が過ぎると、少しずつ平常時の間隔に戻ります。
+ * また、1分あたりのリクエスト数の上限と、取得先からのRetry-Afterを必ず守ります。
+ * 取得に失敗している間は {@link CircuitBreaker} の再試行・停止の間隔を使います。
+ */
+final class AdaptivePollScheduler {
+
+    private static final double DECAY = 1.5;
+    private static final long WINDOW = 60_000L;
+
+    private final long quietMillis;
+    private final long eewMillis;
+    private final long eewHoldMillis;
+    private final int largeScale;
+    private final long aftershockMillis;
+    private final long aftershockHoldMillis;
+    private final long tsunamiMillis;
+    private final long tsunamiHoldMillis;
+    private final long minMillis;
+    private final int maxRequestsPerMinute;
+
+    private final ArrayDeque<Long> requests = new ArrayDeque<>();
+    private long eewUntil;
+    private long aftershockUntil;
+    private long tsunamiUntil;
+    private long retryAfterUntil;
+    private long current;
+
+    AdaptivePollScheduler(@Nonnull ConfigurationSection section) {
+        this.quietMillis = seconds(section, "quiet-seconds", 30);
+        this.eewMillis = seconds(section, "eew-seconds", 2);
+        this.eewHoldMillis = seconds(section, "eew-hold-seconds", 180);
+        this.largeScale = section.getInt("large-scale", 45);
+        this.aftershockMillis = seconds(section, "aftershock-seconds", 5);
+        this.aftershockHoldMillis = seconds(section, "aftershock-hold-seconds", 900);
+        this.tsunamiMillis = seconds(section, "tsunami-seconds", 5);
+        this.tsunamiHoldMillis = seconds(section, "tsunami-hold-seconds", 3600);
+        this.minMillis = seconds(section, "min-seconds", 2);
+        this.maxRequestsPerMinute = Math.max(1, section.getInt("max-requests-per-minute", 30));
+        this.current = quietMillis;
+    }
+
+    /**
+     * 次の取得までの時間を返す関数
+     * @param now 現在時刻（ミリ秒）
+     * @return ミリ秒で返す
+     */
+    synchronized long nextDelay(long now) {
+        long target = quietMillis;
+        if (now < eewUntil) {
+            target = Math.min(target, eewMillis);
+        }
+        if (now < aftershockUntil) {
+            target = Math.min(target, aftershockMillis);
+        }
+        if (now < tsunamiUntil) {
+            target = Math.min(target, tsunamiMillis);
+        }
+        // 短くするときはすぐに、長くするときは少しずつ変える
+        long delay = target <= current ? target : Math.min(target, (long) (current * DECAY));
+        current = delay;
+        // 取得に失敗している間は、再試行・停止の間隔に従う
+        delay = P2PQuakeClient.getBreaker().nextDelay(now, delay);
+        delay = Math.max(delay, minMillis);
+
+        while (!requests.isEmpty() && requests.peekFirst() <= now - WINDOW) {
+            requests.pollFirst();
+        }
+        if (requests.size() >= maxRequestsPerMinute) {
+            delay = Math.max(delay, requests.peekFirst() + WINDOW - now);
+        }
+        if (retryAfterUntil > now) {
+            delay = Math.max(delay, retryAfterUntil - now);
+        }
+        return delay;
+    }
+
+    /**
+     * リクエストを送ったことを記録する関数
+     */
+    synchronized void recordRequest(long now) {
+        requests.addLast(now);
+    }
+
+    /**
+     * 取得先からRetry-Afterを受け取ったことを記録する関数
+     */
+    synchronized void onRetryAfter(long now, long retryAfterMillis) {
+        retryAfterUntil = Math.max(retryAfterUntil, now + retryAfterMillis);
+    }
+
+    /**
+     * 緊急地震速報を受け取ったときに呼ぶ関数
+     */
+    synchronized void onEEW(long now) {
+        eewUntil = Math.max(eewUntil, now + eewHoldMillis);
+    }
+
+    /**
+     * 地震情報を受け取ったときに呼ぶ関数
+     * @param maxScale P2P地震情報の最大震度（例：45）
+     */
+    synchronized void onEarthquake(long now, int maxScale) {
+        if (maxScale >= largeScale) {
+            aftershockUntil = Math.max(aftershockUntil, now + aftershockHoldMillis);
+        }
+    }
+
+    /**
+     * 津波予報を受け取ったときに呼ぶ関数
+     * @param active 津波注意報以上が発表されている場合はtrue、解除された場合はfalse
+     */
+    synchronized void onTsunami(long now, boolean active) {
+        tsunamiUntil = active ? Math.max(tsunamiUntil, now + tsunamiHoldMillis) : 0L;
+    }
+
+    private static long seconds(ConfigurationSection section, String path, long def) {
+        return Math.max(1, section.getLong(path, def)) * 1000L;
+    }
+}
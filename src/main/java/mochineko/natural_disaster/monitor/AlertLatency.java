@@ -0,0 +1,64 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.api.P2PTime;
+import mochineko.natural_disaster.metrics.Metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * P2P地震情報の発表時刻から、情報を受け取るまでの遅延を計測するクラスです。
+ * 取得方法（WebSocket・定期取得・気象庁XML）ごとに {@link Metrics#RECEIVE_LATENCY} へ記録します。
+ */
+public final class AlertLatency {
+
+    public enum Source {
+        WEBSOCKET("WebSocket", "websocket"),
+        POLLING("定期取得", "polling"),
+        JMA("気象庁XML", "jma"),
+        RELAY("中継", "relay");
+
+        private final String name;
+        private final String label;
+
+        Source(String name, String label) {
+            this.name = name;
+            this.label = label;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 計測値で使う名前を返す関数
+         * @return （例：websocket）
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private AlertLatency() {
+    }
+
+    /**
+     * 発表時刻から現在までの遅延を記録する関数
+     * @param source 情報を受け取った方法
+     * @param p2pTime P2P地震情報の「time」（例：2026/01/11 13:15:02.123）
+     */
+    public static void record(@Nonnull Source source, @Nullable String p2pTime) {
+        if (p2pTime == null) {
+            return;
+        }
+        ZonedDateTime issued;
+        try {
+            issued = P2PTime.parse(p2pTime);
+        } catch (DateTimeParseException e) {
+            return;
+        }
+        Metrics.RECEIVE_LATENCY.get(source.getLabel()).observeMillis(System.currentTimeMillis() - issued.toInstant().toEpochMilli());
+    }
+}
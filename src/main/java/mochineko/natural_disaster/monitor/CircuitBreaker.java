@@ -0,0 +1,210 @@
+package mochineko.natural_disaster.monitor;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 取得先の障害を検知して、取得を一時的に止めるクラスです。
+ * 失敗した直後は間隔を倍にしながら再試行し、連続で失敗した場合は一定時間だけ取得を止めます（OPEN）。
+ * 止めている時間が過ぎると1回だけ試し（HALF_OPEN）、成功すれば元に戻ります。失敗した場合は止める時間を倍にします。
+ * ログは状態が変わったときだけ出力するため、障害が続いてもコンソールが埋まることはありません。
+ */
+public final class CircuitBreaker {
+
+    /**
+     * 取得の状態
+     */
+    public enum State {
+        CLOSED("正常"),
+        RETRYING("再試行中"),
+        OPEN("停止中"),
+        HALF_OPEN("確認中");
+
+        private final String name;
+
+        State(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final String name;
+    private final long retryBaseMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private int opened;
+    private long openUntil;
+    private long lastSuccess;
+    private long lastFailure;
+    private String lastError;
+
+    public CircuitBreaker(@Nonnull String name, @Nonnull ConfigurationSection section) {
+        this.name = name;
+        this.retryBaseMillis = Math.max(100L, (long) (section.getDouble("retry-base-seconds", 1.0) * 1000));
+        this.failureThreshold = Math.max(1, section.getInt("failure-threshold", 5));
+        this.openMillis = Math.max(1, section.getLong("open-seconds", 30)) * 1000L;
+        this.maxOpenMillis = Math.max(openMillis, Math.max(1, section.getLong("max-open-seconds", 600)) * 1000L);
+    }
+
+    /**
+     * 取得してよいかを返す関数。
+     * 止めている時間が過ぎていれば、HALF_OPENにして1回だけ許可する。
+     */
+    public synchronized boolean allowRequest(long now) {
+        if (state == State.OPEN) {
+            if (now < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+        }
+        return true;
+    }
+
+    /**
+     * 取得してよいかを確認する関数
+     * @throws OpenException 取得を停止している場合
+     */
+    public void checkRequest(long now) throws OpenException {
+        if (!allowRequest(now)) {
+            throw new OpenException(name + "の取得を停止しています", Math.max(getOpenUntil() - now, 0L));
+        }
+    }
+
+    /**
+     * 取得に成功したことを記録する関数
+     */
+    public synchronized void onSuccess(long now) {
+        if (state != State.CLOSED) {
+            Bukkit.getLogger().info(name + "の取得が復旧しました。");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        opened = 0;
+        lastSuccess = now;
+    }
+
+    /**
+     * 取得に失敗したことを記録する関数
+     * @param error 失敗の理由（ログと状態の表示に使う）
+     */
+    public synchronized void onFailure(long now, @Nonnull String error) {
+        failures++;
+        lastFailure = now;
+        lastError = error;
+        boolean probe = state == State.HALF_OPEN;
+        if (probe || failures >= failureThreshold) {
+            long duration = Math.min(maxOpenMillis, openMillis << Math.min(opened, 20));
+            opened++;
+            openUntil = now + jitter(duration);
+            // 停止中の確認に失敗した場合は、ログを出さずに停止を延ばす
+            if (!probe) {
+                Bukkit.getLogger().warning(name + "の取得に" + failures + "回連続で失敗したため、" + (openUntil - now) / 1000 + "秒間取得を停止します。（" + error + "）");
+            }
+            state = State.OPEN;
+        } else if (state == State.CLOSED) {
+            Bukkit.getLogger().warning(name + "の取得に失敗しました。再試行します。（" + error + "）");
+            state = State.RETRYING;
+        }
+    }
+
+    /**
+     * 次に取得するまでの時間を返す関数
+     * @param normalDelay 正常なときの間隔（ミリ秒）
+     * @return ミリ秒で返す。正常なときは normalDelay をそのまま返す
+     */
+    public synchronized long nextDelay(long now, long normalDelay) {
+        switch (state) {
+            case OPEN:
+                return Math.max(openUntil - now, 0L);
+            case RETRYING:
+                long backoff = retryBaseMillis << Math.min(failures - 1, 20);
+                return Math.min(normalDelay, jitter(backoff));
+            default:
+                return normalDelay;
+        }
+    }
+
+    @Nonnull
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 連続で失敗した回数を返す関数
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * 最後に成功した時刻を返す関数
+     * @return ミリ秒で返す。まだ成功していない場合は0
+     */
+    public synchronized long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    /**
+     * 最後に失敗した時刻を返す関数
+     * @return ミリ秒で返す。まだ失敗していない場合は0
+     */
+    public synchronized long getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 最後に失敗した理由を返す関数
+     */
+    @Nullable
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * 取得を再開する時刻を返す関数
+     * @return ミリ秒で返す。止めていない場合は0
+     */
+    public synchronized long getOpenUntil() {
+        return state == State.OPEN ? openUntil : 0L;
+    }
+
+    /**
+     * 同時に再試行が集中しないよう、時間を50～100%の範囲でずらす
+     */
+    private static long jitter(long millis) {
+        return millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1);
+    }
+
+    /**
+     * 取得を停止しているため、通信を行わなかった場合の例外です。
+     */
+    public static class OpenException extends IOException {
+
+        private final long remainingMillis;
+
+        public OpenException(String message, long remainingMillis) {
+            super(message);
+            this.remainingMillis = remainingMillis;
+        }
+
+        /**
+         * 取得を再開するまでの時間を返す関数
+         * @return ミリ秒で返す
+         */
+        public long getRemainingMillis() {
+            return remainingMillis;
+        }
+    }
+}
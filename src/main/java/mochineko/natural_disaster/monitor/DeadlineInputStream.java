@@ -0,0 +1,61 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本文の受信が止まった場合に、一定時間で通信を打ち切るストリームです。
+ * HttpClientのタイムアウトはヘッダーの受信までしか効かないため、本文の読み込みにも期限を設けます。
+ * 受信したバイト数（gzipの展開前）も数えます。
+ */
+final class DeadlineInputStream extends FilterInputStream {
+
+    private final ScheduledFuture<?> deadline;
+    private final String source;
+    private long bytes;
+
+    /**
+     * @param source 計測値（{@link Metrics#BYTES}）での取得元の名前
+     */
+    DeadlineInputStream(InputStream in, long timeoutSeconds, String source) {
+        super(in);
+        this.source = source;
+        this.deadline = DisasterExecutor.get().scheduleTimeout(() -> {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }, timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read >= 0) {
+            bytes++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            bytes += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deadline.cancel(false);
+        Metrics.BYTES.get(source).add(bytes);
+        bytes = 0;
+        super.close();
+    }
+}
@@ -0,0 +1,40 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import mochineko.natural_disaster.api.Decodable;
+
+import java.io.IOException;
+
+/**
+ * {@link Decodable} を実装したクラスのデコードが終わった時点で、{@link Decodable#onDecoded()} を呼ぶTypeAdapterFactoryです。
+ */
+final class DecodeHookAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (!Decodable.class.isAssignableFrom(type.getRawType())) {
+            return null;
+        }
+        TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                delegate.write(out, value);
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                T value = delegate.read(in);
+                if (value != null) {
+                    ((Decodable) value).onDecoded();
+                }
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,359 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.metrics.Metrics;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * 災害情報の取得・解析をメインスレッドの外で行うための実行環境です。
+ * 通信とデコードは専用のスレッドで行い、プレイヤーへの通知だけを {@link #runSync(Runnable)} でメインスレッドに戻します。
+ */
+public final class DisasterExecutor {
+
+    // タイマーのスレッドで受け付けられなかった処理を、入れ直すまでの時間
+    private static final long RETRY_MILLIS = 100;
+
+    private static DisasterExecutor instance;
+
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService ordered;
+    private final boolean virtual;
+    private volatile Thread timerThread;
+
+    private DisasterExecutor(int threads, int queueSize, boolean useVirtualThreads) {
+        ThreadFactory virtualFactory = useVirtualThreads ? createVirtualThreadFactory() : null;
+        this.virtual = virtualFactory != null;
+        ThreadFactory timerFactory = createThreadFactory("NaturalDisaster-Timer");
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = timerFactory.newThread(runnable);
+            timerThread = thread;
+            return thread;
+        });
+        this.workers = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                virtual ? virtualFactory : createThreadFactory("NaturalDisaster-Worker"),
+                this::onRejected);
+        this.workers.allowCoreThreadTimeOut(true);
+        // 受け取った順に処理する必要がある情報の振り分け用。件数は少ないため、キューに上限は設けない
+        this.ordered = Executors.newSingleThreadExecutor(createThreadFactory("NaturalDisaster-Dispatch"));
+    }
+
+    /**
+     * キューがいっぱいの場合の処理。
+     * 繰り返しの処理は次の回を予約し直し、1回だけの処理（購読の保存など）は失わないように呼び出したスレッドで実行する。
+     * ただし、メインスレッドはファイルの読み書きで止めないように、タイマーのスレッドは通信の打ち切りに使うため、
+     * 少し待ってから取得スレッドに入れ直す。停止中の場合は入れ直せないため、呼び出したスレッドで実行する。
+     */
+    private void onRejected(Runnable runnable, ThreadPoolExecutor executor) {
+        if (runnable instanceof RepeatingTask.Run) {
+            Metrics.REJECTED.get("reschedule").increment();
+            ((RepeatingTask.Run) runnable).onRejected();
+            return;
+        }
+        if ((Thread.currentThread() == timerThread || Bukkit.isPrimaryThread())
+                && !executor.isShutdown() && !timer.isShutdown()) {
+            Metrics.REJECTED.get("retry").increment();
+            timer.schedule(() -> execute(runnable), RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        Metrics.REJECTED.get("caller-runs").increment();
+        Bukkit.getLogger().warning("取得スレッドのキューがいっぱいのため、呼び出し元のスレッドで処理します。");
+        runnable.run();
+    }
+
+    /**
+     * 設定をもとに実行環境を起動する関数
+     * @param section config.ymlの「monitor」セクション
+     */
+    public static synchronized DisasterExecutor start(@Nonnull ConfigurationSection section) {
+        if (instance == null) {
+            instance = new DisasterExecutor(
+                    Math.max(1, section.getInt("threads", 2)),
+                    Math.max(1, section.getInt("queue-size", 16)),
+                    section.getBoolean("virtual-threads", false));
+            Bukkit.getLogger().info("災害情報の取得スレッドを起動しました。（仮想スレッド：" + (instance.virtual ? "有効" : "無効") + "）");
+        }
+        return instance;
+    }
+
+    /**
+     * 起動中の実行環境を返す関数
+     * @throws IllegalStateException {@link #start(ConfigurationSection)} が呼ばれていない場合
+     */
+    @Nonnull
+    public static synchronized DisasterExecutor get() {
+        if (instance == null) {
+            throw new IllegalStateException("DisasterExecutor is not started");
+        }
+        return instance;
+    }
+
+    /**
+     * 実行環境を停止する関数。
+     * 実行中・実行待ちの処理は、期限まで終わるのを待つ。
+     * @param timeoutMillis 待つ時間の上限（ミリ秒）
+     */
+    public static void shutdown(long timeoutMillis) {
+        DisasterExecutor current;
+        synchronized (DisasterExecutor.class) {
+            current = instance;
+            instance = null;
+        }
+        if (current != null) {
+            current.drain(timeoutMillis);
+        }
+    }
+
+    /**
+     * 新しい設定で実行環境を作り直す関数。
+     * 以降の {@link #get()} は新しい実行環境を返す。古い実行環境は呼び出し側で {@link #drain(long)} する。
+     * @param section config.ymlの「monitor」セクション
+     * @return 古い実行環境。起動していなかった場合はnull
+     */
+    @Nullable
+    public static synchronized DisasterExecutor restart(@Nonnull ConfigurationSection section) {
+        DisasterExecutor old = instance;
+        instance = null;
+        start(section);
+        return old;
+    }
+
+    /**
+     * 新しい処理を受け付けないようにして、実行中・実行待ちの処理が終わるのを待つ関数。
+     * 期限を過ぎた場合は、残りの処理を中断する。
+     * @param timeoutMillis 待つ時間の上限（ミリ秒）
+     * @return 期限までにすべて終わった場合はtrue
+     */
+    public boolean drain(long timeoutMillis) {
+        workers.shutdown();
+        ordered.shutdown();
+        boolean finished = false;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            finished = workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)
+                    && ordered.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!finished) {
+            workers.shutdownNow();
+            ordered.shutdownNow();
+            Bukkit.getLogger().warning("災害情報の取得が" + timeoutMillis + "ms以内に終わらなかったため、中断しました。");
+        }
+        // 通信の打ち切りに使うため、タイマーは取得スレッドの後に止める
+        timer.shutdownNow();
+        return finished;
+    }
+
+    /**
+     * 取得処理を繰り返し実行する関数。
+     * 次の実行までの時間は、処理が終わるたびに nextDelayMillis で決める。
+     * 処理が終わる前に次の処理が始まることはない。
+     * @param name ログに表示する監視の名前
+     * @param task 取得スレッドで実行する処理
+     * @param initialDelayMillis 最初の実行までの時間（ミリ秒）
+     * @param nextDelayMillis 次の実行までの時間（ミリ秒）を返す関数
+     */
+    @Nonnull
+    public RepeatingTask scheduleRepeating(@Nonnull String name, @Nonnull Runnable task, long initialDelayMillis, @Nonnull LongSupplier nextDelayMillis) {
+        RepeatingTask repeating = new RepeatingTask(name, task, nextDelayMillis);
+        repeating.scheduleNext(initialDelayMillis);
+        return repeating;
+    }
+
+    /**
+     * 指定した時間の後に、取得スレッドで処理を1回だけ実行する関数
+     */
+    @Nonnull
+    public ScheduledFuture<?> schedule(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit) {
+        return timer.schedule(() -> execute(task), delay, unit);
+    }
+
+    /**
+     * 指定した時間の後に、タイマーのスレッドで処理を実行する関数。
+     * 通信の打ち切りなど、すぐに終わる処理だけに使う。
+     */
+    @Nonnull
+    public ScheduledFuture<?> scheduleTimeout(@Nonnull Runnable action, long delay, @Nonnull TimeUnit unit) {
+        return timer.schedule(action, delay, unit);
+    }
+
+    /**
+     * 取得スレッドで処理を1回だけ実行する関数
+     */
+    public void execute(@Nonnull Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * 受け取った順に処理する専用のスレッドで、処理を1回だけ実行する関数。
+     * WebSocketや中継で受け取った情報の振り分けに使い、キューがいっぱいで捨てられることはない。
+     * @param name ログに表示する処理の名前
+     */
+    public void executeInOrder(@Nonnull String name, @Nonnull Runnable task) {
+        try {
+            ordered.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    Bukkit.getLogger().log(Level.WARNING, name + "の処理中にエラーが発生しました。", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Metrics.REJECTED.get("dropped").increment();
+            Bukkit.getLogger().warning("停止中のため、" + name + "を処理しませんでした。");
+        }
+    }
+
+    /**
+     * メインスレッドで処理を実行する関数。
+     * プラグインが無効化されている場合は何もしない。
+     */
+    public static void runSync(@Nonnull Runnable task) {
+        runSync("other", task);
+    }
+
+    /**
+     * メインスレッドで処理を実行し、かかった時間を {@link Metrics#MAIN_THREAD} に記録する関数。
+     * プラグインが無効化されている場合は何もしない。
+     * @param name 計測値で使う処理の名前（例：broadcast）
+     */
+    public static void runSync(@Nonnull String name, @Nonnull Runnable task) {
+        Main plugin = Main.getPlugin(Main.class);
+        if (!plugin.isEnabled()) {
+            return;
+        }
+        Runnable measured = () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                Metrics.MAIN_THREAD.get(name).observeNanos(System.nanoTime() - start);
+            }
+        };
+        if (Bukkit.isPrimaryThread()) {
+            measured.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, measured);
+        }
+    }
+
+    /**
+     * 仮想スレッドが使われているかを返す関数
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    private static ThreadFactory createThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Java 21以降の場合のみ、仮想スレッドのThreadFactoryを作成する。
+     * Java 17でもビルドできるように、リフレクションで呼び出している。
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "NaturalDisaster-Virtual-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            Bukkit.getLogger().warning("仮想スレッドはJava 21以降でのみ使用できます。通常のスレッドを使用します。");
+            return null;
+        }
+    }
+
+    /**
+     * {@link #scheduleRepeating(String, Runnable, long, LongSupplier)} で予約した処理です。
+     */
+    public final class RepeatingTask {
+
+        private final String name;
+        private final Runnable task;
+        private final LongSupplier nextDelayMillis;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> pending;
+
+        private RepeatingTask(String name, Runnable task, LongSupplier nextDelayMillis) {
+            this.name = name;
+            this.task = task;
+            this.nextDelayMillis = nextDelayMillis;
+        }
+
+        /**
+         * 以降の実行を取り消す関数。実行中の処理は最後まで行われる。
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> future = pending;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * 取り消されたかを返す関数
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void scheduleNext(long delayMillis) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                pending = timer.schedule(() -> {
+                    if (!cancelled) {
+                        workers.execute(new Run());
+                    }
+                }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 停止中
+            }
+        }
+
+        private final class Run implements Runnable {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    Bukkit.getLogger().log(Level.WARNING, name + "の取得中にエラーが発生しました。", e);
+                } finally {
+                    scheduleNext(nextDelayMillis.getAsLong());
+                }
+            }
+
+            private void onRejected() {
+                scheduleNext(nextDelayMillis.getAsLong());
+            }
+        }
+    }
+}
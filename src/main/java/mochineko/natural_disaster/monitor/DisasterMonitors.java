@@ -0,0 +1,176 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.journal.EventJournal;
+import mochineko.natural_disaster.metrics.PrometheusEndpoint;
+import mochineko.natural_disaster.relay.RelayNode;
+import mochineko.natural_disaster.status.DisasterType;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 災害情報の監視の起動・停止・再読み込みをまとめて行うクラスです。
+ * 起動はすぐに戻り、記録の復元・定期取得・WebSocketの接続・気象庁防災情報XMLの取得は、取得スレッドで時間をずらして順に行います。
+ * 停止と再読み込みでは、古い監視を止めて実行中の処理が終わるのを待ってから、新しい監視を始めます。
+ * 世代の番号で古い起動処理を見分けるため、再読み込みを繰り返しても監視が重複することはありません。
+ * 中継（{@link RelayNode}）を使う場合は、取得役になったときだけ取得を開始し、受信役になると取得を停止します。
+ */
+public final class DisasterMonitors {
+
+    private static int generation;
+    private static long shutdownTimeout = 5000L;
+
+    private DisasterMonitors() {
+    }
+
+    /**
+     * 監視を開始する関数。メインスレッドから呼ばれ、すぐに戻る。
+     */
+    public static synchronized void start(@Nonnull JavaPlugin plugin) {
+        FileConfiguration config = plugin.getConfig();
+        DisasterExecutor executor = DisasterExecutor.start(config.getConfigurationSection("monitor"));
+        configure(config);
+        PrometheusEndpoint.start(config.getConfigurationSection("metrics"));
+        int current = ++generation;
+        executor.execute(() -> warmUp(plugin, config, current));
+    }
+
+    /**
+     * 監視を停止する関数。
+     * 接続を閉じ、実行中の処理が終わるのを「shutdown-timeout-seconds」まで待つ。
+     */
+    public static void stop() {
+        long timeout;
+        synchronized (DisasterMonitors.class) {
+            generation++;
+            timeout = shutdownTimeout;
+            RelayNode.stop();
+            stopSources();
+        }
+        PrometheusEndpoint.stop();
+        DisasterExecutor.shutdown(timeout);
+        EventJournal.close();
+    }
+
+    /**
+     * 新しい設定で監視を作り直す関数。
+     * 古い監視はすぐに止まり、実行中の処理が終わってから新しい監視が始まる。
+     * 設定ファイルの読み込みは呼び出し側で行う。
+     */
+    public static void reload(@Nonnull JavaPlugin plugin) {
+        reload(plugin, plugin.getConfig());
+    }
+
+    /**
+     * 指定した設定で監視を作り直す関数。
+     * 設定ファイルとは別の設定で一時的に動かす場合（{@link mochineko.natural_disaster.replay.ReplaySession} など）に使う。
+     */
+    public static synchronized void reload(@Nonnull JavaPlugin plugin, @Nonnull FileConfiguration config) {
+        int current = ++generation;
+        long timeout = shutdownTimeout;
+        RelayNode.stop();
+        stopSources();
+
+        DisasterExecutor old = DisasterExecutor.restart(config.getConfigurationSection("monitor"));
+        configure(config);
+        PrometheusEndpoint.stop();
+        PrometheusEndpoint.start(config.getConfigurationSection("metrics"));
+        DisasterExecutor.get().execute(() -> {
+            if (old != null) {
+                old.drain(timeout);
+            }
+            EventJournal.close();
+            warmUp(plugin, config, current);
+        });
+    }
+
+    private static void configure(FileConfiguration config) {
+        ConfigurationSection monitor = config.getConfigurationSection("monitor");
+        shutdownTimeout = Math.max(0, monitor.getLong("shutdown-timeout-seconds", 5)) * 1000L;
+        P2PQuakeClient.configure(config.getConfigurationSection("fetch"));
+        P2PQuakeMonitor.configure(config.getConfigurationSection("polling"));
+    }
+
+    /**
+     * 取得スレッドで、記録の復元・定期取得・WebSocket・気象庁防災情報XMLの順に時間をずらして開始する
+     */
+    private static void warmUp(JavaPlugin plugin, FileConfiguration config, int current) {
+        ConfigurationSection monitor = config.getConfigurationSection("monitor");
+        long startupDelay = Math.max(0, monitor.getLong("startup-delay-seconds", 2));
+        long stagger = Math.max(0, monitor.getLong("stagger-seconds", 1));
+        if (!isCurrent(current)) {
+            return;
+        }
+        // 記録から処理済みのIDと津波予報の状態を復元してから、情報の受信を始める
+        EventJournal.open(plugin.getDataFolder(), config.getConfigurationSection("journal"),
+                SeenEventIndex::markSeen, P2PQuakeDispatcher.REPLAY, P2PQuakeDispatcher::restore);
+
+        ConfigurationSection relay = config.getConfigurationSection("relay");
+        if (relay != null && relay.getBoolean("enabled", false)) {
+            // 中継を使う場合は、取得役になったサーバーだけが取得する
+            DisasterExecutor.get().schedule(() -> {
+                synchronized (DisasterMonitors.class) {
+                    if (isCurrent(current)) {
+                        RelayNode.start(relay, () -> startSources(config, current, 0, stagger), () -> {
+                            if (isCurrent(current)) {
+                                stopSources();
+                            }
+                        });
+                    }
+                }
+            }, startupDelay, TimeUnit.SECONDS);
+        } else {
+            startSources(config, current, startupDelay, stagger);
+        }
+        Bukkit.getLogger().info("災害情報の監視を" + startupDelay + "秒後に開始します。");
+    }
+
+    /**
+     * 定期取得・WebSocket・気象庁防災情報XMLの順に、時間をずらして取得を開始する
+     */
+    private static void startSources(FileConfiguration config, int current, long delay, long stagger) {
+        DisasterExecutor executor = DisasterExecutor.get();
+        executor.schedule(() -> {
+            synchronized (DisasterMonitors.class) {
+                if (isCurrent(current)) {
+                    // すべての種類を1つの定期取得にまとめる
+                    for (DisasterType type : DisasterType.values()) {
+                        P2PQuakeMonitor.enable(type);
+                        Bukkit.getLogger().info(type.getName() + "の監視を開始しました。");
+                    }
+                }
+            }
+        }, delay, TimeUnit.SECONDS);
+        executor.schedule(() -> {
+            synchronized (DisasterMonitors.class) {
+                if (isCurrent(current)) {
+                    P2PQuakeWebSocket.start(config.getConfigurationSection("websocket"));
+                }
+            }
+        }, delay + stagger, TimeUnit.SECONDS);
+        executor.schedule(() -> {
+            synchronized (DisasterMonitors.class) {
+                if (isCurrent(current)) {
+                    JmaXmlMonitor.start(config.getConfigurationSection("jma"));
+                }
+            }
+        }, delay + stagger * 2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 取得をすべて停止する。中継で受信役になった場合にも呼ばれる
+     */
+    private static synchronized void stopSources() {
+        P2PQuakeWebSocket.stop();
+        P2PQuakeMonitor.stop();
+        JmaXmlMonitor.stop();
+    }
+
+    private static synchronized boolean isCurrent(int current) {
+        return generation == current;
+    }
+}
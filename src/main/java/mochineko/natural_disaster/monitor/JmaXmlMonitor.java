@@ -0,0 +1,234 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.JsonObject;
+import mochineko.natural_disaster.metrics.Metrics;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 気象庁防災情報XMLのフィードを定期取得するクラスです。
+ * P2P地震情報とは別の取得元として、地震情報と津波予報の電文を受け取ります。
+ * フィードは ETag・If-Modified-Since を付けて取得し、更新が無い場合（304）は本文を受信しません。
+ * 新しいエントリーの電文だけを取得し、{@link JmaXmlParser} で変換してから {@link P2PQuakeDispatcher} に渡します。
+ * 同じ情報をP2P地震情報からも受け取った場合は、2回目は重複として除外されます。
+ */
+public final class JmaXmlMonitor {
+
+    /**
+     * 計測値（{@link Metrics}）での取得元の名前
+     */
+    public static final String SOURCE = "jma";
+
+    private static JmaXmlMonitor instance;
+
+    private final URI feedUrl;
+    private final long intervalMillis;
+    private final long maxAgeMillis;
+    private final long timeoutSeconds;
+    private final CircuitBreaker breaker;
+    private DisasterExecutor.RepeatingTask task;
+    private volatile long retryAfterUntil;
+    private String etag;
+    private String lastModified;
+
+    private JmaXmlMonitor(ConfigurationSection section) {
+        this.feedUrl = URI.create(section.getString("feed-url", "https://www.data.jma.go.jp/developer/xml/feed/eqvol.xml"));
+        this.intervalMillis = Math.max(10, section.getLong("interval-seconds", 30)) * 1000L;
+        this.maxAgeMillis = Math.max(1, section.getLong("max-age-minutes", 10)) * 60_000L;
+        this.timeoutSeconds = Math.max(1, section.getLong("timeout-seconds", 10));
+        this.breaker = new CircuitBreaker("気象庁防災情報XML", section);
+    }
+
+    /**
+     * 定期取得を開始する関数
+     * @param section config.ymlの「jma」セクション
+     */
+    public static synchronized void start(@Nonnull ConfigurationSection section) {
+        if (instance != null || !section.getBoolean("enabled", false)) {
+            return;
+        }
+        JmaXmlMonitor monitor = new JmaXmlMonitor(section);
+        monitor.task = DisasterExecutor.get().scheduleRepeating("気象庁防災情報XML", monitor::poll, 0L,
+                () -> monitor.nextDelay(System.currentTimeMillis()));
+        instance = monitor;
+        Bukkit.getLogger().info("気象庁防災情報XMLの監視を開始しました。");
+    }
+
+    /**
+     * 定期取得を停止する関数
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.task.cancel();
+            instance = null;
+        }
+    }
+
+    /**
+     * 取得の状態を返す関数
+     * @return 気象庁防災情報XMLを使っていない場合はnull
+     */
+    @Nullable
+    public static synchronized CircuitBreaker getBreaker() {
+        return instance == null ? null : instance.breaker;
+    }
+
+    private long nextDelay(long now) {
+        return Math.max(breaker.nextDelay(now, intervalMillis), retryAfterUntil - now);
+    }
+
+    private void poll() {
+        long now = System.currentTimeMillis();
+        if (!breaker.allowRequest(now)) {
+            return;
+        }
+        List<JmaXmlParser.FeedEntry> entries;
+        try {
+            entries = fetchFeed();
+            breaker.onSuccess(System.currentTimeMillis());
+        } catch (RetryAfterException e) {
+            onRetryAfter(e);
+            return;
+        } catch (IOException e) {
+            breaker.onFailure(System.currentTimeMillis(), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            return;
+        }
+        if (entries == null) {
+            // 前回から更新が無い
+            return;
+        }
+
+        // フィードは新しい順に並んでいるため、古い順に処理する
+        Instant oldest = Instant.ofEpochMilli(now - maxAgeMillis);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            JmaXmlParser.FeedEntry entry = entries.get(i);
+            if (!JmaXmlParser.isSupported(entry.getTitle()) || SeenEventIndex.contains(entry.getId())) {
+                continue;
+            }
+            if (entry.getUpdated() == null || entry.getUpdated().isBefore(oldest)) {
+                continue;
+            }
+            try {
+                P2PQuakeEntry decoded = fetchBulletin(entry);
+                if (decoded == null) {
+                    // 訓練や取消の電文は、次回から取得しない
+                    SeenEventIndex.markSeen(entry.getId());
+                    continue;
+                }
+                P2PQuakeDispatcher.dispatch(decoded, AlertLatency.Source.JMA);
+            } catch (RetryAfterException e) {
+                onRetryAfter(e);
+                return;
+            } catch (IOException e) {
+                // 取得できなかった電文は、次回のフィードの取得で再び試す
+                breaker.onFailure(System.currentTimeMillis(), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                return;
+            }
+        }
+    }
+
+    private void onRetryAfter(RetryAfterException e) {
+        retryAfterUntil = System.currentTimeMillis() + e.getRetryAfterMillis();
+        Bukkit.getLogger().warning(e.getMessage() + "（" + e.getRetryAfterMillis() / 1000 + "秒後に再取得します）");
+    }
+
+    /**
+     * フィードを取得する関数
+     * @return 前回から更新が無い場合はnull
+     */
+    @Nullable
+    private List<JmaXmlParser.FeedEntry> fetchFeed() throws IOException {
+        HttpRequest.Builder builder = request(feedUrl);
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = send(builder.build());
+        if (response.statusCode() == 304) {
+            response.body().close();
+            Metrics.FETCH.get(SOURCE).observeNanos(System.nanoTime() - start);
+            return null;
+        }
+        try (InputStream body = open(response)) {
+            long opened = System.nanoTime();
+            Metrics.FETCH.get(SOURCE).observeNanos(opened - start);
+            List<JmaXmlParser.FeedEntry> entries = JmaXmlParser.parseFeed(body);
+            Metrics.DECODE.get(SOURCE).observeNanos(System.nanoTime() - opened);
+            // 解析に成功した場合だけ、次回の条件に使う
+            etag = response.headers().firstValue("ETag").orElse(null);
+            lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+            return entries;
+        }
+    }
+
+    /**
+     * 電文を取得して、P2P地震情報と同じ形にデコードする関数
+     * @return 扱わない電文の場合はnull
+     */
+    @Nullable
+    private P2PQuakeEntry fetchBulletin(JmaXmlParser.FeedEntry entry) throws IOException {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = send(request(URI.create(entry.getLink())).build());
+        try (InputStream body = open(response)) {
+            long opened = System.nanoTime();
+            Metrics.FETCH.get(SOURCE).observeNanos(opened - start);
+            JsonObject json = JmaXmlParser.parseBulletin(body, entry.getId());
+            P2PQuakeEntry decoded = json == null ? null : P2PQuakeDecoder.decode(json);
+            Metrics.DECODE.get(SOURCE).observeNanos(System.nanoTime() - opened);
+            return decoded;
+        }
+    }
+
+    private HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .header("Accept", "application/atom+xml, application/xml")
+                .header("Accept-Encoding", "gzip")
+                .GET();
+    }
+
+    private static HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        try {
+            return P2PQuakeClient.getHttpClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("気象庁防災情報XMLの取得が中断されました");
+        }
+    }
+
+    /**
+     * 本文を開く関数。200以外の場合は例外を投げる。
+     */
+    private InputStream open(HttpResponse<InputStream> response) throws IOException {
+        InputStream body = new DeadlineInputStream(response.body(), timeoutSeconds, SOURCE);
+        if (response.statusCode() == 429 || response.statusCode() == 503) {
+            body.close();
+            throw new RetryAfterException("気象庁防災情報XMLの取得が制限されています（HTTP " + response.statusCode() + "）",
+                    P2PQuakeClient.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)));
+        }
+        if (response.statusCode() != 200) {
+            body.close();
+            throw new IOException("気象庁防災情報XMLの取得に失敗しました（HTTP " + response.statusCode() + "）");
+        }
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""))) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+}
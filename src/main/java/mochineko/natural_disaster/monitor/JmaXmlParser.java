@@ -0,0 +1,537 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import mochineko.natural_disaster.api.P2PTime;
+import mochineko.natural_disaster.status.DisasterType;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import mochineko.natural_disaster.status.TsunamiGrade;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 気象庁防災情報XMLのフィード（Atom）と電文を、StAXでストリームのまま読み込むクラスです。
+ * DOMを作らずに必要な要素だけを拾い、電文はP2P地震情報と同じ形のJSONに変換します。
+ * 変換したJSONは {@link P2PQuakeDecoder#decode(JsonObject)} でデコードでき、P2P地震情報と同じ処理で通知されます。
+ */
+final class JmaXmlParser {
+
+    /**
+     * 震度速報（VXSE51）・震源・震度に関する情報（VXSE53）
+     */
+    static final String EARTHQUAKE_PROMPT = "震度速報";
+    static final String EARTHQUAKE_DETAIL = "震源・震度に関する情報";
+    /**
+     * 津波警報・注意報・予報（VTSE41）
+     */
+    static final String TSUNAMI = "津波警報・注意報・予報a";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+    /**
+     * P2P地震情報と同じく、ミリ秒を付けない形式（例：2024/01/01 16:10:00）
+     */
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").withZone(P2PTime.JST);
+    /**
+     * 震源の座標（例：+37.5+137.3-10000/）。深さはメートルで、省略される場合がある
+     */
+    private static final Pattern COORDINATE = Pattern.compile("([+-][0-9.]+)([+-][0-9.]+)(?:([+-][0-9]+))?/");
+
+    static {
+        // 外部の実体を読み込まないようにする
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private JmaXmlParser() {
+    }
+
+    /**
+     * 扱う電文の題名かどうかを返す関数
+     */
+    static boolean isSupported(@Nullable String title) {
+        return EARTHQUAKE_PROMPT.equals(title) || EARTHQUAKE_DETAIL.equals(title) || TSUNAMI.equals(title);
+    }
+
+    /**
+     * フィードのエントリーを、フィードに並んでいる順（新しい順）に読み込む関数
+     */
+    @Nonnull
+    static List<FeedEntry> parseFeed(@Nonnull InputStream in) throws IOException {
+        List<FeedEntry> entries = new ArrayList<>();
+        XMLStreamReader reader = open(in);
+        try {
+            FeedEntry entry = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (name.equals("entry")) {
+                        entry = new FeedEntry();
+                    } else if (entry != null) {
+                        switch (name) {
+                            case "id":
+                                entry.id = reader.getElementText().trim();
+                                break;
+                            case "title":
+                                entry.title = reader.getElementText().trim();
+                                break;
+                            case "updated":
+                                entry.updated = parseInstant(reader.getElementText());
+                                break;
+                            case "link":
+                                entry.link = reader.getAttributeValue(null, "href");
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("entry")) {
+                    if (entry != null && entry.id != null && entry.link != null) {
+                        entries.add(entry);
+                    }
+                    entry = null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("気象庁防災情報XMLのフィードの解析に失敗しました", e);
+        } finally {
+            close(reader);
+        }
+        return entries;
+    }
+
+    /**
+     * 電文を読み込み、P2P地震情報と同じ形のJSONに変換する関数
+     * @param id 情報のID（フィードのエントリーのID）
+     * @return 扱わない電文・訓練や試験の電文・取消の電文の場合はnull
+     */
+    @Nullable
+    static JsonObject parseBulletin(@Nonnull InputStream in, @Nonnull String id) throws IOException {
+        Bulletin bulletin = new Bulletin();
+        XMLStreamReader reader = open(in);
+        try {
+            Deque<String> path = new ArrayDeque<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    String parent = path.peek();
+                    path.push(name);
+                    if (!bulletin.read(reader, name, parent, path)) {
+                        continue;
+                    }
+                    // 値を読み込んだ場合は、終了タグまで進んでいる
+                    path.pop();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    bulletin.end(reader.getLocalName(), path);
+                    path.pop();
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("気象庁防災情報XMLの電文の解析に失敗しました", e);
+        } finally {
+            close(reader);
+        }
+        return bulletin.toJson(id);
+    }
+
+    private static XMLStreamReader open(InputStream in) throws IOException {
+        try {
+            return FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("気象庁防災情報XMLを開けませんでした", e);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException ignored) {
+        }
+    }
+
+    @Nullable
+    private static Instant parseInstant(@Nullable String text) {
+        ZonedDateTime dateTime = parseDateTime(text);
+        return dateTime == null ? null : dateTime.toInstant();
+    }
+
+    /**
+     * 気象庁防災情報XMLの時刻を、日本時間に変換する関数
+     * @param text （例：2024-01-01T16:10:00+09:00）
+     */
+    @Nullable
+    private static ZonedDateTime parseDateTime(@Nullable String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(text.trim()).atZoneSameInstant(P2PTime.JST);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static float parseFloat(String text, float fallback) {
+        try {
+            // 不明な値は「NaN」で届く
+            float value = Float.parseFloat(text.trim());
+            return Float.isNaN(value) ? fallback : value;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * フィードの1件のエントリーです。
+     */
+    static final class FeedEntry {
+        private String id;
+        private String title;
+        private Instant updated;
+        private String link;
+
+        @Nonnull
+        String getId() {
+            return id;
+        }
+
+        @Nullable
+        String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return 時刻が無い場合はnull
+         */
+        @Nullable
+        Instant getUpdated() {
+            return updated;
+        }
+
+        /**
+         * 電文のアドレスを返す関数
+         */
+        @Nonnull
+        String getLink() {
+            return link;
+        }
+    }
+
+    /**
+     * 読み込み中の電文の内容です。
+     */
+    private static final class Bulletin {
+        private String title;
+        private String status;
+        private String infoType;
+        private ZonedDateTime reportTime;
+        private ZonedDateTime targetTime;
+
+        private ZonedDateTime originTime;
+        private String hypocenterName = "";
+        private int depth = -1;
+        private float latitude = -200;
+        private float longitude = -200;
+        private float magnitude = -1;
+        private String maxInt;
+        private String tsunamiComment;
+
+        private final JsonArray stations = new JsonArray();
+        private final JsonArray areas = new JsonArray();
+        private String pref;
+        private String area;
+        private String areaInt;
+        private String station;
+        private String stationInt;
+
+        private final JsonArray tsunamiAreas = new JsonArray();
+        private String kindCode;
+        private String arrivalTime;
+        private String condition;
+        private String heightDescription;
+        private float height;
+
+        /**
+         * 開始タグを読み込む関数
+         * @return 要素の値を読み込み、終了タグまで進めた場合はtrue
+         */
+        boolean read(XMLStreamReader reader, String name, @Nullable String parent, Deque<String> path) throws XMLStreamException {
+            switch (name) {
+                case "Title":
+                    if ("Control".equals(parent)) {
+                        title = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "Status":
+                    if ("Control".equals(parent)) {
+                        status = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "InfoType":
+                    infoType = reader.getElementText().trim();
+                    return true;
+                case "ReportDateTime":
+                    reportTime = parseDateTime(reader.getElementText());
+                    return true;
+                case "TargetDateTime":
+                    targetTime = parseDateTime(reader.getElementText());
+                    return true;
+                case "OriginTime":
+                    originTime = parseDateTime(reader.getElementText());
+                    return true;
+                case "Name":
+                    return readName(reader, parent, path);
+                case "Coordinate":
+                    if (path.contains("Hypocenter") && latitude == -200) {
+                        readCoordinate(reader.getElementText());
+                        return true;
+                    }
+                    return false;
+                case "Magnitude":
+                    if (path.contains("Earthquake")) {
+                        magnitude = parseFloat(reader.getElementText(), -1);
+                        return true;
+                    }
+                    return false;
+                case "MaxInt":
+                    if ("Observation".equals(parent)) {
+                        maxInt = reader.getElementText().trim();
+                        return true;
+                    } else if ("Area".equals(parent)) {
+                        areaInt = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "Int":
+                    if ("IntensityStation".equals(parent)) {
+                        stationInt = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "Code":
+                    if ("ForecastComment".equals(parent) && tsunamiComment == null) {
+                        tsunamiComment = reader.getElementText().trim();
+                        return true;
+                    } else if ("Kind".equals(parent) && path.contains("Forecast") && !path.contains("LastKind")) {
+                        kindCode = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "ArrivalTime":
+                    if ("FirstHeight".equals(parent)) {
+                        ZonedDateTime time = parseDateTime(reader.getElementText());
+                        arrivalTime = time == null ? null : TIME.format(time);
+                        return true;
+                    }
+                    return false;
+                case "Condition":
+                    if ("FirstHeight".equals(parent)) {
+                        condition = reader.getElementText().trim();
+                        return true;
+                    }
+                    return false;
+                case "TsunamiHeight":
+                    if ("MaxHeight".equals(parent) && path.contains("Forecast")) {
+                        heightDescription = reader.getAttributeValue(null, "description");
+                        height = parseFloat(reader.getElementText(), 0);
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean readName(XMLStreamReader reader, @Nullable String parent, Deque<String> path) throws XMLStreamException {
+            if (parent == null) {
+                return false;
+            }
+            if (path.contains("Hypocenter")) {
+                if ("Area".equals(parent)) {
+                    hypocenterName = reader.getElementText().trim();
+                    return true;
+                }
+                return false;
+            }
+            if (path.contains("Intensity")) {
+                switch (parent) {
+                    case "Pref":
+                        pref = reader.getElementText().trim();
+                        return true;
+                    case "Area":
+                        area = reader.getElementText().trim();
+                        return true;
+                    case "IntensityStation":
+                        station = reader.getElementText().trim();
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+            if ("Area".equals(parent) && path.contains("Forecast") && path.contains("Item")) {
+                area = reader.getElementText().trim();
+                return true;
+            }
+            return false;
+        }
+
+        private void readCoordinate(String text) {
+            Matcher matcher = COORDINATE.matcher(text.trim());
+            if (!matcher.find()) {
+                return;
+            }
+            latitude = parseFloat(matcher.group(1), -200);
+            longitude = parseFloat(matcher.group(2), -200);
+            if (matcher.group(3) != null) {
+                depth = Math.abs(Integer.parseInt(matcher.group(3))) / 1000;
+            }
+        }
+
+        /**
+         * 終了タグを読み込む関数。観測点や予報区の1件分をまとめる。
+         */
+        void end(String name, Deque<String> path) {
+            switch (name) {
+                case "IntensityStation":
+                    if (station != null) {
+                        stations.add(point(station, stationInt));
+                    }
+                    station = null;
+                    stationInt = null;
+                    break;
+                case "Area":
+                    if (path.contains("Intensity") && area != null) {
+                        areas.add(point(area, areaInt));
+                        area = null;
+                        areaInt = null;
+                    }
+                    break;
+                case "Item":
+                    if (path.contains("Forecast")) {
+                        addTsunamiArea();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private JsonObject point(String name, String intensity) {
+            JsonObject point = new JsonObject();
+            point.addProperty("addr", name);
+            point.addProperty("pref", pref);
+            point.addProperty("scale", EarthquakeScaleType.convertJMA(intensity).toP2PAPI());
+            return point;
+        }
+
+        private void addTsunamiArea() {
+            // P2P地震情報と同じく、津波注意報以上の予報区だけを含める
+            String grade = TsunamiGrade.convertJMA(kindCode).toP2PAPI();
+            if (area != null && grade != null) {
+                JsonObject item = new JsonObject();
+                item.addProperty("name", area);
+                item.addProperty("grade", grade);
+                item.addProperty("immediate", condition != null && condition.contains("ただちに"));
+                JsonObject firstHeight = new JsonObject();
+                firstHeight.addProperty("arrivalTime", arrivalTime);
+                firstHeight.addProperty("condition", condition);
+                item.add("firstHeight", firstHeight);
+                JsonObject maxHeight = new JsonObject();
+                maxHeight.addProperty("description", heightDescription);
+                maxHeight.addProperty("number", Math.round(height));
+                item.add("maxHeight", maxHeight);
+                tsunamiAreas.add(item);
+            }
+            area = null;
+            kindCode = null;
+            arrivalTime = null;
+            condition = null;
+            heightDescription = null;
+            height = 0;
+        }
+
+        @Nullable
+        JsonObject toJson(String id) {
+            // 訓練・試験の電文と、取消の電文は扱わない
+            if (!"通常".equals(status) || "取消".equals(infoType) || reportTime == null) {
+                return null;
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("time", TIME.format(reportTime));
+            if (EARTHQUAKE_PROMPT.equals(title) || EARTHQUAKE_DETAIL.equals(title)) {
+                ZonedDateTime origin = originTime != null ? originTime : targetTime;
+                if (origin == null) {
+                    return null;
+                }
+                json.addProperty("code", DisasterType.EARTHQUAKE.getCode());
+                JsonObject earthquake = new JsonObject();
+                earthquake.addProperty("time", TIME.format(origin));
+                earthquake.addProperty("maxScale", EarthquakeScaleType.convertJMA(maxInt).toP2PAPI());
+                earthquake.addProperty("domesticTsunami", domesticTsunami());
+                earthquake.addProperty("foreignTsunami", "Unknown");
+                JsonObject hypocenter = new JsonObject();
+                hypocenter.addProperty("name", hypocenterName);
+                hypocenter.addProperty("depth", depth);
+                hypocenter.addProperty("latitude", latitude);
+                hypocenter.addProperty("longitude", longitude);
+                hypocenter.addProperty("magnitude", magnitude);
+                earthquake.add("hypocenter", hypocenter);
+                json.add("earthquake", earthquake);
+                // 観測点ごとの震度が無い震度速報は、地域ごとの震度を使う
+                json.add("points", stations.size() > 0 ? stations : areas);
+                return json;
+            }
+            if (TSUNAMI.equals(title)) {
+                json.addProperty("code", DisasterType.TSUNAMI.getCode());
+                json.add("areas", tsunamiAreas);
+                return json;
+            }
+            return null;
+        }
+
+        /**
+         * 固定付加文のコードを、P2P地震情報の国内の津波の有無に変換する
+         */
+        private String domesticTsunami() {
+            if (tsunamiComment == null) {
+                return "Unknown";
+            }
+            switch (tsunamiComment) {
+                case "0215":
+                    return "None";
+                case "0217":
+                    return "NonEffective";
+                case "0211":
+                case "0212":
+                case "0213":
+                case "0214":
+                    return "Warning";
+                default:
+                    return "Unknown";
+            }
+        }
+    }
+}
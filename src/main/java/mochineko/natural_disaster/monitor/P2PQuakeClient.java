@@ -0,0 +1,227 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.metrics.Metrics;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * P2P地震情報のAPIへの通信を行うクラスです。
+ * 1つの {@link HttpClient} を使い回すため、接続はHTTP/2・keep-aliveで再利用されます。
+ * 取得の成功・失敗は {@link CircuitBreaker} に記録され、障害が続いている間は通信を行いません。
+ */
+public final class P2PQuakeClient {
+
+    public static final String HISTORY_URL = "https://api.p2pquake.net/v2/history";
+
+    /**
+     * 計測値（{@link Metrics}）での取得元の名前
+     */
+    public static final String SOURCE = "p2pquake";
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private static final long DEFAULT_RETRY_AFTER = 60_000L;
+
+    private static volatile String historyUrl = HISTORY_URL;
+    private static volatile long timeoutSeconds = 10;
+    private static volatile CircuitBreaker breaker = new CircuitBreaker("P2P地震情報", new MemoryConfiguration());
+
+    private P2PQuakeClient() {
+    }
+
+    /**
+     * 通信の設定を読み込む関数
+     * @param section config.ymlの「fetch」セクション
+     */
+    public static void configure(@Nonnull ConfigurationSection section) {
+        historyUrl = section.getString("history-url", HISTORY_URL);
+        timeoutSeconds = Math.max(1, section.getLong("timeout-seconds", 10));
+        breaker = new CircuitBreaker("P2P地震情報", section);
+    }
+
+    /**
+     * 取得の状態を返す関数
+     */
+    @Nonnull
+    public static CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * 取得に使うHttpClientを返す関数。
+     * WebSocketも同じものを使うため、取得元が増えても接続のプールは1つで済む。
+     */
+    static HttpClient getHttpClient() {
+        return CLIENT;
+    }
+
+    /**
+     * 指定したコードの履歴を取得してデコードする関数。
+     * 結果は {@link CircuitBreaker} に記録される。取得を停止している間は通信せずに例外を投げる。
+     * @param limit 取得する件数（1～100）
+     * @param codes 情報のコード（例：551, 552, 556）
+     * @param decoder レスポンスの本文をデコードする関数
+     * @throws CircuitBreaker.OpenException 取得を停止している場合
+     * @throws RetryAfterException 取得先から待つよう指示された場合
+     */
+    public static <T> T fetchHistory(int limit, @Nonnull Collection<Integer> codes, @Nonnull HistoryDecoder<T> decoder) throws IOException {
+        return fetchHistory(limit, 0, codes, decoder);
+    }
+
+    /**
+     * 指定したコードの履歴を、新しい方から offset 件を飛ばして取得してデコードする関数。
+     * 結果は {@link CircuitBreaker} に記録される。取得を停止している間は通信せずに例外を投げる。
+     * @param limit 取得する件数（1～100）
+     * @param offset 飛ばす件数
+     * @param codes 情報のコード（例：551, 552, 556）
+     * @param decoder レスポンスの本文をデコードする関数
+     * @throws CircuitBreaker.OpenException 取得を停止している場合
+     * @throws RetryAfterException 取得先から待つよう指示された場合
+     */
+    public static <T> T fetchHistory(int limit, int offset, @Nonnull Collection<Integer> codes, @Nonnull HistoryDecoder<T> decoder) throws IOException {
+        CircuitBreaker current = breaker;
+        current.checkRequest(System.currentTimeMillis());
+        long start = System.nanoTime();
+        try (Reader reader = openHistoryReader(limit, offset, codes)) {
+            long opened = System.nanoTime();
+            Metrics.FETCH.get(SOURCE).observeNanos(opened - start);
+            T result = decoder.decode(reader);
+            Metrics.DECODE.get(SOURCE).observeNanos(System.nanoTime() - opened);
+            current.onSuccess(System.currentTimeMillis());
+            return result;
+        } catch (RetryAfterException e) {
+            // 利用制限は障害ではないため、失敗として数えない
+            throw e;
+        } catch (IOException e) {
+            current.onFailure(System.currentTimeMillis(), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+
+    /**
+     * 指定したコードの履歴を1回のリクエストで取得する関数
+     * @param limit 取得する件数（1～100）
+     * @param codes 情報のコード（例：551, 552, 556）
+     * @return レスポンスの本文。gzipの場合は展開済み。
+     */
+    @Nonnull
+    public static InputStream openHistory(int limit, @Nonnull Collection<Integer> codes) throws IOException {
+        return openHistory(limit, 0, codes);
+    }
+
+    /**
+     * 指定したコードの履歴を、新しい方から offset 件を飛ばして1回のリクエストで取得する関数
+     * @param limit 取得する件数（1～100）
+     * @param offset 飛ばす件数
+     * @param codes 情報のコード（例：551, 552, 556）
+     * @return レスポンスの本文。gzipの場合は展開済み。
+     */
+    @Nonnull
+    public static InputStream openHistory(int limit, int offset, @Nonnull Collection<Integer> codes) throws IOException {
+        StringBuilder url = new StringBuilder(historyUrl).append('?');
+        for (int code : codes) {
+            url.append("codes=").append(code).append('&');
+        }
+        url.append("limit=").append(Math.max(1, Math.min(100, limit)));
+        if (offset > 0) {
+            url.append("&offset=").append(offset);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url.toString()))
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("P2P地震情報の取得が中断されました");
+        }
+        InputStream body = new DeadlineInputStream(response.body(), timeoutSeconds, SOURCE);
+        if (response.statusCode() == 429 || response.statusCode() == 503) {
+            body.close();
+            throw new RetryAfterException("P2P地震情報の取得が制限されています（HTTP " + response.statusCode() + "）",
+                    parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)));
+        }
+        if (response.statusCode() != 200) {
+            body.close();
+            throw new IOException("P2P地震情報の取得に失敗しました（HTTP " + response.statusCode() + "）");
+        }
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""))) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    /**
+     * Retry-Afterの値を、待つ時間に変換する関数
+     * @param value 秒数またはHTTPの日付（例：120、Wed, 21 Oct 2026 07:28:00 GMT）
+     * @return ミリ秒で返す。値が無い・読めない場合は60秒を返す
+     */
+    static long parseRetryAfter(@Nullable String value) {
+        if (value == null || value.isBlank()) {
+            return DEFAULT_RETRY_AFTER;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000L;
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException ignored) {
+            return DEFAULT_RETRY_AFTER;
+        }
+    }
+
+    /**
+     * 履歴をReaderとして開く関数
+     */
+    @Nonnull
+    public static Reader openHistoryReader(int limit, @Nonnull Collection<Integer> codes) throws IOException {
+        return openHistoryReader(limit, 0, codes);
+    }
+
+    /**
+     * 履歴を、新しい方から offset 件を飛ばしてReaderとして開く関数
+     */
+    @Nonnull
+    public static Reader openHistoryReader(int limit, int offset, @Nonnull Collection<Integer> codes) throws IOException {
+        return new InputStreamReader(openHistory(limit, offset, codes), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * レスポンスの本文をデコードする関数
+     */
+    @FunctionalInterface
+    public interface HistoryDecoder<T> {
+        T decode(@Nonnull Reader reader) throws IOException;
+    }
+}
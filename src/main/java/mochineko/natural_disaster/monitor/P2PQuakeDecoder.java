@@ -0,0 +1,220 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import mochineko.natural_disaster.api.DisasterAPI;
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.status.DisasterType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * P2P地震情報のJSONを、ストリームのまま読み込むクラスです。
+ * レスポンス全体を文字列にせず、{@link JsonReader} で1件ずつデコードします。
+ * TypeAdapterはクラスごとに1つだけ作成し、使い回します。
+ */
+public final class P2PQuakeDecoder {
+
+    public static final Gson GSON = new GsonBuilder()
+            .disableHtmlEscaping()
+            .registerTypeAdapterFactory(new DecodeHookAdapterFactory())
+            .create();
+
+    public static final TypeAdapter<P2PEarthquakeAPI> EARTHQUAKE_ADAPTER = GSON.getAdapter(P2PEarthquakeAPI.class);
+    public static final TypeAdapter<P2PTsunamiAPI> TSUNAMI_ADAPTER = GSON.getAdapter(P2PTsunamiAPI.class);
+    public static final TypeAdapter<P2PEEWAPI> EEW_ADAPTER = GSON.getAdapter(P2PEEWAPI.class);
+
+    private static final Map<DisasterType, TypeAdapter<? extends DisasterAPI>> ADAPTERS = new EnumMap<>(DisasterType.class);
+
+    static {
+        for (DisasterType type : DisasterType.values()) {
+            ADAPTERS.put(type, GSON.getAdapter(type.getDisasterClass()));
+        }
+    }
+
+    private P2PQuakeDecoder() {
+    }
+
+    /**
+     * コードに対応するTypeAdapterを返す関数
+     * @return 扱わないコードの場合はnull
+     */
+    @Nullable
+    public static TypeAdapter<? extends DisasterAPI> getAdapter(int code) {
+        DisasterType type = DisasterType.fromCode(code);
+        return type == null ? null : ADAPTERS.get(type);
+    }
+
+    /**
+     * 1件の情報のJSONから、ツリーを作らずにコードだけを読む関数。
+     * コードより前にある値は読み飛ばし、コードを見つけた時点で読むのをやめる。
+     * @return コードが無い場合や、JSONが正しくない場合は-1
+     */
+    public static int peekCode(@Nonnull String text) {
+        try {
+            JsonReader json = new JsonReader(new StringReader(text));
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName().equals("code") && json.peek() == JsonToken.NUMBER) {
+                    return json.nextInt();
+                }
+                json.skipValue();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // 振り分けるときに、改めて不正なデータとして扱う
+        }
+        return -1;
+    }
+
+    /**
+     * 1種類の情報だけの配列を、ストリームのままデコードする関数
+     * @param reader レスポンスの本文
+     * @param adapter 情報のTypeAdapter
+     * @param generator 配列の作成（例：{@code P2PEarthquakeAPI[]::new}）
+     */
+    @Nonnull
+    public static <T> T[] decodeArray(@Nonnull Reader reader, @Nonnull TypeAdapter<T> adapter, @Nonnull IntFunction<T[]> generator) throws IOException {
+        List<T> list = new ArrayList<>();
+        try {
+            JsonReader json = new JsonReader(reader);
+            json.beginArray();
+            while (json.hasNext()) {
+                list.add(adapter.read(json));
+            }
+            json.endArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("P2P地震情報の解析に失敗しました", e);
+        }
+        return list.toArray(generator.apply(list.size()));
+    }
+
+    /**
+     * 複数の種類が混ざった履歴を、新しい順に読み込む関数。
+     * 既に処理したIDに到達した時点で読み込みを止めるため、それより古い情報はデコードされない。
+     * @param reader レスポンスの本文
+     * @param seen 既に処理したIDかどうかを判定する関数
+     * @return 新しい情報を、新しい順に返す
+     */
+    @Nonnull
+    public static List<P2PQuakeEntry> decodeHistory(@Nonnull Reader reader, @Nonnull Predicate<String> seen) throws IOException {
+        List<P2PQuakeEntry> entries = new ArrayList<>();
+        try {
+            JsonReader json = new JsonReader(reader);
+            json.beginArray();
+            while (json.hasNext()) {
+                P2PQuakeEntry entry = readEntry(json);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.getId() != null && seen.test(entry.getId())) {
+                    break;
+                }
+                entries.add(entry);
+            }
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException("P2P地震情報の解析に失敗しました", e);
+        }
+        return entries;
+    }
+
+    /**
+     * 1件の情報のJSONを、ツリーを作らずにコードに応じたクラスへデコードする関数
+     * @param reader 1件の情報のJSON
+     * @return 扱わないコードの場合はnull
+     */
+    @Nullable
+    public static P2PQuakeEntry decode(@Nonnull Reader reader) throws IOException {
+        try {
+            return readEntry(new JsonReader(reader));
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException("P2P地震情報の解析に失敗しました", e);
+        }
+    }
+
+    /**
+     * 1件の情報を読む。コードより前にある値（「_id」など）だけを覚えておき、
+     * コードが分かった時点で、覚えた値と残りの値をそのままTypeAdapterに読ませる。
+     * コードより前に入れ子の値がある場合だけ、残りをツリーにしてデコードする。
+     * @return 扱わないコードの場合はnull（オブジェクトは読み飛ばす）
+     */
+    @Nullable
+    private static P2PQuakeEntry readEntry(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        json.beginObject();
+        List<ResumedObjectReader.Field> leading = new ArrayList<>(4);
+        int code = -1;
+        while (json.hasNext()) {
+            String name = json.nextName();
+            JsonToken token = json.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                JsonObject object = new JsonObject();
+                for (ResumedObjectReader.Field field : leading) {
+                    object.add(field.getName(), field.toJsonElement());
+                }
+                object.add(name, JsonParser.parseReader(json));
+                while (json.hasNext()) {
+                    object.add(json.nextName(), JsonParser.parseReader(json));
+                }
+                json.endObject();
+                return decode(object);
+            }
+            ResumedObjectReader.Field field = ResumedObjectReader.Field.read(name, json);
+            leading.add(field);
+            if (name.equals("code")) {
+                code = field.getValue() == null ? -1 : Integer.parseInt(field.getValue());
+                break;
+            }
+        }
+        TypeAdapter<? extends DisasterAPI> adapter = code < 0 ? null : getAdapter(code);
+        if (adapter == null) {
+            while (json.hasNext()) {
+                json.nextName();
+                json.skipValue();
+            }
+            json.endObject();
+            return null;
+        }
+        DisasterAPI data = adapter.read(new ResumedObjectReader(json, leading));
+        return new P2PQuakeEntry(code, data.getId(), data.getTime(), data);
+    }
+
+    /**
+     * 1件の情報を、コードに応じたクラスへデコードする関数
+     * @return 扱わないコードの場合はnull
+     */
+    @Nullable
+    public static P2PQuakeEntry decode(@Nonnull JsonObject object) {
+        JsonElement code = object.get("code");
+        if (code == null) {
+            return null;
+        }
+        TypeAdapter<? extends DisasterAPI> adapter = getAdapter(code.getAsInt());
+        if (adapter == null) {
+            return null;
+        }
+        DisasterAPI data = adapter.fromJsonTree(object);
+        return new P2PQuakeEntry(code.getAsInt(), data.getId(), data.getTime(), data);
+    }
+}
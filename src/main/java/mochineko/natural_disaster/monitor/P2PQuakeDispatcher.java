@@ -0,0 +1,173 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.TypeAdapter;
+import mochineko.natural_disaster.api.DisasterAPI;
+import mochineko.natural_disaster.api.DisasterProvider;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.journal.EventJournal;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.relay.RelayNode;
+import mochineko.natural_disaster.status.DisasterType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * デコード済みのP2P地震情報を、{@link DisasterType} に登録された処理へ振り分けるクラスです。
+ * WebSocket・定期取得・気象庁防災情報XMLのすべてから使われます。
+ */
+public final class P2PQuakeDispatcher {
+
+    // 別の取得元から受け取った同じ情報とみなす、発表時刻の差の上限
+    private static final long SAME_EVENT_WINDOW_MILLIS = 3 * 60 * 1000;
+    // 起動時に、取得元をまたいだ重複の判定を復元する情報の古さの上限。
+    // 気象庁防災情報XMLは既定で10分以内の電文だけを扱うため、余裕を持たせている
+    private static final long REPLAY_KEYS_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * 記録（{@link EventJournal}）を開いたときに、処理済みの情報から状態を復元する処理。
+     * 津波予報は予報区ごとの状態（{@link TsunamiStateTracker}）に反映し、
+     * 最近の情報は取得元をまたいだ重複の判定（{@link SeenEventIndex}）に登録する。
+     */
+    public static final EventJournal.Replay REPLAY = new EventJournal.Replay() {
+        @Override
+        public boolean wants(int code, long receivedMillis) {
+            return code == DisasterType.TSUNAMI.getCode() || receivedMillis >= System.currentTimeMillis() - REPLAY_KEYS_MILLIS;
+        }
+
+        @Override
+        public void accept(@Nonnull P2PQuakeEntry entry) {
+            DisasterType type = DisasterType.fromCode(entry.getCode());
+            if (type == null) {
+                return;
+            }
+            String key = eventKey(type.getProvider(), entry.getData());
+            if (key != null) {
+                SeenEventIndex.markSeen(type.getLabel() + ":" + key, timeMillis(entry.getData()), SAME_EVENT_WINDOW_MILLIS);
+            }
+            if (entry.getData() instanceof P2PTsunamiAPI) {
+                TsunamiStateTracker.apply((P2PTsunamiAPI) entry.getData());
+            }
+        }
+    };
+
+    private static final Map<Integer, P2PQuakeEntry> latest = new ConcurrentHashMap<>();
+
+    private P2PQuakeDispatcher() {
+    }
+
+    /**
+     * 1件の情報を、種類に対応する {@link DisasterProvider} へ渡す関数。
+     * 既に処理したIDの情報は {@link SeenEventIndex} で除外される。
+     * @param entry デコード済みの情報
+     * @param source 情報を受け取った方法
+     * @return 通知した場合はtrue
+     */
+    public static boolean dispatch(@Nonnull P2PQuakeEntry entry, @Nonnull AlertLatency.Source source) {
+        DisasterType type = DisasterType.fromCode(entry.getCode());
+        if (type == null) {
+            return false;
+        }
+        if (entry.getId() != null && !SeenEventIndex.markSeen(entry.getId())) {
+            Metrics.DUPLICATES.get(source.getLabel()).increment();
+            return false;
+        }
+        // 別の取得元から同じ情報を受け取っている場合
+        String key = eventKey(type.getProvider(), entry.getData());
+        if (key != null && !SeenEventIndex.markSeen(type.getLabel() + ":" + key, timeMillis(entry.getData()), SAME_EVENT_WINDOW_MILLIS)) {
+            Metrics.DUPLICATES.get(source.getLabel()).increment();
+            return false;
+        }
+        Metrics.EVENTS.get(type.getLabel()).increment();
+        latest.put(entry.getCode(), entry);
+        EventJournal.append(entry);
+        // 中継の取得役の場合は、受信役にも送る
+        RelayNode.publish(entry);
+        boolean delivered = deliver(type.getProvider(), entry.getData());
+        if (delivered) {
+            Metrics.ALERTS.get(type.getLabel()).increment();
+            AlertLatency.record(source, entry.getTime());
+        }
+        return delivered;
+    }
+
+    @Nullable
+    private static <T extends DisasterAPI> String eventKey(DisasterProvider<T> provider, DisasterAPI data) {
+        return provider.getEventKey(provider.getDataClass().cast(data));
+    }
+
+    private static long timeMillis(DisasterAPI data) {
+        ZonedDateTime time = data.getZonedDateTime();
+        return time == null ? System.currentTimeMillis() : time.toInstant().toEpochMilli();
+    }
+
+    private static <T extends DisasterAPI> boolean deliver(DisasterProvider<T> provider, DisasterAPI data) {
+        T api = provider.getDataClass().cast(data);
+        if (!provider.handle(api)) {
+            return false;
+        }
+        provider.onDelivered(api);
+        return true;
+    }
+
+    /**
+     * 最新の情報を新しい順に取得する関数。
+     * 記録（{@link EventJournal}）に情報がある場合は、通信せずに記録から返す。
+     * 取得に失敗した場合は、最後に受け取った情報だけを返す。
+     * @param type 情報の種類
+     * @param dataClass 情報のクラス（例：{@code P2PEarthquakeAPI.class}）
+     * @param limit 取得する件数
+     * @throws IOException 取得に失敗し、まだ1件も受け取っていない場合
+     */
+    @Nonnull
+    public static <T extends DisasterAPI> T[] getHistory(@Nonnull DisasterType type, @Nonnull Class<T> dataClass, int limit) throws IOException {
+        @SuppressWarnings("unchecked")
+        IntFunction<T[]> generator = size -> (T[]) Array.newInstance(dataClass, size);
+        List<P2PQuakeEntry> history = EventJournal.query(type.getCode(), limit);
+        if (!history.isEmpty()) {
+            T[] apis = generator.apply(history.size());
+            for (int i = 0; i < apis.length; i++) {
+                apis[i] = dataClass.cast(history.get(i).getData());
+            }
+            return apis;
+        }
+        try {
+            TypeAdapter<T> adapter = P2PQuakeDecoder.GSON.getAdapter(dataClass);
+            return P2PQuakeClient.fetchHistory(limit, List.of(type.getCode()),
+                    reader -> P2PQuakeDecoder.decodeArray(reader, adapter, generator));
+        } catch (IOException e) {
+            P2PQuakeEntry entry = getLatest(type.getCode());
+            if (entry == null) {
+                throw e;
+            }
+            T[] apis = generator.apply(1);
+            apis[0] = dataClass.cast(entry.getData());
+            return apis;
+        }
+    }
+
+    /**
+     * 最後に受け取った情報を返す関数。
+     * 取得に失敗している間も、最後に取得できた情報を使い続けられる。
+     * @param code 情報のコード（例：551）
+     * @return まだ受け取っていない場合はnull
+     */
+    @Nullable
+    public static P2PQuakeEntry getLatest(int code) {
+        return latest.get(code);
+    }
+
+    /**
+     * 記録から復元した情報を、最後に受け取った情報として登録する関数。通知は行わない。
+     */
+    public static void restore(@Nonnull P2PQuakeEntry entry) {
+        latest.put(entry.getCode(), entry);
+    }
+}
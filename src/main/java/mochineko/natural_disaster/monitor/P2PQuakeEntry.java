@@ -0,0 +1,59 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.api.DisasterAPI;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * デコード済みのP2P地震情報の1件を表すクラスです。
+ * コードに応じて、{@link #getData()} は {@link mochineko.natural_disaster.status.DisasterType} に登録された各APIのクラスになります。
+ */
+public final class P2PQuakeEntry {
+
+    private final int code;
+    private final String id;
+    private final String time;
+    private final DisasterAPI data;
+
+    public P2PQuakeEntry(int code, @Nullable String id, @Nullable String time, @Nonnull DisasterAPI data) {
+        this.code = code;
+        this.id = id;
+        this.time = time;
+        this.data = data;
+    }
+
+    /**
+     * 情報のコードを返す関数
+     * @return （例：551）
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * P2P地震情報での情報のIDを返す関数
+     */
+    @Nullable
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 情報の発表時刻を返す関数
+     * @return yyyy/MM/dd HH:mm:ss.SSS で返す。
+     */
+    @Nullable
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * デコードされた情報を返す関数
+     * @return コードが551の場合は {@link mochineko.natural_disaster.api.P2PEarthquakeAPI} など
+     */
+    @Nonnull
+    public DisasterAPI getData() {
+        return data;
+    }
+}
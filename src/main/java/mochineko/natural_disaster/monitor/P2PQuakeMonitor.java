@@ -0,0 +1,143 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.status.DisasterType;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * P2P地震情報の定期取得を行うクラスです。
+ * 監視しているすべてのコードを1回のリクエストでまとめて取得し、まだ処理していない情報をすべて古い順に振り分けます。
+ * 1回で処理済みの情報までたどり着けない場合は、続きのページも取得します。
+ * WebSocketに接続している間は取得を行いません。
+ * 取得の間隔は {@link AdaptivePollScheduler} が地震活動に合わせて決めます。
+ */
+public final class P2PQuakeMonitor {
+
+    // 1回の取得で続けて取得するページの数の上限
+    private static final int MAX_PAGES = 5;
+
+    private static final Set<Integer> codes = new HashSet<>();
+    private static DisasterExecutor.RepeatingTask task;
+    private static int limit = 10;
+    private static volatile AdaptivePollScheduler scheduler = new AdaptivePollScheduler(new MemoryConfiguration());
+
+    private P2PQuakeMonitor() {
+    }
+
+    /**
+     * 定期取得の設定を読み込む関数
+     * @param section config.ymlの「polling」セクション
+     */
+    public static synchronized void configure(@Nonnull ConfigurationSection section) {
+        limit = Math.max(1, Math.min(100, section.getInt("limit", 10)));
+        scheduler = new AdaptivePollScheduler(section);
+        SeenEventIndex.setCapacity(section.getInt("seen-index-size", 4096));
+    }
+
+    /**
+     * 指定した種類を監視の対象に加える関数。
+     * 最初に呼ばれたときに定期取得を開始する。2回目以降は、同じリクエストで取得するコードが増えるだけになる。
+     */
+    public static synchronized void enable(@Nonnull DisasterType type) {
+        codes.add(type.getCode());
+        if (task == null) {
+            task = DisasterExecutor.get().scheduleRepeating("P2P地震情報", P2PQuakeMonitor::poll, 0L,
+                    () -> scheduler.nextDelay(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 定期取得を停止する関数
+     */
+    public static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        codes.clear();
+    }
+
+    private static void poll() {
+        if (P2PQuakeWebSocket.isConnected()) {
+            return;
+        }
+        Set<Integer> targets;
+        synchronized (P2PQuakeMonitor.class) {
+            targets = new HashSet<>(codes);
+        }
+        AdaptivePollScheduler current = scheduler;
+        int pageSize = limit;
+        List<P2PQuakeEntry> entries = new ArrayList<>();
+        try {
+            for (int page = 0; ; page++) {
+                current.recordRequest(System.currentTimeMillis());
+                List<P2PQuakeEntry> fetched = P2PQuakeClient.fetchHistory(pageSize, page * pageSize, targets,
+                        reader -> P2PQuakeDecoder.decodeHistory(reader, SeenEventIndex::contains));
+                entries.addAll(fetched);
+                // 処理済みの情報で止まった場合や、履歴の終わりに達した場合
+                if (fetched.size() < pageSize) {
+                    break;
+                }
+                // まだ何も処理していない場合（初回）は、古い情報をさかのぼらない
+                if (SeenEventIndex.size() == 0) {
+                    break;
+                }
+                if (page + 1 >= MAX_PAGES) {
+                    Metrics.MISSED.get(P2PQuakeClient.SOURCE).increment();
+                    Bukkit.getLogger().warning("P2P地震情報の定期取得で、新しい情報が" + entries.size()
+                            + "件を超えたため、それより古い情報を取りこぼした可能性があります。");
+                    break;
+                }
+            }
+        } catch (CircuitBreaker.OpenException e) {
+            return;
+        } catch (RetryAfterException e) {
+            current.onRetryAfter(System.currentTimeMillis(), e.getRetryAfterMillis());
+            Bukkit.getLogger().warning(e.getMessage() + "（" + e.getRetryAfterMillis() / 1000 + "秒後に再取得します）");
+            return;
+        } catch (IOException e) {
+            // 失敗は CircuitBreaker に記録され、状態が変わったときだけログに出力される
+            return;
+        }
+
+        // 履歴は新しい順に並んでいるため、古い順に戻してから処理する
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            P2PQuakeEntry entry = entries.get(i);
+            if (targets.contains(entry.getCode())) {
+                P2PQuakeDispatcher.dispatch(entry, AlertLatency.Source.POLLING);
+            }
+        }
+    }
+
+    /**
+     * 緊急地震速報を通知したときに呼ぶ関数。しばらくの間、短い間隔で取得する。
+     */
+    public static void onEEW() {
+        scheduler.onEEW(System.currentTimeMillis());
+    }
+
+    /**
+     * 地震情報を通知したときに呼ぶ関数。最大震度が大きい場合は、余震に備えてしばらく短い間隔で取得する。
+     * @param maxScale P2P地震情報の最大震度（例：45）
+     */
+    public static void onEarthquake(int maxScale) {
+        scheduler.onEarthquake(System.currentTimeMillis(), maxScale);
+    }
+
+    /**
+     * 津波予報を通知したときに呼ぶ関数
+     * @param active 津波注意報以上が発表されている場合はtrue
+     */
+    public static void onTsunami(boolean active) {
+        scheduler.onTsunami(System.currentTimeMillis(), active);
+    }
+}
@@ -0,0 +1,207 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.status.DisasterType;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * P2P地震情報のWebSocketから、情報を受信するクラスです。
+ * 受信した情報は、扱うコードのものだけを受信した順に {@link P2PQuakeDispatcher} で各APIへ渡します。
+ * 接続中は定期取得が止まり、切断された場合は自動で再接続します。
+ */
+public final class P2PQuakeWebSocket implements WebSocket.Listener {
+
+    /**
+     * 計測値（{@link Metrics}）での取得元の名前
+     */
+    public static final String SOURCE = "p2pquake-websocket";
+
+    private static P2PQuakeWebSocket instance;
+
+    private final URI uri;
+    private final long maxReconnectSeconds;
+    private final HttpClient client;
+    private final StringBuilder frame = new StringBuilder();
+    private volatile WebSocket socket;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private int attempts;
+    private boolean reconnectPending;
+
+    private P2PQuakeWebSocket(URI uri, long maxReconnectSeconds) {
+        this.uri = uri;
+        this.maxReconnectSeconds = maxReconnectSeconds;
+        // 定期取得と同じHttpClientを使い、スレッドや接続を増やさない
+        this.client = P2PQuakeClient.getHttpClient();
+    }
+
+    /**
+     * WebSocketでの受信を開始する関数
+     * @param section config.ymlの「websocket」セクション
+     */
+    public static synchronized void start(@Nonnull ConfigurationSection section) {
+        if (instance != null || !section.getBoolean("enabled", true)) {
+            return;
+        }
+        instance = new P2PQuakeWebSocket(
+                URI.create(section.getString("url", "wss://api.p2pquake.net/v2/ws")),
+                Math.max(1, section.getLong("reconnect-max-seconds", 60)));
+        instance.connect();
+    }
+
+    /**
+     * WebSocketでの受信を停止する関数
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.closed = true;
+            instance.connected = false;
+            WebSocket socket = instance.socket;
+            if (socket != null) {
+                socket.abort();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * WebSocketに接続しているかを返す関数。
+     * 接続している間は、定期取得を行わない。
+     */
+    public static boolean isConnected() {
+        P2PQuakeWebSocket current = instance;
+        return current != null && current.connected;
+    }
+
+    private void connect() {
+        synchronized (this) {
+            reconnectPending = false;
+        }
+        if (closed) {
+            return;
+        }
+        client.newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .buildAsync(uri, this)
+                .whenComplete((webSocket, error) -> {
+                    if (error != null) {
+                        scheduleReconnect("接続に失敗しました：" + error.getMessage());
+                    }
+                });
+    }
+
+    private synchronized void scheduleReconnect(String reason) {
+        connected = false;
+        socket = null;
+        if (closed || reconnectPending) {
+            return;
+        }
+        reconnectPending = true;
+        long delay = Math.min(maxReconnectSeconds, 1L << Math.min(attempts, 6));
+        long jitter = ThreadLocalRandom.current().nextLong(delay * 250 + 1);
+        attempts++;
+        Bukkit.getLogger().warning("P2P地震情報のWebSocketが切断されました（" + reason + "）。" + delay + "秒後に再接続します。定期取得に切り替えます。");
+        DisasterExecutor.get().schedule(this::connect, delay * 1000 + jitter, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        // 停止・再読み込みの後に接続が完了した場合は、新しい接続と二重に受信しないように閉じる
+        if (closed) {
+            webSocket.abort();
+            return;
+        }
+        socket = webSocket;
+        connected = true;
+        attempts = 0;
+        Bukkit.getLogger().info("P2P地震情報のWebSocketに接続しました。");
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        frame.append(data);
+        if (last) {
+            String text = frame.toString();
+            frame.setLength(0);
+            Metrics.BYTES.get(SOURCE).add(utf8Length(text));
+            // 扱わないコード（ピア数・地震感知情報など）は、キューに入れずに捨てる
+            if (isHandled(text)) {
+                DisasterExecutor.get().executeInOrder("WebSocketで受信した情報", () -> dispatch(text));
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        scheduleReconnect("コード：" + statusCode);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        scheduleReconnect(String.valueOf(error.getMessage()));
+    }
+
+    /**
+     * 受信した1件の情報が、処理するコードのものかを返す関数。
+     * コードを読めない場合は、デコードで確かめるためtrueを返す
+     * @param text 受信したJSON
+     */
+    public static boolean isHandled(@Nonnull String text) {
+        int code = P2PQuakeDecoder.peekCode(text);
+        return code < 0 || DisasterType.fromCode(code) != null;
+    }
+
+    /**
+     * UTF-8での長さを、文字列を変換せずに数える
+     */
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 受信した1件の情報を、コードごとの処理へ振り分ける関数
+     * @param text 受信したJSON
+     */
+    public static void dispatch(@Nonnull String text) {
+        P2PQuakeEntry entry;
+        try {
+            entry = P2PQuakeDecoder.decode(new StringReader(text));
+        } catch (IOException e) {
+            Bukkit.getLogger().warning("P2P地震情報のWebSocketから不正なデータを受信しました：" + e.getMessage());
+            return;
+        }
+        if (entry != null) {
+            P2PQuakeDispatcher.dispatch(entry, AlertLatency.Source.WEBSOCKET);
+        }
+    }
+}
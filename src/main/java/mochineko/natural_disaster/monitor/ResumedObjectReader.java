@@ -0,0 +1,269 @@
+package mochineko.natural_disaster.monitor;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * 途中まで読んだJSONのオブジェクトを、最初から読み直せるようにするJsonReaderです。
+ * {@link P2PQuakeDecoder} がコードを探すために先に読んだ値（文字列・数値・真偽値・null）を先に返し、
+ * その後は元のJsonReaderの続きをそのまま返すため、オブジェクト全体をツリーにせずにTypeAdapterで読めます。
+ */
+final class ResumedObjectReader extends JsonReader {
+
+    private static final Reader UNUSED = Reader.nullReader();
+
+    private final JsonReader delegate;
+    private final List<Field> fields;
+    private boolean started;
+    private int index;
+    private boolean valuePending;
+
+    /**
+     * @param delegate オブジェクトの「{」と、fieldsの値までを読んだJsonReader
+     * @param fields 先に読んだ値
+     */
+    ResumedObjectReader(@Nonnull JsonReader delegate, @Nonnull List<Field> fields) {
+        super(UNUSED);
+        this.delegate = delegate;
+        this.fields = fields;
+    }
+
+    private boolean replaying() {
+        return started && index < fields.size();
+    }
+
+    private Field value() throws IOException {
+        if (!valuePending) {
+            throw new IllegalStateException("Expected a name but was " + peek() + " at " + getPath());
+        }
+        Field field = fields.get(index++);
+        valuePending = false;
+        return field;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (!started) {
+            return JsonToken.BEGIN_OBJECT;
+        }
+        if (replaying()) {
+            return valuePending ? fields.get(index).token : JsonToken.NAME;
+        }
+        return delegate.peek();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        if (!started) {
+            started = true;
+            return;
+        }
+        if (replaying()) {
+            throw new IllegalStateException("Expected BEGIN_OBJECT but was " + peek() + " at " + getPath());
+        }
+        delegate.beginObject();
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        if (replaying()) {
+            throw new IllegalStateException("Expected END_OBJECT but was " + peek() + " at " + getPath());
+        }
+        delegate.endObject();
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        if (replaying()) {
+            throw new IllegalStateException("Expected BEGIN_ARRAY but was " + peek() + " at " + getPath());
+        }
+        delegate.beginArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        if (replaying()) {
+            throw new IllegalStateException("Expected END_ARRAY but was " + peek() + " at " + getPath());
+        }
+        delegate.endArray();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return replaying() || delegate.hasNext();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        if (replaying()) {
+            if (valuePending) {
+                throw new IllegalStateException("Expected a value but was NAME at " + getPath());
+            }
+            valuePending = true;
+            return fields.get(index).name;
+        }
+        return delegate.nextName();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        if (replaying()) {
+            Field field = value();
+            if (field.value == null) {
+                throw new IllegalStateException("Expected a string but was NULL at " + getPath());
+            }
+            return field.value;
+        }
+        return delegate.nextString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        if (replaying()) {
+            Field field = value();
+            if (field.token != JsonToken.BOOLEAN) {
+                throw new IllegalStateException("Expected a boolean but was " + field.token + " at " + getPath());
+            }
+            return Boolean.parseBoolean(field.value);
+        }
+        return delegate.nextBoolean();
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        if (replaying()) {
+            Field field = value();
+            if (field.token != JsonToken.NULL) {
+                throw new IllegalStateException("Expected null but was " + field.token + " at " + getPath());
+            }
+            return;
+        }
+        delegate.nextNull();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        return replaying() ? Double.parseDouble(nextString()) : delegate.nextDouble();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        return replaying() ? Long.parseLong(nextString()) : delegate.nextLong();
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        return replaying() ? Integer.parseInt(nextString()) : delegate.nextInt();
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        if (replaying()) {
+            if (valuePending) {
+                value();
+            } else {
+                valuePending = true;
+            }
+            return;
+        }
+        delegate.skipValue();
+    }
+
+    @Override
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    @Override
+    public String getPreviousPath() {
+        return delegate.getPreviousPath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + delegate.toString();
+    }
+
+    /**
+     * 先に読んだ、入れ子でない1つの値です。
+     */
+    static final class Field {
+        private final String name;
+        private final JsonToken token;
+        @Nullable
+        private final String value;
+
+        private Field(String name, JsonToken token, @Nullable String value) {
+            this.name = name;
+            this.token = token;
+            this.value = value;
+        }
+
+        /**
+         * JsonReaderから、入れ子でない値を1つ読む関数
+         * @param name 読んだ値の名前
+         */
+        @Nonnull
+        static Field read(@Nonnull String name, @Nonnull JsonReader json) throws IOException {
+            JsonToken token = json.peek();
+            switch (token) {
+                case NULL:
+                    json.nextNull();
+                    return new Field(name, token, null);
+                case BOOLEAN:
+                    return new Field(name, token, String.valueOf(json.nextBoolean()));
+                case STRING:
+                case NUMBER:
+                    return new Field(name, token, json.nextString());
+                default:
+                    throw new IllegalStateException("Expected a primitive but was " + token + " at " + json.getPath());
+            }
+        }
+
+        @Nonnull
+        String getName() {
+            return name;
+        }
+
+        /**
+         * 値を文字列で返す関数
+         * @return nullの場合はnull
+         */
+        @Nullable
+        String getValue() {
+            return value;
+        }
+
+        /**
+         * ツリーにする場合の値を返す関数
+         */
+        @Nonnull
+        JsonElement toJsonElement() {
+            switch (token) {
+                case BOOLEAN:
+                    return new JsonPrimitive(Boolean.parseBoolean(value));
+                case NUMBER:
+                    return JsonParser.parseString(value);
+                case STRING:
+                    return new JsonPrimitive(value);
+                default:
+                    return JsonNull.INSTANCE;
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package mochineko.natural_disaster.monitor;
+
+import java.io.IOException;
+
+/**
+ * 取得先から、時間を空けて再度取得するよう指示された場合の例外です。
+ * HTTP 429・503 の「Retry-After」を表します。
+ */
+public class RetryAfterException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public RetryAfterException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * 次に取得してよいまでの時間を返す関数
+     * @return ミリ秒で返す
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,88 @@
+package mochineko.natural_disaster.monitor;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 処理済みの情報のIDを記録するクラスです。
+ * 地震情報・津波予報・緊急地震速報のすべてで共有され、WebSocketと定期取得の重複も防ぎます。
+ * 上限を超えた場合は古いIDから削除されるため、長時間動かしてもメモリは増え続けません。
+ */
+public final class SeenEventIndex {
+
+    private static int capacity = 4096;
+
+    private static final Map<String, Boolean> seen = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    // 取得元をまたいだ同じ情報の判定に使う値と、その情報の発表時刻（エポックミリ秒）
+    private static final Map<String, Long> keys = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private SeenEventIndex() {
+    }
+
+    /**
+     * 記録するIDの上限を設定する関数
+     */
+    public static synchronized void setCapacity(int capacity) {
+        SeenEventIndex.capacity = Math.max(16, capacity);
+    }
+
+    /**
+     * 処理済みのIDかどうかを返す関数
+     */
+    public static synchronized boolean contains(@Nonnull String id) {
+        return seen.containsKey(id);
+    }
+
+    /**
+     * IDを処理済みとして記録する関数
+     * @return まだ記録されていなかった場合はtrue
+     */
+    public static synchronized boolean markSeen(@Nonnull String id) {
+        return seen.putIfAbsent(id, Boolean.TRUE) == null;
+    }
+
+    /**
+     * 取得元をまたいだ同じ情報の判定に使う値を、発表時刻とともに記録する関数。
+     * 同じ値でも、記録した発表時刻と離れている場合は別の情報とみなす。
+     * @param key {@link mochineko.natural_disaster.api.DisasterProvider#getEventKey} の値
+     * @param timeMillis 情報の発表時刻（エポックミリ秒）
+     * @param windowMillis 同じ情報とみなす発表時刻の差の上限（ミリ秒）
+     * @return 同じ情報をまだ記録していなかった場合はtrue
+     */
+    public static synchronized boolean markSeen(@Nonnull String key, long timeMillis, long windowMillis) {
+        Long previous = keys.get(key);
+        if (previous != null && Math.abs(previous - timeMillis) <= windowMillis) {
+            return false;
+        }
+        keys.remove(key);
+        keys.put(key, timeMillis);
+        return true;
+    }
+
+    /**
+     * 記録しているIDの数を返す関数
+     */
+    public static synchronized int size() {
+        return seen.size();
+    }
+
+    /**
+     * 記録をすべて消す関数
+     */
+    public static synchronized void clear() {
+        seen.clear();
+        keys.clear();
+    }
+}
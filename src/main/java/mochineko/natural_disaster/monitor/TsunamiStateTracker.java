@@ -0,0 +1,216 @@
+package mochineko.natural_disaster.monitor;
+
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.status.TsunamiGrade;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 津波予報区ごとの現在の状態を保持し、新しい津波予報との差分だけを取り出すクラスです。
+ * 津波予報は発表のたびにすべての予報区を含むため、前回の状態と比べて
+ * 新たに発表された予報区・等級の引き上げ/引き下げ・「ただちに来襲」・第一波の状況の変化・解除だけを通知に使います。
+ * P2P地震情報と気象庁防災情報XMLの両方の情報を反映するため、どちらにも含まれる津波注意報以上の予報区だけを扱います。
+ */
+public final class TsunamiStateTracker {
+
+    /**
+     * 予報区の変化の種類。通知で表示する順に並んでいる
+     */
+    public enum Kind {
+        /**
+         * 新たに発表された
+         */
+        NEW,
+        /**
+         * 等級が引き上げられた
+         */
+        UPGRADE,
+        /**
+         * 「ただちに津波来襲と予測」に変わった
+         */
+        IMMEDIATE,
+        /**
+         * 第一波の状況が変わった
+         */
+        CONDITION,
+        /**
+         * 等級が引き下げられた
+         */
+        DOWNGRADE,
+        /**
+         * 解除された
+         */
+        CANCELLED
+    }
+
+    // 予報区名から状態へ。handleの同期の中からのみ触る
+    private static final Map<String, AreaState> states = new HashMap<>();
+    @Nullable
+    private static Instant lastIssued;
+
+    private TsunamiStateTracker() {
+    }
+
+    /**
+     * 津波予報を現在の状態に反映し、変化した予報区を返す関数。
+     * 発表時刻が前回より古い情報は、状態に反映せず変化なしとする。
+     * @return 変化が無い場合は空のリスト
+     */
+    @Nonnull
+    public static synchronized List<Change> apply(@Nonnull P2PTsunamiAPI api) {
+        Instant issued = api.getTime() == null ? null : api.getInstant();
+        if (issued != null && lastIssued != null && issued.isBefore(lastIssued)) {
+            return Collections.emptyList();
+        }
+        if (issued != null) {
+            lastIssued = issued;
+        }
+
+        List<Change> changes = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        if (!api.isCancelled() && api.getArea() != null) {
+            for (P2PTsunamiAPI.Area area : api.getArea()) {
+                TsunamiGrade grade = area.getGradeType();
+                // 取得元によって含まれるかが違う等級（不明など）は、取得元が変わるたびに発表・解除を繰り返さないように除く
+                if (area.getName() == null || grade.toP2PAPI() == null || !present.add(area.getName())) {
+                    continue;
+                }
+                String condition = area.getFirstHeight() == null ? null : area.getFirstHeight().getCondition();
+                AreaState previous = states.get(area.getName());
+                if (previous == null) {
+                    states.put(area.getName(), new AreaState(grade, area.isImmediate(), condition));
+                    changes.add(new Change(Kind.NEW, area, grade, null));
+                    continue;
+                }
+                if (previous.grade != grade) {
+                    // 列挙型は重い順に並んでいる
+                    boolean upgrade = grade.ordinal() < previous.grade.ordinal();
+                    changes.add(new Change(upgrade ? Kind.UPGRADE : Kind.DOWNGRADE, area, grade, previous.grade));
+                } else if (area.isImmediate() && !previous.immediate) {
+                    changes.add(new Change(Kind.IMMEDIATE, area, grade, previous.grade));
+                } else if (!Objects.equals(previous.condition, condition) && condition != null) {
+                    changes.add(new Change(Kind.CONDITION, area, grade, previous.grade));
+                }
+                previous.grade = grade;
+                previous.immediate = area.isImmediate();
+                previous.condition = condition;
+            }
+        }
+        // 今回の情報に含まれない予報区は解除されたものとする
+        if (present.size() < states.size() || api.isCancelled()) {
+            for (Iterator<Map.Entry<String, AreaState>> iterator = states.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, AreaState> entry = iterator.next();
+                if (!present.contains(entry.getKey())) {
+                    changes.add(new Change(Kind.CANCELLED, entry.getKey(), entry.getValue().grade, entry.getValue().grade, null));
+                    iterator.remove();
+                }
+            }
+        }
+        changes.sort((a, b) -> a.kind.compareTo(b.kind));
+        return changes;
+    }
+
+    /**
+     * 発表中の予報区の数を返す関数
+     */
+    public static synchronized int getActiveCount() {
+        return states.size();
+    }
+
+    /**
+     * 状態を空にする関数。再生を始めるときなどに使う
+     */
+    public static synchronized void reset() {
+        states.clear();
+        lastIssued = null;
+    }
+
+    private static final class AreaState {
+        private TsunamiGrade grade;
+        private boolean immediate;
+        @Nullable
+        private String condition;
+
+        private AreaState(TsunamiGrade grade, boolean immediate, @Nullable String condition) {
+            this.grade = grade;
+            this.immediate = immediate;
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * 1つの予報区の変化です。
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final String name;
+        private final TsunamiGrade grade;
+        @Nullable
+        private final TsunamiGrade previous;
+        @Nullable
+        private final String condition;
+
+        private Change(Kind kind, P2PTsunamiAPI.Area area, TsunamiGrade grade, @Nullable TsunamiGrade previous) {
+            this(kind, area.getName(), grade, previous, area.getFirstHeight() == null ? null : area.getFirstHeight().getCondition());
+        }
+
+        private Change(Kind kind, String name, TsunamiGrade grade, @Nullable TsunamiGrade previous, @Nullable String condition) {
+            this.kind = kind;
+            this.name = name;
+            this.grade = grade;
+            this.previous = previous;
+            this.condition = condition;
+        }
+
+        @Nonnull
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * 津波予報区の名前を返す関数
+         */
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 変化した後の等級を返す関数
+         * @return 解除の場合は、解除される前の等級
+         */
+        @Nonnull
+        public TsunamiGrade getGrade() {
+            return grade;
+        }
+
+        /**
+         * 変化する前の等級を返す関数
+         * @return 新たに発表された場合はnull
+         */
+        @Nullable
+        public TsunamiGrade getPrevious() {
+            return previous;
+        }
+
+        /**
+         * 第一波の状況を返す関数
+         * @return 状況が無い場合や、解除の場合はnull
+         */
+        @Nullable
+        public String getCondition() {
+            return condition;
+        }
+    }
+}
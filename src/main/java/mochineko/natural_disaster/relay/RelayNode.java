@@ -0,0 +1,488 @@
+package mochineko.natural_disaster.relay;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.AlertLatency;
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import mochineko.natural_disaster.monitor.P2PQuakeDecoder;
+import mochineko.natural_disaster.monitor.P2PQuakeDispatcher;
+import mochineko.natural_disaster.monitor.P2PQuakeEntry;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数のサーバーで、取得を1台にまとめるための中継です。
+ * 「nodes」に並べたサーバーのうち、動いている中で最も先頭にあるものが取得役になり、
+ * デコード済みの情報をTCPで他のサーバー（受信役）へ送ります。受信役は通信を行わず、受け取った情報を通知するだけです。
+ * 取得役からの送信が途切れると受信役は取得役を選び直し、先頭に近いサーバーが戻ってくると取得役はそちらに譲ります。
+ * 情報はIDで重複を除外するため、取得役が切り替わる間に同じ情報を2回受け取っても2回通知されることはありません。
+ */
+public final class RelayNode {
+
+    /**
+     * 中継での役割
+     */
+    public enum Role {
+        ELECTING("選出中"),
+        LEADER("取得役"),
+        FOLLOWER("受信役");
+
+        private final String name;
+
+        Role(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * 計測値（{@link Metrics}）での取得元の名前
+     */
+    public static final String SOURCE = "relay";
+
+    // config.ymlに同梱している合言葉。このままでは中継を使わない
+    private static final String DEFAULT_SECRET = "change-me";
+
+    private static volatile RelayNode instance;
+
+    private final List<InetSocketAddress> nodes;
+    private final int index;
+    private final byte[] secret;
+    private final int heartbeatMillis;
+    private final long probeMillis;
+    private final Runnable onLeader;
+    private final Runnable onFollower;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private volatile Role role = Role.ELECTING;
+    private volatile String leader;
+    private volatile boolean closed;
+    private volatile Socket leaderSocket;
+    private ServerSocket server;
+    private Thread election;
+
+    private RelayNode(List<InetSocketAddress> nodes, int index, byte[] secret, int heartbeatMillis, long probeMillis,
+                      Runnable onLeader, Runnable onFollower) {
+        this.nodes = nodes;
+        this.index = index;
+        this.secret = secret;
+        this.heartbeatMillis = heartbeatMillis;
+        this.probeMillis = probeMillis;
+        this.onLeader = onLeader;
+        this.onFollower = onFollower;
+    }
+
+    /**
+     * 中継を開始する関数。取得役になったかどうかは、渡した関数で通知される。
+     * 中継を使わない設定の場合や、待ち受けを開始できなかった場合は、すぐに取得役として onLeader を呼ぶ。
+     * @param section config.ymlの「relay」セクション
+     * @param onLeader 取得役になったときに呼ばれる関数（取得を開始する）
+     * @param onFollower 受信役になったときに呼ばれる関数（取得を停止する）
+     */
+    public static synchronized void start(@Nonnull ConfigurationSection section, @Nonnull Runnable onLeader, @Nonnull Runnable onFollower) {
+        if (instance != null) {
+            return;
+        }
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String node : section.getStringList("nodes")) {
+            int colon = node.lastIndexOf(':');
+            try {
+                nodes.add(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                Bukkit.getLogger().warning("中継のサーバーのアドレスが正しくありません：" + node);
+            }
+        }
+        int index = section.getInt("node-index", 0);
+        if (!section.getBoolean("enabled", false) || index < 0 || index >= nodes.size()) {
+            if (section.getBoolean("enabled", false)) {
+                Bukkit.getLogger().warning("中継の「node-index」が「nodes」の範囲外のため、中継を使わずに取得します。");
+            }
+            onLeader.run();
+            return;
+        }
+        String secret = section.getString("secret", "");
+        if (secret == null || secret.isBlank() || secret.equals(DEFAULT_SECRET)) {
+            // 同梱の合言葉のままでは、どのサーバーも同じ鍵になり、取得役の確認が意味をなさない
+            Bukkit.getLogger().warning("中継の「secret」が設定されていないため、中継を使わずに取得します。すべてのサーバーで同じ、推測されにくい合言葉を設定してください。");
+            onLeader.run();
+            return;
+        }
+        RelayNode node = new RelayNode(nodes, index, hash(secret),
+                (int) Math.max(500, section.getLong("heartbeat-millis", 2000)),
+                Math.max(1, section.getLong("probe-seconds", 10)) * 1000L,
+                onLeader, onFollower);
+        try {
+            node.open();
+        } catch (IOException e) {
+            Bukkit.getLogger().warning("中継の待ち受けを開始できませんでした（" + e.getMessage() + "）。中継を使わずに取得します。");
+            onLeader.run();
+            return;
+        }
+        instance = node;
+    }
+
+    /**
+     * 中継を停止する関数
+     */
+    public static synchronized void stop() {
+        RelayNode node = instance;
+        if (node != null) {
+            instance = null;
+            node.close();
+        }
+    }
+
+    /**
+     * 中継での役割を返す関数
+     * @return 中継を使っていない場合はnull
+     */
+    @Nullable
+    public static Role getRole() {
+        RelayNode node = instance;
+        return node == null ? null : node.role;
+    }
+
+    /**
+     * 取得役のアドレスを返す関数
+     * @return 中継を使っていない場合・選出中の場合はnull
+     */
+    @Nullable
+    public static String getLeader() {
+        RelayNode node = instance;
+        return node == null ? null : node.leader;
+    }
+
+    /**
+     * 接続している受信役の数を返す関数
+     */
+    public static int getFollowerCount() {
+        RelayNode node = instance;
+        return node == null ? 0 : node.followers.size();
+    }
+
+    /**
+     * 新しい情報を受信役へ送る関数。取得役のときだけ送る。
+     * 情報は1回だけ変換し、すべての受信役で同じものを使い回す。
+     */
+    public static void publish(@Nonnull P2PQuakeEntry entry) {
+        RelayNode node = instance;
+        if (node == null || node.role != Role.LEADER || node.followers.isEmpty()) {
+            return;
+        }
+        byte[] frame = RelayProtocol.encodeEvent(entry.getCode(), P2PQuakeDecoder.GSON.toJson(entry.getData()));
+        for (Follower follower : node.followers) {
+            follower.offer(frame);
+        }
+    }
+
+    private void open() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(nodes.get(index));
+        Thread accept = new Thread(this::acceptLoop, "NaturalDisaster-Relay-Accept");
+        accept.setDaemon(true);
+        accept.start();
+        election = new Thread(this::electionLoop, "NaturalDisaster-Relay-Election");
+        election.setDaemon(true);
+        election.start();
+        Bukkit.getLogger().info("中継を " + format(nodes.get(index)) + " で開始しました。");
+    }
+
+    private void close() {
+        closed = true;
+        closeQuietly(server);
+        closeQuietly(leaderSocket);
+        for (Follower follower : followers) {
+            follower.close();
+        }
+        if (election != null) {
+            election.interrupt();
+        }
+    }
+
+    /**
+     * 取得役を選び、役割に応じて取得または受信を続ける
+     */
+    private void electionLoop() {
+        while (!closed) {
+            Socket found = findLeader();
+            if (found != null) {
+                follow(found);
+                sleepQuietly(ThreadLocalRandom.current().nextLong(heartbeatMillis));
+                continue;
+            }
+            becomeLeader();
+            // 取得役の間は、先頭に近いサーバーが戻ってきていないか定期的に確認する
+            while (!closed) {
+                sleepQuietly(probeMillis);
+                if (closed) {
+                    return;
+                }
+                Socket better = findLeader();
+                if (better != null) {
+                    follow(better);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 自分より先頭にあるサーバーのうち、取得役になっているものを探す
+     * @return 取得役との接続。見つからない場合はnull
+     */
+    @Nullable
+    private Socket findLeader() {
+        for (int i = 0; i < index && !closed; i++) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(nodes.get(i), heartbeatMillis);
+                socket.setSoTimeout(heartbeatMillis * 3);
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] nonce = RelayProtocol.nonce();
+                RelayProtocol.writeHello(out, index, nonce);
+                out.flush();
+                // 相手が合言葉を知っていることを確かめてから、情報を受け取る
+                byte[] leaderNonce = RelayProtocol.readBytes(in, RelayProtocol.NONCE_LENGTH);
+                byte[] leaderProof = RelayProtocol.readBytes(in, RelayProtocol.PROOF_LENGTH);
+                if (!RelayProtocol.verify(leaderProof, secret, RelayProtocol.LEADER_PROOF, index, leaderNonce, nonce)) {
+                    Bukkit.getLogger().warning("中継の " + format(nodes.get(i)) + " が合言葉を知らないため、接続しません。");
+                    closeQuietly(socket);
+                    continue;
+                }
+                out.write(RelayProtocol.proof(secret, RelayProtocol.FOLLOWER_PROOF, index, nonce, leaderNonce));
+                out.flush();
+                if (in.read() == RelayProtocol.LEADER) {
+                    return socket;
+                }
+            } catch (IOException ignored) {
+            }
+            closeQuietly(socket);
+        }
+        return null;
+    }
+
+    private void becomeLeader() {
+        if (role == Role.LEADER) {
+            return;
+        }
+        role = Role.LEADER;
+        leader = format(nodes.get(index));
+        Bukkit.getLogger().info("中継の取得役になりました。");
+        onLeader.run();
+    }
+
+    /**
+     * 取得役から情報を受け取り続ける。接続が切れると戻る。
+     */
+    private void follow(Socket socket) {
+        synchronized (this) {
+            Role previous = role;
+            role = Role.FOLLOWER;
+            leader = format((InetSocketAddress) socket.getRemoteSocketAddress());
+            leaderSocket = socket;
+            // 取得役から降りる場合は、接続している受信役を切断して選び直させる
+            for (Follower follower : followers) {
+                follower.close();
+            }
+            if (previous != Role.FOLLOWER) {
+                Bukkit.getLogger().info("中継の受信役になりました（取得役：" + leader + "）。");
+                onFollower.run();
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (!closed) {
+                RelayProtocol.Event event = RelayProtocol.readFrame(in);
+                if (event == null) {
+                    continue;
+                }
+                Metrics.BYTES.get(SOURCE).add(event.getSize());
+                // 受信役には他の取得元が無いため、捨てずに受け取った順に処理する
+                DisasterExecutor.get().executeInOrder("中継で受信した情報", () -> receive(event));
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Bukkit.getLogger().warning("中継の取得役との接続が切れました（" + e.getMessage() + "）。取得役を選び直します。");
+            }
+        } finally {
+            closeQuietly(socket);
+            leaderSocket = null;
+            leader = null;
+        }
+    }
+
+    private static void receive(RelayProtocol.Event event) {
+        JsonObject object;
+        try {
+            object = JsonParser.parseString(event.getJson()).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            Bukkit.getLogger().warning("中継から不正なデータを受信しました：" + e.getMessage());
+            return;
+        }
+        object.addProperty("code", event.getCode());
+        P2PQuakeEntry entry = P2PQuakeDecoder.decode(object);
+        if (entry != null) {
+            P2PQuakeDispatcher.dispatch(entry, AlertLatency.Source.RELAY);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    Bukkit.getLogger().warning("中継の待ち受けに失敗しました：" + e.getMessage());
+                    sleepQuietly(heartbeatMillis);
+                }
+                continue;
+            }
+            try {
+                socket.setSoTimeout(heartbeatMillis);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                RelayProtocol.Hello hello = RelayProtocol.readHello(in);
+                if (hello == null) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                int from = hello.getIndex();
+                byte[] nonce = RelayProtocol.nonce();
+                out.write(nonce);
+                out.write(RelayProtocol.proof(secret, RelayProtocol.LEADER_PROOF, from, nonce, hello.getNonce()));
+                out.flush();
+                byte[] followerProof = RelayProtocol.readBytes(in, RelayProtocol.PROOF_LENGTH);
+                if (!RelayProtocol.verify(followerProof, secret, RelayProtocol.FOLLOWER_PROOF, from, hello.getNonce(), nonce)) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                synchronized (this) {
+                    boolean leading = role == Role.LEADER && !closed;
+                    socket.getOutputStream().write(leading ? RelayProtocol.LEADER : RelayProtocol.NOT_LEADER);
+                    socket.getOutputStream().flush();
+                    if (!leading) {
+                        closeQuietly(socket);
+                        continue;
+                    }
+                    Follower follower = new Follower(socket, from < nodes.size() ? format(nodes.get(from)) : "#" + from);
+                    followers.add(follower);
+                    Thread thread = new Thread(follower, "NaturalDisaster-Relay-" + follower.name);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static byte[] hash(String secret) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String format(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private static void closeQuietly(@Nullable AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 取得役から見た、1台の受信役との接続です。
+     * 送信は受信役ごとのスレッドで行うため、遅い受信役がいても情報の処理は止まりません。
+     * 送信待ちがあふれた受信役は切断し、選び直させます。
+     */
+    private final class Follower implements Runnable {
+
+        private final Socket socket;
+        private final String name;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(256);
+
+        private Follower(Socket socket, String name) {
+            this.socket = socket;
+            this.name = name;
+        }
+
+        private void offer(byte[] frame) {
+            if (!queue.offer(frame)) {
+                Bukkit.getLogger().warning("中継の受信役 " + name + " への送信が遅れているため切断します。");
+                close();
+            }
+        }
+
+        private void close() {
+            closeQuietly(socket);
+        }
+
+        @Override
+        public void run() {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                Bukkit.getLogger().info("中継の受信役 " + name + " が接続しました。");
+                while (!closed && !socket.isClosed()) {
+                    byte[] frame = queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        out.write(RelayProtocol.HEARTBEAT);
+                    } else {
+                        out.write(frame);
+                    }
+                    out.flush();
+                }
+            } catch (SocketException ignored) {
+                // 切断した場合
+            } catch (IOException | InterruptedException e) {
+                Bukkit.getLogger().warning("中継の受信役 " + name + " への送信に失敗しました：" + e.getMessage());
+            } finally {
+                followers.remove(this);
+                close();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package mochineko.natural_disaster.relay;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 中継（{@link RelayNode}）で使う、TCPの上のバイナリ形式です。
+ *
+ * <pre>
+ * 接続の開始（受信役 → 取得役）：MAGIC(int) VERSION(byte) 受信役の番号(int) 受信役の乱数(16byte)
+ * 証明（取得役 → 受信役）　　　：取得役の乱数(16byte) 取得役の証明(32byte)
+ * 証明（受信役 → 取得役）　　　：受信役の証明(32byte)
+ * 応答（取得役 → 受信役）　　　：LEADER(byte) または NOT_LEADER(byte)
+ * 生存の確認　　　　　　　　　　：HEARTBEAT(byte)
+ * 情報　　　　　　　　　　　　　：EVENT(byte) 長さ(int) 圧縮の有無(byte) コード(short) JSON(UTF-8、大きい場合はDeflate)
+ * </pre>
+ *
+ * <p>証明は、合言葉のSHA-256を鍵にした、役割・受信役の番号・両方の乱数のHMAC-SHA256です。
+ * 受信役と取得役のどちらも合言葉を知っていることを確かめるため、合言葉を知らない相手が取得役になりすまして情報を送ることはできません。</p>
+ */
+final class RelayProtocol {
+
+    static final int MAGIC = 0x4E445231;
+    static final byte VERSION = 2;
+
+    static final int NONCE_LENGTH = 16;
+    static final int PROOF_LENGTH = 32;
+    static final byte LEADER_PROOF = 'L';
+    static final byte FOLLOWER_PROOF = 'F';
+
+    static final byte LEADER = 1;
+    static final byte NOT_LEADER = 0;
+
+    static final byte HEARTBEAT = 0;
+    static final byte EVENT = 1;
+
+    private static final byte DEFLATED = 1;
+    /**
+     * これより大きいJSONは圧縮して送る（バイト）
+     */
+    private static final int DEFLATE_THRESHOLD = 1024;
+    /**
+     * 1件の情報の上限（バイト）。壊れたデータで大きな配列を確保しないようにする
+     */
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private RelayProtocol() {
+    }
+
+    /**
+     * 証明に使う乱数を作る
+     */
+    @Nonnull
+    static byte[] nonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    static void writeHello(DataOutputStream out, int index, byte[] nonce) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(index);
+        out.write(nonce);
+    }
+
+    /**
+     * 接続の開始を読み込む
+     * @return 形式が違う場合はnull
+     */
+    @Nullable
+    static Hello readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            return null;
+        }
+        int index = in.readInt();
+        return new Hello(index, readBytes(in, NONCE_LENGTH));
+    }
+
+    @Nonnull
+    static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 合言葉を知っていることの証明を作る
+     * @param key 合言葉のSHA-256
+     * @param role {@link #LEADER_PROOF} または {@link #FOLLOWER_PROOF}
+     * @param index 受信役の番号
+     * @param own 証明する側の乱数
+     * @param other 相手の乱数
+     */
+    @Nonnull
+    static byte[] proof(byte[] key, byte role, int index, byte[] own, byte[] other) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.update(role);
+            mac.update(ByteBuffer.allocate(4).putInt(index).array());
+            mac.update(own);
+            mac.update(other);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 相手から受け取った証明が正しいかを返す
+     */
+    static boolean verify(byte[] received, byte[] key, byte role, int index, byte[] own, byte[] other) {
+        return MessageDigest.isEqual(received, proof(key, role, index, own, other));
+    }
+
+    /**
+     * 情報を、送信する形に変換する
+     */
+    @Nonnull
+    static byte[] encodeEvent(int code, @Nonnull String json) {
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        byte flags = 0;
+        if (payload.length > DEFLATE_THRESHOLD) {
+            payload = deflate(payload);
+            flags = DEFLATED;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 1 + 2 + payload.length);
+        buffer.put(EVENT).putInt(1 + 2 + payload.length).put(flags).putShort((short) code).put(payload);
+        return buffer.array();
+    }
+
+    /**
+     * 1つの送信を読み込む
+     * @return 生存の確認の場合はnull
+     */
+    @Nullable
+    static Event readFrame(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == HEARTBEAT) {
+            return null;
+        }
+        if (type != EVENT) {
+            throw new IOException("不明な種類のデータです：" + type);
+        }
+        int length = in.readInt();
+        if (length < 3 || length > MAX_FRAME) {
+            throw new IOException("不正な長さのデータです：" + length);
+        }
+        byte flags = in.readByte();
+        int code = in.readShort() & 0xFFFF;
+        byte[] payload = new byte[length - 3];
+        in.readFully(payload);
+        if ((flags & DEFLATED) != 0) {
+            payload = inflate(payload);
+        }
+        return new Event(code, new String(payload, StandardCharsets.UTF_8), 5 + length);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("圧縮されたデータが途中で終わっています");
+                }
+                out.write(buffer, 0, read);
+                if (out.size() > MAX_FRAME) {
+                    throw new IOException("展開したデータが大きすぎます");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("圧縮されたデータを展開できませんでした", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 受信役から受け取った接続の開始です。
+     */
+    static final class Hello {
+        private final int index;
+        private final byte[] nonce;
+
+        private Hello(int index, byte[] nonce) {
+            this.index = index;
+            this.nonce = nonce;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        byte[] getNonce() {
+            return nonce;
+        }
+    }
+
+    /**
+     * 受信した1件の情報です。
+     */
+    static final class Event {
+        private final int code;
+        private final String json;
+        private final int size;
+
+        private Event(int code, String json, int size) {
+            this.code = code;
+            this.json = json;
+            this.size = size;
+        }
+
+        int getCode() {
+            return code;
+        }
+
+        String getJson() {
+            return json;
+        }
+
+        /**
+         * 受信したバイト数を返す関数
+         */
+        int getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package mochineko.natural_disaster.replay;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import mochineko.natural_disaster.api.P2PTime;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.metrics.Histogram;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.DisasterMonitors;
+import mochineko.natural_disaster.monitor.TsunamiStateTracker;
+import mochineko.natural_disaster.status.DisasterType;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 記録したP2P地震情報を、時間を縮めて再生するクラスです。
+ * 127.0.0.1 で履歴（/v2/history）と同じ形式を返すサーバーを起動し、定期取得の取得先をそこへ向けて監視を作り直します。
+ * 情報の時刻は再生した時刻に合わせてずらすため、通知までの処理は実際に受信した場合と同じように動きます。
+ * 再生が終わると、計測値の増加分から処理量・重複・取りこぼし・遅延・メインスレッドの負荷をまとめて報告し、元の設定に戻します。
+ */
+public final class ReplaySession {
+
+    /**
+     * 再生を始めるまでの時間。監視が起動し終わるのを待つ
+     */
+    private static final long LEAD_MILLIS = 5_000L;
+    /**
+     * 最後の情報を公開してから、結果をまとめるまでの時間。定期取得が追いつくのを待つ
+     */
+    private static final long GRACE_MILLIS = 30_000L;
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").withZone(P2PTime.JST);
+    private static final DateTimeFormatter MILLIS = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSS").withZone(P2PTime.JST);
+
+    private static ReplaySession current;
+
+    private final JavaPlugin plugin;
+    private final CommandSender sender;
+    private final String name;
+    private final List<Release> releases;
+    private final long startMillis;
+    private final long endMillis;
+    private final double speed;
+    private final Snapshot before = new Snapshot();
+    private HttpServer server;
+    private BukkitTask finishTask;
+
+    private ReplaySession(JavaPlugin plugin, CommandSender sender, String name, List<Release> releases,
+                          long startMillis, long endMillis, double speed) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.name = name;
+        this.releases = releases;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.speed = speed;
+    }
+
+    /**
+     * 再生を開始する関数。メインスレッドから呼ぶ。
+     * @param file 記録したファイル。履歴のJSON配列か、1行に1件のJSON（WebSocketで受信したもの）
+     * @param minutes 再生にかける時間（分）
+     * @throws IOException ファイルを読めない場合・サーバーを起動できない場合
+     */
+    @Nonnull
+    public static synchronized ReplaySession start(@Nonnull JavaPlugin plugin, @Nonnull CommandSender sender,
+                                              @Nonnull File file, double minutes) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("既に再生しています");
+        }
+        List<JsonObject> recorded = load(file);
+        if (recorded.isEmpty()) {
+            throw new IOException("再生できる情報がありません");
+        }
+        long first = recorded.get(0).get("_replayTime").getAsLong();
+        long last = recorded.get(recorded.size() - 1).get("_replayTime").getAsLong();
+        long targetMillis = Math.max(1_000L, (long) (minutes * 60_000));
+        double speed = Math.max(1.0, (double) (last - first) / targetMillis);
+
+        long start = System.currentTimeMillis() + LEAD_MILLIS;
+        String prefix = "replay-" + Long.toString(start, 36) + "-";
+        List<Release> releases = new ArrayList<>(recorded.size());
+        for (JsonObject object : recorded) {
+            long original = object.remove("_replayTime").getAsLong();
+            long releaseAt = start + (long) ((original - first) / speed);
+            shiftTimes(object, releaseAt - original);
+            // 実際の情報や、前回の再生と重複しないようにIDを変える
+            for (String key : new String[]{"id", "_id"}) {
+                JsonElement id = object.get(key);
+                if (id != null && id.isJsonPrimitive()) {
+                    object.addProperty(key, prefix + id.getAsString());
+                }
+            }
+            releases.add(new Release(releaseAt, object.get("code").getAsInt(), object.toString()));
+        }
+
+        ReplaySession session = new ReplaySession(plugin, sender, file.getName(), releases,
+                start, releases.get(releases.size() - 1).releaseAt, speed);
+        session.open();
+        current = session;
+        return session;
+    }
+
+    /**
+     * 再生を途中で終わらせ、結果を報告する関数。メインスレッドから呼ぶ。
+     * @return 再生していなかった場合はfalse
+     */
+    public static synchronized boolean stop() {
+        if (current == null) {
+            return false;
+        }
+        current.finish(true);
+        return true;
+    }
+
+    /**
+     * 報告や設定の復元をせずに再生を終わらせる関数。
+     * 再読み込みやプラグインの停止の前に呼ばれる。
+     */
+    public static synchronized void cancel() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    public static synchronized boolean isRunning() {
+        return current != null;
+    }
+
+    /**
+     * 公開する情報の件数を返す関数
+     */
+    public int getCount() {
+        return releases.size();
+    }
+
+    /**
+     * 再生の速さを返す関数
+     * @return 何倍速か（例：720.0）
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    private void open() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v2/history", this::handle);
+        server.start();
+
+        // 設定ファイルは変えずに、取得先だけを差し替えた設定で監視を作り直す
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(plugin.getConfig().saveToString());
+        } catch (InvalidConfigurationException e) {
+            server.stop(0);
+            throw new IOException("設定を複製できませんでした", e);
+        }
+        config.setDefaults(plugin.getConfig().getDefaults());
+        config.set("fetch.history-url", "http://127.0.0.1:" + server.getAddress().getPort() + "/v2/history");
+        config.set("polling.limit", 100);
+        config.set("websocket.enabled", false);
+        config.set("jma.enabled", false);
+        config.set("journal.enabled", false);
+        config.set("relay.enabled", false);
+        // 再生する津波予報を、実際の予報区の状態と比べないようにする
+        TsunamiStateTracker.reset();
+        DisasterMonitors.reload(plugin, config);
+
+        long ticks = Math.max(1, (endMillis + GRACE_MILLIS - System.currentTimeMillis()) / 50);
+        finishTask = Bukkit.getScheduler().runTaskLater(plugin, () -> {
+            synchronized (ReplaySession.class) {
+                if (current == this) {
+                    finish(false);
+                }
+            }
+        }, ticks);
+    }
+
+    private void finish(boolean stopped) {
+        Report report = new Report(stopped);
+        close();
+        current = null;
+        DisasterMonitors.reload(plugin);
+        report.send(sender);
+        if (sender != Bukkit.getConsoleSender()) {
+            report.send(Bukkit.getConsoleSender());
+        }
+    }
+
+    private void close() {
+        if (finishTask != null) {
+            finishTask.cancel();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+        TsunamiStateTracker.reset();
+    }
+
+    /**
+     * 公開済みの情報を、P2P地震情報の履歴と同じく新しい順に返す
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Set<Integer> codes = new HashSet<>();
+            int limit = 10;
+            int offset = 0;
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    if (equals < 0) {
+                        continue;
+                    }
+                    String value = parameter.substring(equals + 1);
+                    try {
+                        switch (parameter.substring(0, equals)) {
+                            case "codes":
+                                codes.add(Integer.parseInt(value));
+                                break;
+                            case "limit":
+                                limit = Math.max(1, Math.min(100, Integer.parseInt(value)));
+                                break;
+                            case "offset":
+                                offset = Math.max(0, Integer.parseInt(value));
+                                break;
+                            default:
+                                break;
+                        }
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            StringBuilder json = new StringBuilder("[");
+            int count = 0;
+            int skipped = 0;
+            for (int i = released(now) - 1; i >= 0 && count < limit; i--) {
+                Release release = releases.get(i);
+                if (codes.isEmpty() || codes.contains(release.code)) {
+                    if (skipped < offset) {
+                        skipped++;
+                        continue;
+                    }
+                    if (count++ > 0) {
+                        json.append(',');
+                    }
+                    json.append(release.json);
+                }
+            }
+            byte[] body = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * 指定した時刻までに公開した件数を返す
+     */
+    private int released(long now) {
+        int low = 0;
+        int high = releases.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (releases.get(middle).releaseAt <= now) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 記録を読み込み、時刻の古い順に並べる
+     */
+    private static List<JsonObject> load(File file) throws IOException {
+        List<JsonObject> objects = new ArrayList<>();
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            JsonReader reader = new JsonReader(in);
+            reader.setLenient(true);
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                JsonElement element = JsonParser.parseReader(reader);
+                if (element.isJsonArray()) {
+                    for (JsonElement child : element.getAsJsonArray()) {
+                        add(objects, child);
+                    }
+                } else {
+                    add(objects, element);
+                }
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("記録を読み込めませんでした：" + e.getMessage(), e);
+        }
+        objects.sort(Comparator.comparingLong(object -> object.get("_replayTime").getAsLong()));
+        return objects;
+    }
+
+    private static void add(List<JsonObject> objects, JsonElement element) {
+        if (!element.isJsonObject()) {
+            return;
+        }
+        JsonObject object = element.getAsJsonObject();
+        JsonElement code = object.get("code");
+        JsonElement time = object.get("time");
+        if (code == null || time == null || !time.isJsonPrimitive() || DisasterType.fromCode(code.getAsInt()) == null) {
+            return;
+        }
+        ZonedDateTime dateTime = parse(time.getAsString());
+        if (dateTime != null) {
+            object.addProperty("_replayTime", dateTime.toInstant().toEpochMilli());
+            objects.add(object);
+        }
+    }
+
+    /**
+     * 情報に含まれるすべての時刻を、同じ時間だけずらす
+     */
+    private static void shiftTimes(JsonElement element, long deltaMillis) {
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                JsonElement value = entry.getValue();
+                String shifted = shift(value, deltaMillis);
+                if (shifted != null) {
+                    entry.setValue(new JsonPrimitive(shifted));
+                } else {
+                    shiftTimes(value, deltaMillis);
+                }
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                String shifted = shift(array.get(i), deltaMillis);
+                if (shifted != null) {
+                    array.set(i, new JsonPrimitive(shifted));
+                } else {
+                    shiftTimes(array.get(i), deltaMillis);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private static String shift(JsonElement value, long deltaMillis) {
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) {
+            return null;
+        }
+        String text = value.getAsString();
+        ZonedDateTime dateTime = parse(text);
+        if (dateTime == null) {
+            return null;
+        }
+        ZonedDateTime shifted = dateTime.plus(Duration.ofMillis(deltaMillis));
+        // 元の精度に合わせる
+        return text.indexOf('.') >= 0 ? MILLIS.format(shifted) : SECONDS.format(shifted);
+    }
+
+    @Nullable
+    private static ZonedDateTime parse(String text) {
+        if (text.length() < 19 || text.charAt(4) != '/') {
+            return null;
+        }
+        try {
+            return P2PTime.parse(text);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 公開する1件の情報です。
+     */
+    private static final class Release {
+        private final long releaseAt;
+        private final int code;
+        private final String json;
+
+        private Release(long releaseAt, int code, String json) {
+            this.releaseAt = releaseAt;
+            this.code = code;
+            this.json = json;
+        }
+    }
+
+    /**
+     * 再生を始めた時点の計測値です。
+     */
+    private static final class Snapshot {
+        private final long events = sum(Metrics.EVENTS);
+        private final long alerts = sum(Metrics.ALERTS);
+        private final long duplicates = sum(Metrics.DUPLICATES);
+        private final Map<String, Histogram> receiveLatency = snapshot(Metrics.RECEIVE_LATENCY);
+        private final Map<String, Histogram> alertLatency = snapshot(Metrics.ALERT_LATENCY);
+        private final Map<String, Histogram> mainThread = snapshot(Metrics.MAIN_THREAD);
+
+        private static long sum(Metrics.Family<LongAdder> family) {
+            long sum = 0;
+            for (LongAdder adder : family.getAll().values()) {
+                sum += adder.sum();
+            }
+            return sum;
+        }
+
+        private static Map<String, Histogram> snapshot(Metrics.Family<Histogram> family) {
+            Map<String, Histogram> snapshots = new HashMap<>();
+            family.getAll().forEach((label, histogram) -> snapshots.put(label, histogram.snapshot()));
+            return snapshots;
+        }
+    }
+
+    /**
+     * 再生の結果です。作成した時点の計測値と、再生を始めた時点の計測値の差から求めます。
+     */
+    private final class Report {
+        private final boolean stopped;
+        private final int released;
+        private final long events;
+        private final long alerts;
+        private final long duplicates;
+        private final long seconds;
+        private final Map<String, Histogram> receiveLatency;
+        private final Map<String, Histogram> alertLatency;
+        private final Map<String, Histogram> mainThread;
+
+        private Report(boolean stopped) {
+            long now = System.currentTimeMillis();
+            this.stopped = stopped;
+            this.released = released(now);
+            this.events = Snapshot.sum(Metrics.EVENTS) - before.events;
+            this.alerts = Snapshot.sum(Metrics.ALERTS) - before.alerts;
+            this.duplicates = Snapshot.sum(Metrics.DUPLICATES) - before.duplicates;
+            this.seconds = Math.max(1, (Math.min(now, endMillis) - startMillis) / 1000);
+            this.receiveLatency = since(Metrics.RECEIVE_LATENCY, before.receiveLatency);
+            this.alertLatency = since(Metrics.ALERT_LATENCY, before.alertLatency);
+            this.mainThread = since(Metrics.MAIN_THREAD, before.mainThread);
+        }
+
+        private Map<String, Histogram> since(Metrics.Family<Histogram> family, Map<String, Histogram> earlier) {
+            Map<String, Histogram> diffs = new HashMap<>();
+            family.getAll().forEach((label, histogram) -> {
+                Histogram snapshot = earlier.get(label);
+                Histogram diff = snapshot == null ? histogram.snapshot() : histogram.since(snapshot);
+                if (diff.getCount() > 0) {
+                    diffs.put(label, diff);
+                }
+            });
+            return diffs;
+        }
+
+        private void send(CommandSender target) {
+            MessageRenderer renderer = MessageRenderer.get();
+            target.sendMessage(renderer.format(stopped ? "replay.stopped" : "replay.finished", Map.of("file", name)));
+            target.sendMessage(renderer.format("replay.summary", Map.of(
+                    "released", released,
+                    "events", events,
+                    "alerts", alerts,
+                    "duplicates", duplicates,
+                    // 公開したのに受け取っていない情報
+                    "dropped", Math.max(0, released - events - duplicates))));
+            target.sendMessage(renderer.format("replay.throughput", Map.of(
+                    "throughput", String.format("%.2f", (double) events / seconds),
+                    "seconds", seconds,
+                    "speed", String.format("%.0f", speed))));
+            sendHistograms(target, renderer, "stats.receive-latency", receiveLatency);
+            sendHistograms(target, renderer, "stats.alert-latency", alertLatency);
+            sendHistograms(target, renderer, "stats.main-thread", mainThread);
+        }
+
+        private void sendHistograms(CommandSender target, MessageRenderer renderer, String key, Map<String, Histogram> histograms) {
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                target.sendMessage(renderer.format("stats.histogram", Map.of(
+                        "metric", renderer.format(key, Map.of()),
+                        "label", entry.getKey(),
+                        "count", histogram.getCount(),
+                        "p50", formatNanos(histogram.getQuantileNanos(0.5)),
+                        "p95", formatNanos(histogram.getQuantileNanos(0.95)),
+                        "max", formatNanos(histogram.getMaxNanos()))));
+            }
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+}
@@ -1,20 +1,86 @@
 package mochineko.natural_disaster.status;
 
 import mochineko.natural_disaster.api.DisasterAPI;
+import mochineko.natural_disaster.api.DisasterProvider;
+import mochineko.natural_disaster.api.P2PEEWAPI;
 import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
 
-import java.lang.reflect.Method;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+/**
+ * 扱う情報の種類の一覧です。
+ * 種類ごとに、P2P地震情報のコードと処理（{@link DisasterProvider}）を登録します。
+ * 取得・デコード・振り分けはこの一覧をもとに全種類まとめて行われます。
+ */
 public enum DisasterType {
-    EARTHQUAKE(P2PEarthquakeAPI.class);
+    EARTHQUAKE(551, "earthquake", "地震情報", P2PEarthquakeAPI.PROVIDER),
+    TSUNAMI(552, "tsunami", "津波予報", P2PTsunamiAPI.PROVIDER),
+    EEW(556, "eew", "緊急地震速報（警報）", P2PEEWAPI.PROVIDER);
 
-    private Class<? extends DisasterAPI> disasterClass;
+    private static final DisasterType[] VALUES = values();
 
-    DisasterType(Class<? extends DisasterAPI> disasterClass) {
-        this.disasterClass = disasterClass;
+    private final int code;
+    private final String label;
+    private final String name;
+    private final DisasterProvider<?> provider;
+
+    DisasterType(int code, String label, String name, DisasterProvider<?> provider) {
+        this.code = code;
+        this.label = label;
+        this.name = name;
+        this.provider = provider;
+    }
+
+    /**
+     * コードに対応する種類を返す関数
+     * @param code P2P地震情報のコード（例：551）
+     * @return 扱わないコードの場合はnull
+     */
+    @Nullable
+    public static DisasterType fromCode(int code) {
+        for (DisasterType type : VALUES) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * P2P地震情報のコードを返す関数
+     * @return （例：551）
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * 計測値や設定で使う名前を返す関数
+     * @return （例：earthquake）
+     */
+    @Nonnull
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * 表示用の名前を返す関数
+     * @return （例：地震情報）
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    @Nonnull
+    public DisasterProvider<?> getProvider() {
+        return provider;
     }
 
+    @Nonnull
     public Class<? extends DisasterAPI> getDisasterClass() {
-        return disasterClass;
+        return provider.getDataClass();
     }
 }
@@ -1,5 +1,6 @@
 package mochineko.natural_disaster.status;
 
+import java.util.EnumMap;
 import java.util.Map;
 
 public enum EarthquakeScaleType {
@@ -30,6 +31,43 @@ public enum EarthquakeScaleType {
             Map.entry(70, SEVEN)
     );
 
+    /**
+     * P2P地震情報の震度（-1～70）から列挙型を引くための表。
+     * 添字は「震度 + 1」で、{@link Integer} への変換をせずに引けるようにしている。
+     */
+    private static final EarthquakeScaleType[] p2pAPI_table = new EarthquakeScaleType[72];
+
+    /**
+     * 気象庁防災情報XMLの震度（例：5-、!5-）から列挙型への変換表。
+     * 「!5-」は震度5弱以上と推定されるが、震度を入手していない観測点を表す。
+     */
+    private static final Map<String, EarthquakeScaleType> jma_convert = Map.ofEntries(
+            Map.entry("1", ONE),
+            Map.entry("2", TWO),
+            Map.entry("3", THREE),
+            Map.entry("4", FOUR),
+            Map.entry("5-", FIVE_LOW),
+            Map.entry("5+", FIVE_HIGH),
+            Map.entry("6-", SIX_LOW),
+            Map.entry("6+", SIX_HIGH),
+            Map.entry("7", SEVEN),
+            Map.entry("!5-", NODATA)
+    );
+
+    /**
+     * 計測震度を四捨五入した値（0～4）から列挙型を引くための表
+     */
+    private static final EarthquakeScaleType[] ROUNDED = {ZERO, ONE, TWO, THREE, FOUR};
+
+    private static final Map<EarthquakeScaleType, Integer> p2pAPI_reverse = new EnumMap<>(EarthquakeScaleType.class);
+
+    static {
+        for (Map.Entry<Integer, EarthquakeScaleType> entry : p2pAPI_convert.entrySet()) {
+            p2pAPI_table[entry.getKey() + 1] = entry.getValue();
+            p2pAPI_reverse.put(entry.getValue(), entry.getKey());
+        }
+    }
+
     private String name;
 
     EarthquakeScaleType(String name) {
@@ -41,6 +79,61 @@ public enum EarthquakeScaleType {
     }
 
     public static EarthquakeScaleType convertP2PAPI(int scale) {
-        return p2pAPI_convert.getOrDefault(scale, UNKNOWN);
+        if (scale < -1 || scale > 70) {
+            return UNKNOWN;
+        }
+        EarthquakeScaleType type = p2pAPI_table[scale + 1];
+        return type == null ? UNKNOWN : type;
+    }
+
+    /**
+     * 気象庁防災情報XMLの震度を、列挙型に変換する関数
+     * @param intensity （例：5-）
+     * @return 変換できない場合は {@link #UNKNOWN} を返す
+     */
+    public static EarthquakeScaleType convertJMA(String intensity) {
+        if (intensity == null) {
+            return UNKNOWN;
+        }
+        return jma_convert.getOrDefault(intensity.trim(), UNKNOWN);
+    }
+
+    /**
+     * 計測震度を、震度階級の列挙型に変換する関数
+     * @param intensity 計測震度（例：5.2）
+     * @return 計測震度が数値でない場合は {@link #UNKNOWN} を返す
+     */
+    public static EarthquakeScaleType fromIntensity(double intensity) {
+        if (Double.isNaN(intensity)) {
+            return UNKNOWN;
+        }
+        if (intensity < 0.5) {
+            return ZERO;
+        }
+        if (intensity < 4.5) {
+            // 震度1～4は、計測震度を四捨五入した値
+            return ROUNDED[(int) (intensity + 0.5)];
+        }
+        if (intensity < 5.0) {
+            return FIVE_LOW;
+        }
+        if (intensity < 5.5) {
+            return FIVE_HIGH;
+        }
+        if (intensity < 6.0) {
+            return SIX_LOW;
+        }
+        if (intensity < 6.5) {
+            return SIX_HIGH;
+        }
+        return SEVEN;
+    }
+
+    /**
+     * P2P地震情報での震度を返す関数
+     * @return （例：{@link #FIVE_LOW} の場合は45）。P2P地震情報に無い震度の場合は-1
+     */
+    public int toP2PAPI() {
+        return p2pAPI_reverse.getOrDefault(this, -1);
     }
 }
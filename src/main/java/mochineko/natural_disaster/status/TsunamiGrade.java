@@ -17,6 +17,22 @@ public enum TsunamiGrade {
             Map.entry("Unknown", TsunamiGrade.UNKNOWN)
     );
 
+    /**
+     * 気象庁防災情報XMLの津波予報の種類のコード（Kind/Code）から列挙型への変換表
+     */
+    public static final Map<String, TsunamiGrade> jma_convert = Map.ofEntries(
+            Map.entry("52", TsunamiGrade.MAJOR_WARNING),
+            Map.entry("53", TsunamiGrade.MAJOR_WARNING),
+            Map.entry("51", TsunamiGrade.WARNING),
+            Map.entry("62", TsunamiGrade.WATCH),
+            Map.entry("71", TsunamiGrade.SLIGHT),
+            Map.entry("72", TsunamiGrade.SLIGHT),
+            Map.entry("73", TsunamiGrade.SLIGHT),
+            Map.entry("00", TsunamiGrade.NONE),
+            Map.entry("50", TsunamiGrade.NONE),
+            Map.entry("60", TsunamiGrade.NONE)
+    );
+
     private String name;
 
     TsunamiGrade(String name) {
@@ -40,7 +56,34 @@ public enum TsunamiGrade {
         return null;
     }
 
+    /**
+     * 気象庁防災情報XMLの津波予報の種類のコードを、列挙型に変換する関数
+     * @param code （例：52）
+     */
+    public static TsunamiGrade convertJMA(String code) {
+        if (code == null) {
+            return UNKNOWN;
+        }
+        return jma_convert.getOrDefault(code.trim(), UNKNOWN);
+    }
+
+    /**
+     * P2P地震情報での等級を返す関数
+     * @return （例：MajorWarning）。P2P地震情報の予報区に含まれない等級の場合はnull
+     */
+    public String toP2PAPI() {
+        for (Map.Entry<String, TsunamiGrade> entry : p2p_convert.entrySet()) {
+            if (entry.getValue() == this && this != UNKNOWN) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
     public static TsunamiGrade convertP2PAPI(String grade) {
+        if (grade == null) {
+            return UNKNOWN;
+        }
         return p2p_convert.getOrDefault(grade, UNKNOWN);
     }
 }
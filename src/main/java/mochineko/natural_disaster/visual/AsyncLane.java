@@ -0,0 +1,75 @@
+package mochineko.natural_disaster.visual;
+
+import mochineko.natural_disaster.Main;
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nonnull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * 重い計算を、Bukkitの非同期タスクで1つずつ順に実行するクラスです。
+ * 同時に使うスレッドは1つだけのため、大量に追加してもサーバーの他の非同期処理や情報の取得を妨げません。
+ */
+final class AsyncLane {
+
+    private final String name;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * @param name ログに出す処理の名前
+     */
+    AsyncLane(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * 処理を追加する関数。どのスレッドから呼んでもよい。
+     */
+    void submit(@Nonnull Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * まだ実行していない処理を捨てる関数
+     */
+    void clear() {
+        tasks.clear();
+    }
+
+    /**
+     * 実行中・実行待ちの処理が無いかを返す関数
+     */
+    boolean isIdle() {
+        return tasks.isEmpty() && !running.get();
+    }
+
+    private void schedule() {
+        Main plugin = Main.getPlugin(Main.class);
+        if (plugin.isEnabled() && running.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Bukkit.getLogger().log(Level.WARNING, name + "の計算に失敗しました", e);
+                }
+            }
+        } finally {
+            running.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package mochineko.natural_disaster.visual;
+
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * ワールドの1ブロックへの変更です。
+ * 取得スレッドでチャンクの写し（{@link org.bukkit.ChunkSnapshot}）から作成し、メインスレッドで {@link BlockChangeQueue} が適用します。
+ * 写しを作ってから適用するまでにブロックが変わっていた場合は、適用しません。
+ */
+final class BlockChange {
+
+    /**
+     * 変更の種類
+     */
+    enum Action {
+        /**
+         * ブロックを置き換える
+         */
+        SET,
+        /**
+         * ブロックを落下させる（元の場所は空気になる）
+         */
+        FALL
+    }
+
+    private final int x;
+    private final int y;
+    private final int z;
+    private final Material expected;
+    private final Action action;
+    @Nullable
+    private final Material material;
+    @Nullable
+    private final BlockData data;
+
+    private BlockChange(int x, int y, int z, Material expected, Action action, @Nullable Material material, @Nullable BlockData data) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.expected = expected;
+        this.action = action;
+        this.material = material;
+        this.data = data;
+    }
+
+    /**
+     * ブロックを別の種類に置き換える変更を作る関数
+     * @param expected 写しでのブロックの種類
+     */
+    @Nonnull
+    static BlockChange set(int x, int y, int z, @Nonnull Material expected, @Nonnull Material material) {
+        return new BlockChange(x, y, z, expected, Action.SET, material, null);
+    }
+
+    /**
+     * ブロックを、状態も含めて置き換える変更を作る関数。元に戻す場合などに使う。
+     * BlockDataはメインスレッドで作成すること。
+     */
+    @Nonnull
+    static BlockChange set(int x, int y, int z, @Nonnull Material expected, @Nonnull BlockData data) {
+        return new BlockChange(x, y, z, expected, Action.SET, null, data);
+    }
+
+    /**
+     * ブロックを落下させる変更を作る関数
+     */
+    @Nonnull
+    static BlockChange fall(int x, int y, int z, @Nonnull Material expected) {
+        return new BlockChange(x, y, z, expected, Action.FALL, null, null);
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    int getZ() {
+        return z;
+    }
+
+    /**
+     * 適用する前のブロックの種類を返す関数
+     */
+    @Nonnull
+    Material getExpected() {
+        return expected;
+    }
+
+    @Nonnull
+    Action getAction() {
+        return action;
+    }
+
+    /**
+     * 置き換える先のブロックの種類を返す関数
+     * @return 状態も含めて置き換える場合や、落下させる場合はnull
+     */
+    @Nullable
+    Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * 置き換える先のブロックの状態を返す関数
+     * @return 種類だけで置き換える場合や、落下させる場合はnull
+     */
+    @Nullable
+    BlockData getData() {
+        return data;
+    }
+}
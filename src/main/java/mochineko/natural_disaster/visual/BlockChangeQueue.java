@@ -0,0 +1,224 @@
+package mochineko.natural_disaster.visual;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.FallingBlock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * ブロックの変更を、チャンクごとのまとまり（{@link Batch}）で順に適用するクラスです。
+ * 取得スレッドから {@link #submit(Batch)} で追加し、メインスレッドで {@link #tick(TickBudget)} を呼ぶと、
+ * tickの予算の範囲だけ適用して残りは次のtickに回します。
+ * 適用した変更は、元に戻すための変更として {@link Undo} に記録します。
+ */
+final class BlockChangeQueue {
+
+    /**
+     * 予算を確認する間隔（変更の数）
+     */
+    private static final int CHECK_INTERVAL = 16;
+
+    private final Queue<Batch> submitted = new ConcurrentLinkedQueue<>();
+    // メインスレッドからのみ触る
+    private final Deque<Batch> pending = new ArrayDeque<>();
+
+    /**
+     * 適用するまとまりを追加する関数。どのスレッドから呼んでもよい。
+     */
+    void submit(@Nonnull Batch batch) {
+        submitted.add(batch);
+    }
+
+    /**
+     * 予算の範囲で変更を適用する関数。メインスレッドで呼ぶこと。
+     * @return 適用した変更の数
+     */
+    int tick(@Nonnull TickBudget budget) {
+        Batch added;
+        while ((added = submitted.poll()) != null) {
+            pending.add(added);
+        }
+        int applied = 0;
+        while (!pending.isEmpty() && !budget.isExhausted()) {
+            Batch batch = pending.peek();
+            if (!batch.prepare()) {
+                pending.poll();
+                continue;
+            }
+            int count = 0;
+            while (batch.position < batch.changes.size() && count < CHECK_INTERVAL && budget.take(1) > 0) {
+                if (batch.apply(batch.changes.get(batch.position++))) {
+                    applied++;
+                }
+                count++;
+            }
+            if (batch.position >= batch.changes.size()) {
+                pending.poll();
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * まだ適用していない変更があるかを返す関数。メインスレッドで呼ぶこと。
+     */
+    boolean isEmpty() {
+        return pending.isEmpty() && submitted.isEmpty();
+    }
+
+    /**
+     * まだ適用していない変更を捨てる関数。メインスレッドで呼ぶこと。
+     */
+    void clear() {
+        submitted.clear();
+        pending.clear();
+    }
+
+    /**
+     * 変更を、チャンクごとに分けてまとまりにする関数
+     * @param undo 元に戻すための変更の記録先（nullの場合は記録しない）
+     * @param loadChunks 読み込まれていないチャンクを読み込んで適用するかどうか（元に戻す場合に使う）
+     */
+    @Nonnull
+    static List<Batch> split(@Nonnull World world, @Nonnull List<BlockChange> changes, @Nullable Undo undo, boolean loadChunks) {
+        Map<Long, List<BlockChange>> chunks = new HashMap<>();
+        for (BlockChange change : changes) {
+            long key = ((long) (change.getX() >> 4) << 32) | ((change.getZ() >> 4) & 0xFFFFFFFFL);
+            chunks.computeIfAbsent(key, k -> new ArrayList<>()).add(change);
+        }
+        List<Batch> batches = new ArrayList<>(chunks.size());
+        for (Map.Entry<Long, List<BlockChange>> entry : chunks.entrySet()) {
+            batches.add(new Batch(world, (int) (entry.getKey() >> 32), (int) (long) entry.getKey(), entry.getValue(), undo, loadChunks));
+        }
+        return batches;
+    }
+
+    /**
+     * 1つのチャンクに適用する変更のまとまりです。
+     */
+    static final class Batch {
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private final List<BlockChange> changes;
+        @Nullable
+        private final Undo undo;
+        private final boolean loadChunk;
+        private int position;
+
+        Batch(@Nonnull World world, int chunkX, int chunkZ, @Nonnull List<BlockChange> changes, @Nullable Undo undo, boolean loadChunk) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.changes = changes;
+            this.undo = undo;
+            this.loadChunk = loadChunk;
+        }
+
+        /**
+         * 適用を始められるかを返す。チャンクが読み込まれていない場合は、読み込む設定のときだけ読み込む
+         */
+        private boolean prepare() {
+            if (world.isChunkLoaded(chunkX, chunkZ)) {
+                return true;
+            }
+            if (!loadChunk) {
+                return false;
+            }
+            world.getChunkAt(chunkX, chunkZ);
+            return true;
+        }
+
+        private boolean apply(BlockChange change) {
+            Block block = world.getBlockAt(change.getX(), change.getY(), change.getZ());
+            Material current = block.getType();
+            if (current != change.getExpected()) {
+                // 写しを作った後にプレイヤーなどが変更した場合
+                return false;
+            }
+            BlockData original = block.getBlockData();
+            Material after;
+            switch (change.getAction()) {
+                case FALL -> {
+                    block.setType(Material.AIR, false);
+                    FallingBlock falling = world.spawnFallingBlock(
+                            new Location(world, change.getX() + 0.5, change.getY(), change.getZ() + 0.5), original);
+                    falling.setDropItem(false);
+                    if (undo != null && undo.fallingBlocks != null) {
+                        undo.fallingBlocks.accept(falling.getUniqueId());
+                    }
+                    after = Material.AIR;
+                }
+                case SET -> {
+                    if (change.getData() != null) {
+                        block.setBlockData(change.getData(), false);
+                        after = change.getData().getMaterial();
+                    } else {
+                        block.setType(change.getMaterial(), false);
+                        after = change.getMaterial();
+                    }
+                }
+                default -> throw new IllegalStateException();
+            }
+            if (undo != null) {
+                undo.changes.add(BlockChange.set(change.getX(), change.getY(), change.getZ(), after, original));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 適用した変更を元に戻すための記録です。メインスレッドからのみ触ります。
+     */
+    static final class Undo {
+        private final List<BlockChange> changes = new ArrayList<>();
+        @Nullable
+        private final Consumer<UUID> fallingBlocks;
+
+        Undo() {
+            this(null);
+        }
+
+        /**
+         * @param fallingBlocks 落下させたブロックのエンティティを受け取る関数（着地させない場合に使う）
+         */
+        Undo(@Nullable Consumer<UUID> fallingBlocks) {
+            this.fallingBlocks = fallingBlocks;
+        }
+
+        /**
+         * 元に戻すためのまとまりを作り、記録を空にする関数。後から適用したものから順に戻す
+         */
+        @Nonnull
+        List<Batch> drain(@Nonnull World world) {
+            List<BlockChange> reversed = new ArrayList<>(changes.size());
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                reversed.add(changes.get(i));
+            }
+            changes.clear();
+            return split(world, reversed, null, true);
+        }
+
+        /**
+         * 記録している変更の数を返す関数
+         */
+        int size() {
+            return changes.size();
+        }
+    }
+}
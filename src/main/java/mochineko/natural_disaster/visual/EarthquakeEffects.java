@@ -0,0 +1,537 @@
+package mochineko.natural_disaster.visual;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.api.P2PEarthquakeAPI;
+import mochineko.natural_disaster.geo.GeoIndex;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.Vector;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * 地震情報の震度に応じて、ワールドを揺らすクラスです。
+ * 観測点の震度を {@link GeoIndex} の地点（位置が分からない観測点は都道府県の代表地点）ごとにまとめ、そこからの距離で震度を弱めながら、
+ * プレイヤーの揺れ・ブロックの落下・建物の損傷を起こします。
+ *
+ * <p>どのブロックを変えるかは、メインスレッドで作ったチャンクの写しから {@link AsyncLane} で計算し、
+ * 変更はチャンクごとのまとまりで {@link BlockChangeQueue} から tick の予算の範囲だけ適用します。
+ * 変えたブロックは、設定した時間が経つと同じように少しずつ元に戻します。</p>
+ */
+public final class EarthquakeEffects {
+
+    /**
+     * ひびが入ったブロックへの変換表
+     */
+    private static final Map<Material, Material> CRACKED = new EnumMap<>(Material.class);
+
+    static {
+        CRACKED.put(Material.STONE_BRICKS, Material.CRACKED_STONE_BRICKS);
+        CRACKED.put(Material.DEEPSLATE_BRICKS, Material.CRACKED_DEEPSLATE_BRICKS);
+        CRACKED.put(Material.DEEPSLATE_TILES, Material.CRACKED_DEEPSLATE_TILES);
+        CRACKED.put(Material.NETHER_BRICKS, Material.CRACKED_NETHER_BRICKS);
+        CRACKED.put(Material.POLISHED_BLACKSTONE_BRICKS, Material.CRACKED_POLISHED_BLACKSTONE_BRICKS);
+    }
+
+    private static volatile Settings settings;
+    private static BukkitTask task;
+    private static FallingBlockListener listener;
+    // メインスレッドからのみ触る
+    private static final Map<String, Quake> quakes = new LinkedHashMap<>();
+    private static final Deque<ChunkRequest> snapshots = new ArrayDeque<>();
+    private static final BlockChangeQueue queue = new BlockChangeQueue();
+    private static final AsyncLane lane = new AsyncLane("地震の効果");
+
+    private EarthquakeEffects() {
+    }
+
+    /**
+     * 効果の設定を読み込む関数。メインスレッドで呼ぶこと。
+     * 前の設定で変えたブロックは、すべて元に戻してから読み込む。
+     * @param section config.ymlの「visual」セクション
+     */
+    public static void configure(@Nullable ConfigurationSection section) {
+        stop();
+        ConfigurationSection earthquake = section == null ? null : section.getConfigurationSection("earthquake");
+        if (earthquake == null || !earthquake.getBoolean("enabled", false)) {
+            return;
+        }
+        Settings loaded;
+        try {
+            ConfigurationSection map = section.getConfigurationSection("map");
+            if (map == null) {
+                throw new IllegalArgumentException("「map」がありません");
+            }
+            loaded = new Settings(section.getString("world", "world"), WorldProjection.of(map), earthquake);
+        } catch (IllegalArgumentException e) {
+            Bukkit.getLogger().warning("地震の効果の設定が正しくないため、使いません：" + e.getMessage());
+            return;
+        }
+        settings = loaded;
+        Main plugin = Main.getPlugin(Main.class);
+        if (loaded.restoreMillis > 0) {
+            listener = new FallingBlockListener();
+            Bukkit.getPluginManager().registerEvents(listener, plugin);
+        }
+        task = Bukkit.getScheduler().runTaskTimer(plugin, EarthquakeEffects::tick, 1, 1);
+    }
+
+    /**
+     * 効果を止め、変えたブロックをすべて元に戻す関数。メインスレッドで呼ぶこと。
+     * 無効化のときにも呼ばれるため、予算を使わずにその場で戻す。
+     */
+    public static void stop() {
+        Settings current = settings;
+        settings = null;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        lane.clear();
+        snapshots.clear();
+        queue.clear();
+        if (current != null) {
+            World world = Bukkit.getWorld(current.world);
+            if (world != null) {
+                for (Quake quake : quakes.values()) {
+                    quake.undo.drain(world).forEach(queue::submit);
+                }
+                TickBudget unlimited = new TickBudget(Long.MAX_VALUE / 4, Integer.MAX_VALUE);
+                unlimited.begin();
+                queue.tick(unlimited);
+            }
+        }
+        quakes.clear();
+        if (listener != null) {
+            HandlerList.unregisterAll(listener);
+            listener = null;
+        }
+    }
+
+    /**
+     * 地震情報の震度に応じて効果を始める関数。取得スレッドから呼ばれる。
+     * 同じ地震の続報（震度速報の後の震源・震度に関する情報など）では、効果を重ねない。
+     */
+    public static void apply(@Nonnull P2PEarthquakeAPI api) {
+        Settings current = settings;
+        P2PEarthquakeAPI.Earthquake earthquake = api.getEarthquake();
+        if (current == null || earthquake == null || earthquake.getTime() == null) {
+            return;
+        }
+        List<Site> sites = sites(current, api);
+        if (sites.isEmpty()) {
+            return;
+        }
+        String key = earthquake.getTime();
+        DisasterExecutor.runSync("earthquake-effects", () -> {
+            if (settings == current && !quakes.containsKey(key)) {
+                start(current, key, sites);
+            }
+        });
+    }
+
+    /**
+     * 観測点の震度を地点（{@link GeoIndex}）ごとにまとめ、表示する範囲にある地点を返す。
+     * 観測点の位置が分からない場合は、都道府県の代表地点にまとめる
+     */
+    private static List<Site> sites(Settings current, P2PEarthquakeAPI api) {
+        Map<Integer, Integer> scales = new HashMap<>();
+        if (api.getPoints() != null) {
+            for (P2PEarthquakeAPI.Point point : api.getPoints()) {
+                int id = GeoIndex.locate(point.getAddr(), point.getPref());
+                int scale = level(point.getScaleType());
+                if (id >= 0 && scale >= current.shakeFrom) {
+                    scales.merge(id, scale, Math::max);
+                }
+            }
+        }
+        List<Site> sites = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : scales.entrySet()) {
+            double latitude = GeoIndex.getLatitude(entry.getKey());
+            double longitude = GeoIndex.getLongitude(entry.getKey());
+            if (current.projection.contains(latitude, longitude)) {
+                sites.add(new Site(current.projection.toX(longitude), current.projection.toZ(latitude), entry.getValue()));
+            }
+        }
+        // 観測点が無い場合（震源に関する情報など）は、震源に最大震度を置く
+        P2PEarthquakeAPI.Earthquake.Hypocenter hypocenter = api.getEarthquake().getHypocenter();
+        int maxScale = level(api.getEarthquake().getMaxScaleType());
+        if (sites.isEmpty() && hypocenter != null && maxScale >= current.shakeFrom
+                && current.projection.contains(hypocenter.getLatitude(), hypocenter.getLongitude())) {
+            sites.add(new Site(current.projection.toX(hypocenter.getLongitude()), current.projection.toZ(hypocenter.getLatitude()), maxScale));
+        }
+        return sites;
+    }
+
+    /**
+     * 震度をP2P地震情報の値（10～70）で返す。震度5弱以上と推定される場合は震度5弱として扱う
+     * @return 不明な場合は-1
+     */
+    private static int level(@Nullable EarthquakeScaleType type) {
+        if (type == null) {
+            return -1;
+        }
+        return type == EarthquakeScaleType.NODATA ? EarthquakeScaleType.FIVE_LOW.toP2PAPI() : type.toP2PAPI();
+    }
+
+    /**
+     * 効果を始め、ブロックを変える範囲の読み込まれているチャンクを写しの待ちに入れる。メインスレッドで呼ばれる
+     */
+    private static void start(Settings current, String key, List<Site> sites) {
+        long now = System.currentTimeMillis();
+        Quake quake = new Quake(key, sites, now, current);
+        quakes.put(key, quake);
+        World world = Bukkit.getWorld(current.world);
+        if (world == null || (current.fallingChance <= 0 && current.damageChance <= 0)) {
+            return;
+        }
+        Set<Long> chunks = new HashSet<>();
+        for (Site site : sites) {
+            double radius = Math.min(current.maxRadius, current.radius(site.scale, current.fallingFrom));
+            if (radius <= 0) {
+                continue;
+            }
+            int minChunkX = (int) Math.floor((site.x - radius) / 16);
+            int maxChunkX = (int) Math.floor((site.x + radius) / 16);
+            int minChunkZ = (int) Math.floor((site.z - radius) / 16);
+            int maxChunkZ = (int) Math.floor((site.z + radius) / 16);
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    if (world.isChunkLoaded(chunkX, chunkZ) && chunks.add(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL))) {
+                        snapshots.add(new ChunkRequest(quake, chunkX, chunkZ));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 毎tick呼ばれ、揺れ・チャンクの写し・ブロックの変更・元に戻す処理を予算の範囲で進める
+     */
+    private static void tick() {
+        Settings current = settings;
+        if (current == null || (quakes.isEmpty() && queue.isEmpty())) {
+            return;
+        }
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        World world = Bukkit.getWorld(current.world);
+        if (world == null) {
+            return;
+        }
+        current.budget.begin();
+        shake(current, world, now);
+        int captured = 0;
+        while (!snapshots.isEmpty() && captured < current.maxSnapshots && !current.budget.isExhausted()) {
+            ChunkRequest request = snapshots.poll();
+            if (!world.isChunkLoaded(request.chunkX, request.chunkZ)) {
+                continue;
+            }
+            ChunkSnapshot snapshot = world.getChunkAt(request.chunkX, request.chunkZ).getChunkSnapshot();
+            int minY = world.getMinHeight();
+            lane.submit(() -> {
+                List<BlockChange> changes = compute(current, request.quake, snapshot, minY);
+                if (!changes.isEmpty()) {
+                    queue.submit(new BlockChangeQueue.Batch(world, request.chunkX, request.chunkZ, changes, request.quake.undo, false));
+                }
+            });
+            captured++;
+        }
+        queue.tick(current.budget);
+        restore(current, world, now);
+        Metrics.MAIN_THREAD.get("earthquake-effects").observeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * 揺れている範囲にいるプレイヤーを、震度に応じた強さで小刻みに動かす
+     */
+    private static void shake(Settings current, World world, long now) {
+        // 2tickに1回だけ動かし、揺れに見えるようにする
+        if ((now / 50) % 2 != 0) {
+            return;
+        }
+        for (Player player : world.getPlayers()) {
+            if (!player.isOnGround()) {
+                continue;
+            }
+            Location location = player.getLocation();
+            double local = -1;
+            for (Quake quake : quakes.values()) {
+                if (now < quake.shakeUntil) {
+                    local = Math.max(local, quake.localScale(current, location.getX(), location.getZ()));
+                }
+            }
+            if (local < current.shakeFrom) {
+                continue;
+            }
+            double strength = current.shakeStrength * (1 + (local - current.shakeFrom) / 10);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            player.setVelocity(player.getVelocity().add(new Vector(
+                    random.nextDouble(-strength, strength), 0, random.nextDouble(-strength, strength))));
+        }
+    }
+
+    /**
+     * 元に戻す時刻を過ぎ、変更がすべて終わった地震のブロックを元に戻す
+     */
+    private static void restore(Settings current, World world, long now) {
+        boolean idle = snapshots.isEmpty() && lane.isIdle() && queue.isEmpty();
+        if (!idle) {
+            return;
+        }
+        quakes.values().removeIf(quake -> {
+            if (now < quake.shakeUntil || (current.restoreMillis > 0 && now < quake.start + current.restoreMillis)) {
+                return false;
+            }
+            if (current.restoreMillis > 0) {
+                quake.undo.drain(world).forEach(queue::submit);
+            }
+            return true;
+        });
+        if (quakes.isEmpty() && listener != null) {
+            listener.clear();
+        }
+    }
+
+    /**
+     * チャンクの写しから、落下・損傷させるブロックを選ぶ。非同期で呼ばれる
+     */
+    private static List<BlockChange> compute(Settings current, Quake quake, ChunkSnapshot snapshot, int minY) {
+        List<BlockChange> changes = new ArrayList<>();
+        SplittableRandom random = new SplittableRandom(quake.seed ^ (snapshot.getX() * 0x9E3779B97F4A7C15L) ^ snapshot.getZ());
+        int baseX = snapshot.getX() << 4;
+        int baseZ = snapshot.getZ() << 4;
+        for (int x = 0; x < 16 && changes.size() < current.maxChangesPerChunk; x++) {
+            for (int z = 0; z < 16 && changes.size() < current.maxChangesPerChunk; z++) {
+                double local = quake.localScale(current, baseX + x + 0.5, baseZ + z + 0.5);
+                if (local < current.fallingFrom && local < current.damageFrom) {
+                    continue;
+                }
+                double falling = local >= current.fallingFrom ? current.fallingChance * (1 + (local - current.fallingFrom) / 10) : 0;
+                double damage = local >= current.damageFrom ? current.damageChance * (1 + (local - current.damageFrom) / 10) : 0;
+                int top = snapshot.getHighestBlockYAt(x, z);
+                int bottom = Math.max(minY + 1, top - current.scanDepth);
+                for (int y = top; y >= bottom && changes.size() < current.maxChangesPerChunk; y--) {
+                    Material material = snapshot.getBlockType(x, y, z);
+                    if (material.isAir()) {
+                        continue;
+                    }
+                    if (damage > 0 && current.fragile.contains(material) && random.nextDouble() < damage) {
+                        changes.add(BlockChange.set(baseX + x, y, baseZ + z, material, Material.AIR));
+                    } else if (damage > 0 && CRACKED.containsKey(material) && random.nextDouble() < damage) {
+                        changes.add(BlockChange.set(baseX + x, y, baseZ + z, material, CRACKED.get(material)));
+                    } else if (falling > 0 && current.falling.contains(material)
+                            && snapshot.getBlockType(x, y - 1, z).isAir() && random.nextDouble() < falling) {
+                        changes.add(BlockChange.fall(baseX + x, y, baseZ + z, material));
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 設定の値をまとめたクラスです。読み込み直すと作り直されます。
+     */
+    private static final class Settings {
+        private final String world;
+        private final WorldProjection projection;
+        private final TickBudget budget;
+        private final int shakeFrom;
+        private final int fallingFrom;
+        private final int damageFrom;
+        private final double falloff;
+        private final double maxRadius;
+        private final long shakeMillis;
+        private final long shakeMillisPerLevel;
+        private final double shakeStrength;
+        private final double fallingChance;
+        private final double damageChance;
+        private final int scanDepth;
+        private final int maxChangesPerChunk;
+        private final int maxSnapshots;
+        private final long restoreMillis;
+        private final Set<Material> falling;
+        private final Set<Material> fragile;
+
+        private Settings(String world, WorldProjection projection, ConfigurationSection section) {
+            this.world = world;
+            this.projection = projection;
+            budget = new TickBudget((long) (Math.max(0.1, section.getDouble("max-millis-per-tick", 5.0)) * 1_000_000L),
+                    Math.max(1, section.getInt("max-blocks-per-tick", 400)));
+            shakeFrom = scale(section.getString("shake-from", "3"));
+            fallingFrom = scale(section.getString("falling-from", "5-"));
+            damageFrom = scale(section.getString("damage-from", "6-"));
+            falloff = Math.max(1, section.getDouble("falloff", 48));
+            maxRadius = Math.max(0, section.getDouble("max-radius", 192));
+            shakeMillis = Math.max(0, section.getLong("shake-seconds", 8)) * 1000L;
+            shakeMillisPerLevel = Math.max(0, section.getLong("shake-seconds-per-level", 4)) * 1000L;
+            shakeStrength = Math.max(0, section.getDouble("shake-strength", 0.04));
+            fallingChance = Math.max(0, section.getDouble("falling-chance", 0.02));
+            damageChance = Math.max(0, section.getDouble("damage-chance", 0.05));
+            scanDepth = Math.max(1, section.getInt("scan-depth", 16));
+            maxChangesPerChunk = Math.max(0, section.getInt("max-changes-per-chunk", 48));
+            maxSnapshots = Math.max(1, section.getInt("max-snapshots-per-tick", 4));
+            restoreMillis = Math.max(0, section.getLong("restore-after-seconds", 300)) * 1000L;
+            falling = materials(section.getStringList("falling-materials"));
+            fragile = materials(section.getStringList("fragile-materials"));
+        }
+
+        /**
+         * 震度が threshold まで弱まる、地点からの距離（ブロック）を返す
+         */
+        private double radius(int scale, int threshold) {
+            return (scale - threshold) / 10.0 * falloff;
+        }
+
+        private static int scale(@Nullable String value) {
+            EarthquakeScaleType type = value == null ? null : EarthquakeScaleType.convertJMA(value);
+            if (type == null || type == EarthquakeScaleType.NODATA) {
+                throw new IllegalArgumentException("震度の指定が正しくありません：" + value);
+            }
+            return type.toP2PAPI();
+        }
+
+        /**
+         * 「*」を使ったブロックの名前の指定（例：*_STAIRS）から、当てはまるブロックを集める
+         */
+        private static Set<Material> materials(List<String> patterns) {
+            Set<Material> materials = EnumSet.noneOf(Material.class);
+            for (String pattern : patterns) {
+                Pattern regex = Pattern.compile(Pattern.quote(pattern.toUpperCase(Locale.ROOT)).replace("*", "\\E.*\\Q"));
+                for (Material material : Material.values()) {
+                    if (material.isBlock() && !material.name().startsWith("LEGACY_") && regex.matcher(material.name()).matches()) {
+                        materials.add(material);
+                    }
+                }
+            }
+            return materials;
+        }
+    }
+
+    /**
+     * 震度の中心となる地点です。
+     */
+    private static final class Site {
+        private final double x;
+        private final double z;
+        private final int scale;
+
+        private Site(double x, double z, int scale) {
+            this.x = x;
+            this.z = z;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * 1つの地震の効果の状態です。メインスレッドからのみ触ります（{@link #localScale} は非同期からも呼ばれます）。
+     */
+    private static final class Quake {
+        private final List<Site> sites;
+        private final long start;
+        private final long shakeUntil;
+        private final long seed;
+        private final BlockChangeQueue.Undo undo;
+
+        private Quake(String key, List<Site> sites, long start, Settings settings) {
+            this.sites = sites;
+            this.start = start;
+            int max = 0;
+            for (Site site : sites) {
+                max = Math.max(max, site.scale);
+            }
+            shakeUntil = start + settings.shakeMillis + settings.shakeMillisPerLevel * Math.max(0, max - settings.shakeFrom) / 10;
+            seed = key.hashCode();
+            undo = new BlockChangeQueue.Undo(uuid -> {
+                if (listener != null) {
+                    listener.track(uuid);
+                }
+            });
+        }
+
+        /**
+         * 指定した座標での震度を、P2P地震情報の値で返す。最も強い地点からの距離で弱める
+         */
+        private double localScale(Settings settings, double x, double z) {
+            double scale = -1;
+            for (Site site : sites) {
+                double dx = x - site.x;
+                double dz = z - site.z;
+                double distance = Math.sqrt(dx * dx + dz * dz);
+                if (distance <= settings.maxRadius) {
+                    scale = Math.max(scale, site.scale - distance / settings.falloff * 10);
+                }
+            }
+            return scale;
+        }
+    }
+
+    /**
+     * 写しを作るチャンクです。
+     */
+    private static final class ChunkRequest {
+        private final Quake quake;
+        private final int chunkX;
+        private final int chunkZ;
+
+        private ChunkRequest(Quake quake, int chunkX, int chunkZ) {
+            this.quake = quake;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+    }
+
+    /**
+     * 元に戻す設定の場合に、落下させたブロックを着地させずに消すためのリスナーです。
+     */
+    private static final class FallingBlockListener implements Listener {
+        private final Set<UUID> tracked = new HashSet<>();
+
+        private void track(UUID uuid) {
+            tracked.add(uuid);
+        }
+
+        private void clear() {
+            tracked.clear();
+        }
+
+        @EventHandler(ignoreCancelled = true)
+        public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+            if (tracked.remove(event.getEntity().getUniqueId())) {
+                event.setCancelled(true);
+                event.getEntity().remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package mochineko.natural_disaster.visual;
+
+/**
+ * 1tickの中で使ってよい時間と描画の数を数えるクラスです。メインスレッドからのみ使います。
+ * 使い切った場合は残りを次のtickに回し、プレイヤーが多くてもtickの処理時間が一定以上に伸びないようにします。
+ */
+final class TickBudget {
+
+    private final long maxNanos;
+    private final int maxCount;
+    private long deadline;
+    private int remaining;
+
+    /**
+     * @param maxNanos 1tickで使ってよい時間（ナノ秒）
+     * @param maxCount 1tickで描画してよい数
+     */
+    TickBudget(long maxNanos, int maxCount) {
+        this.maxNanos = maxNanos;
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * tickの処理の最初に呼ぶ関数
+     */
+    void begin() {
+        deadline = System.nanoTime() + maxNanos;
+        remaining = maxCount;
+    }
+
+    /**
+     * このtickで描画してよい数を返す関数
+     * @param wanted 描画したい数
+     * @return wanted 以下の数。使い切った場合は0
+     */
+    int take(int wanted) {
+        int taken = Math.min(wanted, remaining);
+        remaining -= taken;
+        return taken;
+    }
+
+    /**
+     * 使わなかった分を戻す関数
+     */
+    void refund(int count) {
+        remaining += count;
+    }
+
+    /**
+     * このtickの時間か描画の数を使い切ったかを返す関数
+     */
+    boolean isExhausted() {
+        return remaining <= 0 || System.nanoTime() >= deadline;
+    }
+}
@@ -0,0 +1,81 @@
+package mochineko.natural_disaster.visual;
+
+/**
+ * 震源の深さと地震の発生からの経過時間から、P波・S波が地表のどこまで届いたか（震央距離）を引く表です。
+ * 速度が一定の地下構造を仮定し、深さ5kmごと・0.25秒ごとの値を作成時に計算しておきます。
+ * 描画のたびに平方根を計算せず、表の補間だけで波面の半径を求めます。
+ */
+final class TravelTimeTable {
+
+    /**
+     * 地震波の種類
+     */
+    enum Phase {
+        P,
+        S
+    }
+
+    private static final double DEPTH_STEP = 5.0;
+    private static final double MAX_DEPTH = 700.0;
+    private static final double TIME_STEP = 0.25;
+
+    private final float[][] p;
+    private final float[][] s;
+    private final double maxSeconds;
+
+    /**
+     * @param pVelocity P波の速度（km/s）
+     * @param sVelocity S波の速度（km/s）
+     * @param maxSeconds 表に含める、地震の発生からの時間（秒）
+     */
+    TravelTimeTable(double pVelocity, double sVelocity, double maxSeconds) {
+        this.maxSeconds = maxSeconds;
+        int depths = (int) (MAX_DEPTH / DEPTH_STEP) + 1;
+        int times = (int) Math.ceil(maxSeconds / TIME_STEP) + 1;
+        p = new float[depths][];
+        s = new float[depths][];
+        for (int i = 0; i < depths; i++) {
+            p[i] = row(pVelocity, i * DEPTH_STEP, times);
+            s[i] = row(sVelocity, i * DEPTH_STEP, times);
+        }
+    }
+
+    private static float[] row(double velocity, double depth, int times) {
+        float[] row = new float[times];
+        for (int t = 0; t < times; t++) {
+            double distance = velocity * t * TIME_STEP;
+            // まだ地表に届いていない場合は-1
+            row[t] = distance < depth ? -1f : (float) Math.sqrt(distance * distance - depth * depth);
+        }
+        return row;
+    }
+
+    /**
+     * 波面の、震央からの距離を返す関数
+     * @param depth 震源の深さ（km）
+     * @param seconds 地震の発生からの経過時間（秒）
+     * @return 距離（km）。まだ地表に届いていない場合や、表の範囲外の場合は-1
+     */
+    double radius(Phase phase, double depth, double seconds) {
+        if (seconds < 0 || seconds >= maxSeconds) {
+            return -1;
+        }
+        int depthIndex = (int) Math.round(Math.min(Math.max(depth, 0), MAX_DEPTH) / DEPTH_STEP);
+        float[] row = (phase == Phase.P ? p : s)[depthIndex];
+        double position = seconds / TIME_STEP;
+        int index = (int) position;
+        float upper = row[Math.min(index + 1, row.length - 1)];
+        if (upper < 0) {
+            return -1;
+        }
+        float lower = Math.max(row[index], 0f);
+        return lower + (upper - lower) * (position - index);
+    }
+
+    /**
+     * 表に含まれる時間（秒）を返す関数
+     */
+    double getMaxSeconds() {
+        return maxSeconds;
+    }
+}
@@ -0,0 +1,538 @@
+package mochineko.natural_disaster.visual;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.api.P2PTsunamiAPI;
+import mochineko.natural_disaster.delivery.Regions;
+import mochineko.natural_disaster.geo.GeoIndex;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import mochineko.natural_disaster.status.TsunamiGrade;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * 津波予報の予想の高さまで、沿岸を水で満たすクラスです。
+ * 予報区を都道府県ごとにまとめて、{@link GeoIndex} の都道府県の代表地点に置き、その周りの海（海面の高さの水）から、
+ * 予想の高さより低い陸地へ広がるように水を置きます。
+ *
+ * <p>広がる先は {@link AsyncLane} でチャンクの写しから少しずつ求め、まだ写しが無いチャンクに届いた場合は、
+ * 写しが届くまでそこで止めておきます。水の設置はチャンクごとのまとまりで {@link BlockChangeQueue} から tick の予算の範囲だけ行い、
+ * 予報が解除されるか設定した時間が経つと、置いた水だけを同じように少しずつ取り除きます。
+ * 置いた水が範囲の外へ流れ出さないよう、浸水している範囲では水の流れを止めます。</p>
+ */
+public final class TsunamiFlood {
+
+    /**
+     * 1回の計算で調べる列の数。多くの範囲を同時に計算するときに、1つの範囲が他を待たせないようにする
+     */
+    private static final int STEP_COLUMNS = 4096;
+
+    private static volatile Settings settings;
+    private static BukkitTask task;
+    private static FlowListener listener;
+    // メインスレッドからのみ触る
+    private static final Map<String, Flood> floods = new HashMap<>();
+    private static final Deque<ChunkRequest> snapshots = new ArrayDeque<>();
+    private static final BlockChangeQueue queue = new BlockChangeQueue();
+    private static final AsyncLane lane = new AsyncLane("津波の浸水");
+
+    private TsunamiFlood() {
+    }
+
+    /**
+     * 浸水の設定を読み込む関数。メインスレッドで呼ぶこと。
+     * 前の設定で置いた水は、すべて取り除いてから読み込む。
+     * @param section config.ymlの「visual」セクション
+     */
+    public static void configure(@Nullable ConfigurationSection section) {
+        stop();
+        ConfigurationSection tsunami = section == null ? null : section.getConfigurationSection("tsunami");
+        if (tsunami == null || !tsunami.getBoolean("enabled", false)) {
+            return;
+        }
+        Settings loaded;
+        try {
+            ConfigurationSection map = section.getConfigurationSection("map");
+            if (map == null) {
+                throw new IllegalArgumentException("「map」がありません");
+            }
+            loaded = new Settings(section.getString("world", "world"), WorldProjection.of(map), tsunami);
+        } catch (IllegalArgumentException e) {
+            Bukkit.getLogger().warning("津波の浸水の設定が正しくないため、使いません：" + e.getMessage());
+            return;
+        }
+        settings = loaded;
+        Main plugin = Main.getPlugin(Main.class);
+        listener = new FlowListener();
+        Bukkit.getPluginManager().registerEvents(listener, plugin);
+        task = Bukkit.getScheduler().runTaskTimer(plugin, TsunamiFlood::tick, 1, 1);
+    }
+
+    /**
+     * 浸水を止め、置いた水をすべて取り除く関数。メインスレッドで呼ぶこと。
+     * 無効化のときにも呼ばれるため、予算を使わずにその場で取り除く。
+     */
+    public static void stop() {
+        Settings current = settings;
+        settings = null;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        lane.clear();
+        snapshots.clear();
+        queue.clear();
+        if (current != null) {
+            World world = Bukkit.getWorld(current.world);
+            if (world != null) {
+                for (Flood flood : floods.values()) {
+                    flood.cancelled = true;
+                    flood.undo.drain(world).forEach(queue::submit);
+                }
+                TickBudget unlimited = new TickBudget(Long.MAX_VALUE / 4, Integer.MAX_VALUE);
+                unlimited.begin();
+                queue.tick(unlimited);
+            }
+        }
+        floods.clear();
+        if (listener != null) {
+            HandlerList.unregisterAll(listener);
+            listener = null;
+        }
+    }
+
+    /**
+     * 津波予報に合わせて浸水させる範囲を更新する関数。取得スレッドから呼ばれる。
+     * 予報に無くなった都道府県の水は取り除き、新しく加わった都道府県を浸水させる。
+     */
+    public static void update(@Nonnull P2PTsunamiAPI api) {
+        Settings current = settings;
+        if (current == null) {
+            return;
+        }
+        // 都道府県ごとに、最も高い予想の高さ（ブロック）にまとめる
+        Map<String, Integer> heights = new HashMap<>();
+        if (api.getArea() != null && !api.isCancelled()) {
+            for (P2PTsunamiAPI.Area area : api.getArea()) {
+                int height = current.height(area);
+                if (height > 0) {
+                    for (String region : Regions.ofTsunamiArea(area.getName())) {
+                        heights.merge(region, height, Math::max);
+                    }
+                }
+            }
+        }
+        Map<String, Site> sites = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : heights.entrySet()) {
+            int id = GeoIndex.find(entry.getKey());
+            if (id >= 0 && current.projection.contains(GeoIndex.getLatitude(id), GeoIndex.getLongitude(id))) {
+                sites.put(entry.getKey(), new Site(current.projection.toX(GeoIndex.getLongitude(id)),
+                        current.projection.toZ(GeoIndex.getLatitude(id)), entry.getValue()));
+            }
+        }
+        DisasterExecutor.runSync("tsunami-flood", () -> {
+            if (settings == current) {
+                apply(current, sites);
+            }
+        });
+    }
+
+    /**
+     * 浸水させる範囲を入れ替える。メインスレッドで呼ばれる
+     */
+    private static void apply(Settings current, Map<String, Site> sites) {
+        World world = Bukkit.getWorld(current.world);
+        if (world == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Flood> entry : floods.entrySet()) {
+            Site site = sites.get(entry.getKey());
+            if (site == null || site.height != entry.getValue().site.height) {
+                entry.getValue().cancelled = true;
+            }
+        }
+        for (Map.Entry<String, Site> entry : sites.entrySet()) {
+            Flood existing = floods.get(entry.getKey());
+            if (existing != null && !existing.cancelled) {
+                continue;
+            }
+            if (existing != null) {
+                // 高さが変わった場合は、取り除き終わってから浸水させ直す
+                existing.replacement = entry.getValue();
+                continue;
+            }
+            start(current, world, entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /**
+     * 浸水を始め、範囲の読み込まれているチャンクを写しの待ちに入れる
+     */
+    private static void start(Settings current, World world, String region, Site site, long now) {
+        Flood flood = new Flood(site, world.getSeaLevel() - 1, now, current);
+        floods.put(region, flood);
+        int minChunkX = (int) Math.floor((site.x - current.radius) / 16);
+        int maxChunkX = (int) Math.floor((site.x + current.radius) / 16);
+        int minChunkZ = (int) Math.floor((site.z - current.radius) / 16);
+        int maxChunkZ = (int) Math.floor((site.z + current.radius) / 16);
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                if (world.isChunkLoaded(chunkX, chunkZ)) {
+                    snapshots.add(new ChunkRequest(flood, chunkX, chunkZ));
+                }
+            }
+        }
+        Bukkit.getLogger().info(region + "の浸水を始めます（高さ：" + site.height + "ブロック）。");
+    }
+
+    /**
+     * 毎tick呼ばれ、チャンクの写し・水の設置・取り除く処理を予算の範囲で進める
+     */
+    private static void tick() {
+        Settings current = settings;
+        if (current == null || (floods.isEmpty() && queue.isEmpty())) {
+            return;
+        }
+        World world = Bukkit.getWorld(current.world);
+        if (world == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        current.budget.begin();
+        int captured = 0;
+        while (!snapshots.isEmpty() && captured < current.maxSnapshots && !current.budget.isExhausted()) {
+            ChunkRequest request = snapshots.poll();
+            if (request.flood.cancelled || !world.isChunkLoaded(request.chunkX, request.chunkZ)) {
+                continue;
+            }
+            ChunkSnapshot snapshot = world.getChunkAt(request.chunkX, request.chunkZ).getChunkSnapshot();
+            lane.submit(() -> request.flood.onSnapshot(world, snapshot));
+            captured++;
+        }
+        queue.tick(current.budget);
+        restore(current, world, System.currentTimeMillis());
+        Metrics.MAIN_THREAD.get("tsunami-flood").observeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * 解除された浸水と、設定した時間が経った浸水の水を取り除く。計算と設置がすべて終わってから行う
+     */
+    private static void restore(Settings current, World world, long now) {
+        for (Flood flood : floods.values()) {
+            if (now >= flood.start + current.durationMillis) {
+                flood.cancelled = true;
+            }
+        }
+        if (!snapshots.isEmpty() || !lane.isIdle() || !queue.isEmpty()) {
+            return;
+        }
+        Map<String, Site> restart = new HashMap<>();
+        floods.entrySet().removeIf(entry -> {
+            Flood flood = entry.getValue();
+            if (!flood.cancelled) {
+                return false;
+            }
+            flood.undo.drain(world).forEach(queue::submit);
+            if (flood.replacement != null) {
+                restart.put(entry.getKey(), flood.replacement);
+            }
+            return true;
+        });
+        for (Map.Entry<String, Site> entry : restart.entrySet()) {
+            start(current, world, entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /**
+     * 水の流れが、浸水している範囲から始まる場合は止める
+     */
+    private static boolean isFlooding(Block block) {
+        Settings current = settings;
+        if (current == null) {
+            return false;
+        }
+        double radiusSquared = current.radius * current.radius;
+        for (Flood flood : floods.values()) {
+            double dx = block.getX() + 0.5 - flood.site.x;
+            double dz = block.getZ() + 0.5 - flood.site.z;
+            if (dx * dx + dz * dz <= radiusSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 設定の値をまとめたクラスです。読み込み直すと作り直されます。
+     */
+    private static final class Settings {
+        private final String world;
+        private final WorldProjection projection;
+        private final TickBudget budget;
+        private final TsunamiGrade floodFrom;
+        private final Map<TsunamiGrade, Double> defaultMeters = new EnumMap<>(TsunamiGrade.class);
+        private final double blocksPerMeter;
+        private final int maxHeight;
+        private final double radius;
+        private final int maxColumns;
+        private final int maxSnapshots;
+        private final long durationMillis;
+
+        private Settings(String world, WorldProjection projection, ConfigurationSection section) {
+            this.world = world;
+            this.projection = projection;
+            budget = new TickBudget((long) (Math.max(0.1, section.getDouble("max-millis-per-tick", 5.0)) * 1_000_000L),
+                    Math.max(1, section.getInt("max-blocks-per-tick", 2000)));
+            String from = section.getString("flood-from", "WARNING");
+            try {
+                floodFrom = TsunamiGrade.valueOf(from);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("津波の等級の指定が正しくありません：" + from);
+            }
+            defaultMeters.put(TsunamiGrade.MAJOR_WARNING, section.getDouble("default-meters.major-warning", 5.0));
+            defaultMeters.put(TsunamiGrade.WARNING, section.getDouble("default-meters.warning", 3.0));
+            defaultMeters.put(TsunamiGrade.WATCH, section.getDouble("default-meters.watch", 1.0));
+            blocksPerMeter = Math.max(0, section.getDouble("blocks-per-meter", 1.0));
+            maxHeight = Math.max(1, section.getInt("max-height", 12));
+            radius = Math.max(16, section.getDouble("radius", 160));
+            maxColumns = Math.max(1, section.getInt("max-columns", 80000));
+            maxSnapshots = Math.max(1, section.getInt("max-snapshots-per-tick", 4));
+            durationMillis = Math.max(1, section.getLong("max-minutes", 30)) * 60_000L;
+        }
+
+        /**
+         * 予報区の予想の高さを、海面からのブロック数で返す。浸水させない等級の場合は0
+         */
+        private int height(P2PTsunamiAPI.Area area) {
+            TsunamiGrade grade = area.getGradeType();
+            // 列挙型の順番は、強い等級が先
+            if (grade == null || !defaultMeters.containsKey(grade) || grade.ordinal() > floodFrom.ordinal()) {
+                return 0;
+            }
+            double meters = area.getMaxHeight() != null && area.getMaxHeight().getNumber() > 0
+                    ? area.getMaxHeight().getNumber() : defaultMeters.get(grade);
+            return (int) Math.min(maxHeight, Math.ceil(meters * blocksPerMeter));
+        }
+    }
+
+    /**
+     * 浸水の中心となる地点です。
+     */
+    private static final class Site {
+        private final double x;
+        private final double z;
+        private final int height;
+
+        private Site(double x, double z, int height) {
+            this.x = x;
+            this.z = z;
+            this.height = height;
+        }
+    }
+
+    /**
+     * 1つの都道府県の浸水の状態です。
+     * 広がる先の計算の状態は {@link AsyncLane} のスレッドからのみ触り、それ以外はメインスレッドからのみ触ります。
+     */
+    private static final class Flood {
+        private final Site site;
+        private final int seaSurface;
+        private final int level;
+        private final long start;
+        private final Settings settings;
+        private final BlockChangeQueue.Undo undo = new BlockChangeQueue.Undo();
+        private volatile boolean cancelled;
+        @Nullable
+        private Site replacement;
+
+        // 以下は非同期の計算からのみ触る
+        private final Map<Long, ChunkSnapshot> chunks = new HashMap<>();
+        private final Map<Long, List<Long>> waiting = new HashMap<>();
+        private final Set<Long> visited = new HashSet<>();
+        private final Queue<Long> frontier = new ArrayDeque<>();
+        private boolean scheduled;
+
+        private Flood(Site site, int seaSurface, long start, Settings settings) {
+            this.site = site;
+            this.seaSurface = seaSurface;
+            this.level = seaSurface + site.height;
+            this.start = start;
+            this.settings = settings;
+        }
+
+        /**
+         * チャンクの写しが届いたときに呼ばれる。海の列を起点に加え、そのチャンクで止めていた列を再開する
+         */
+        private void onSnapshot(World world, ChunkSnapshot snapshot) {
+            if (cancelled) {
+                return;
+            }
+            long key = chunkKey(snapshot.getX(), snapshot.getZ());
+            chunks.put(key, snapshot);
+            int baseX = snapshot.getX() << 4;
+            int baseZ = snapshot.getZ() << 4;
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    if (isSea(snapshot, x, z)) {
+                        enqueue(baseX + x, baseZ + z);
+                    }
+                }
+            }
+            List<Long> resumed = waiting.remove(key);
+            if (resumed != null) {
+                frontier.addAll(resumed);
+            }
+            // 続きの計算が既に待っている場合は、そちらで進める
+            if (!scheduled) {
+                step(world);
+            }
+        }
+
+        /**
+         * 広がる先を決まった数だけ調べ、置く水をチャンクごとにまとめて送る。残りがあれば続きを後に回す
+         */
+        private void step(World world) {
+            scheduled = false;
+            if (cancelled) {
+                return;
+            }
+            Map<Long, List<BlockChange>> changes = new HashMap<>();
+            int processed = 0;
+            Long column;
+            while (processed < STEP_COLUMNS && (column = frontier.poll()) != null) {
+                int x = (int) (column >> 32);
+                int z = (int) (long) column;
+                long key = chunkKey(x >> 4, z >> 4);
+                ChunkSnapshot snapshot = chunks.get(key);
+                if (snapshot == null) {
+                    // 写しが届くまで止めておく（読み込まれていないチャンクには広げない）
+                    waiting.computeIfAbsent(key, k -> new ArrayList<>()).add(column);
+                    continue;
+                }
+                processed++;
+                if (!flood(snapshot, x, z, changes)) {
+                    continue;
+                }
+                enqueue(x + 1, z);
+                enqueue(x - 1, z);
+                enqueue(x, z + 1);
+                enqueue(x, z - 1);
+            }
+            for (Map.Entry<Long, List<BlockChange>> entry : changes.entrySet()) {
+                long key = entry.getKey();
+                queue.submit(new BlockChangeQueue.Batch(world, (int) (key >> 32), (int) key, entry.getValue(), undo, false));
+            }
+            if (!frontier.isEmpty() && !scheduled) {
+                scheduled = true;
+                lane.submit(() -> step(world));
+            }
+        }
+
+        /**
+         * 1つの列を調べ、予想の高さより低い陸地なら水を置く
+         * @return 水が広がる列（海か、浸水した陸地）の場合はtrue
+         */
+        private boolean flood(ChunkSnapshot snapshot, int x, int z, Map<Long, List<BlockChange>> changes) {
+            int localX = x & 15;
+            int localZ = z & 15;
+            if (isSea(snapshot, localX, localZ)) {
+                return true;
+            }
+            int top = snapshot.getHighestBlockYAt(localX, localZ);
+            int ground = top;
+            while (ground > seaSurface - 8 && !snapshot.getBlockType(localX, ground, localZ).isSolid()) {
+                ground--;
+            }
+            if (ground >= level) {
+                return false;
+            }
+            List<BlockChange> list = null;
+            for (int y = ground + 1; y <= level; y++) {
+                Material material = snapshot.getBlockType(localX, y, localZ);
+                // 空気だけを置き換え、元に戻すときに失われるものが無いようにする
+                if (material.isAir()) {
+                    if (list == null) {
+                        list = changes.computeIfAbsent(chunkKey(x >> 4, z >> 4), k -> new ArrayList<>());
+                    }
+                    list.add(BlockChange.set(x, y, z, material, Material.WATER));
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 海面の高さの水がある列かを返す
+         */
+        private boolean isSea(ChunkSnapshot snapshot, int localX, int localZ) {
+            int top = snapshot.getHighestBlockYAt(localX, localZ);
+            return Math.abs(top - seaSurface) <= 1 && snapshot.getBlockType(localX, top, localZ) == Material.WATER;
+        }
+
+        private void enqueue(int x, int z) {
+            double dx = x + 0.5 - site.x;
+            double dz = z + 0.5 - site.z;
+            if (dx * dx + dz * dz > settings.radius * settings.radius || visited.size() >= settings.maxColumns) {
+                return;
+            }
+            long column = ((long) x << 32) | (z & 0xFFFFFFFFL);
+            if (visited.add(column)) {
+                frontier.add(column);
+            }
+        }
+
+        private static long chunkKey(int chunkX, int chunkZ) {
+            return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * 写しを作るチャンクです。
+     */
+    private static final class ChunkRequest {
+        private final Flood flood;
+        private final int chunkX;
+        private final int chunkZ;
+
+        private ChunkRequest(Flood flood, int chunkX, int chunkZ) {
+            this.flood = flood;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+    }
+
+    /**
+     * 浸水している範囲で、水の流れを止めるリスナーです。
+     */
+    private static final class FlowListener implements Listener {
+        @EventHandler(ignoreCancelled = true)
+        public void onBlockFromTo(BlockFromToEvent event) {
+            Block block = event.getBlock();
+            if (block.getType() == Material.WATER && isFlooding(block)) {
+                event.setCancelled(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package mochineko.natural_disaster.visual;
+
+import mochineko.natural_disaster.Main;
+import mochineko.natural_disaster.api.P2PEEWAPI;
+import mochineko.natural_disaster.delivery.AlertRouter;
+import mochineko.natural_disaster.delivery.Regions;
+import mochineko.natural_disaster.delivery.SubscriptionIndex;
+import mochineko.natural_disaster.geo.IntensityEstimator;
+import mochineko.natural_disaster.geo.IntensityGrid;
+import mochineko.natural_disaster.message.MessageRenderer;
+import mochineko.natural_disaster.metrics.Metrics;
+import mochineko.natural_disaster.monitor.DisasterExecutor;
+import mochineko.natural_disaster.status.EarthquakeScaleType;
+import net.md_5.bungee.api.ChatMessageType;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 緊急地震速報の震源から広がるP波・S波を、ワールドにパーティクルで表示するクラスです。
+ * 波面の半径は {@link TravelTimeTable} から tick ごとに1回だけ求め、プレイヤーごとには見える範囲の弧だけを描画します。
+ * 描画は {@link TickBudget} の範囲で順番に行い、使い切ったプレイヤーは次の描画で先に回します。
+ * 地域ごとの主要動の到達までの秒数は、その地域を購読しているプレイヤーのアクションバーに表示します。
+ * 震度を推定している場合（{@link IntensityEstimator}）は、プレイヤーの現在地の推定震度も添えます。
+ */
+public final class WavefrontVisualizer {
+
+    /**
+     * 到達した後も秒数を表示しておく時間（ミリ秒）
+     */
+    private static final long ARRIVED_DISPLAY_MILLIS = 10_000L;
+
+    private static volatile Settings settings;
+    private static BukkitTask task;
+    // メインスレッドからのみ触る
+    private static final Map<String, Wave> waves = new LinkedHashMap<>();
+    private static int cursor;
+    private static long lastSecond;
+
+    private WavefrontVisualizer() {
+    }
+
+    /**
+     * 表示の設定を読み込み、表示を開始する関数。メインスレッドで呼ぶこと。
+     * @param section config.ymlの「visual」セクション
+     */
+    public static void configure(@Nullable ConfigurationSection section) {
+        stop();
+        if (section == null || !section.getBoolean("enabled", false)) {
+            return;
+        }
+        try {
+            settings = new Settings(section);
+        } catch (IllegalArgumentException e) {
+            Bukkit.getLogger().warning("揺れの表示の設定が正しくないため、表示しません：" + e.getMessage());
+            return;
+        }
+        task = Bukkit.getScheduler().runTaskTimer(Main.getPlugin(Main.class), WavefrontVisualizer::tick,
+                settings.intervalTicks, settings.intervalTicks);
+    }
+
+    /**
+     * 表示を停止する関数。メインスレッドで呼ぶこと。
+     */
+    public static void stop() {
+        settings = null;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        waves.clear();
+    }
+
+    /**
+     * 緊急地震速報の揺れの表示を始める関数。取得スレッドから呼ばれる。
+     * 同じ地震の続報の場合は、新しい震源で表示し直す。
+     */
+    public static void show(@Nonnull P2PEEWAPI api) {
+        Settings current = settings;
+        P2PEEWAPI.Earthquake earthquake = api.getEarthquake();
+        if (current == null || earthquake == null || earthquake.getOriginTime() == null) {
+            return;
+        }
+        Wave wave = new Wave(current, earthquake, api.getAreas());
+        DisasterExecutor.runSync("wavefront", () -> {
+            if (settings == current) {
+                waves.put(earthquake.getOriginTime(), wave);
+            }
+        });
+    }
+
+    /**
+     * 表示を1回進める。メインスレッドで、設定した間隔ごとに呼ばれる
+     */
+    private static void tick() {
+        Settings current = settings;
+        if (current == null || waves.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        waves.values().removeIf(wave -> !wave.update(current, now));
+        if (waves.isEmpty()) {
+            return;
+        }
+        World world = Bukkit.getWorld(current.world);
+        if (world != null) {
+            drawWavefronts(current, world);
+        }
+        long second = now / 1000;
+        if (current.countdown && second != lastSecond) {
+            lastSecond = second;
+            sendCountdowns(current, now);
+        }
+        Metrics.MAIN_THREAD.get("wavefront").observeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * ワールドにいるプレイヤーに、前回の続きから順番に波面を描画する
+     */
+    private static void drawWavefronts(Settings current, World world) {
+        List<Player> players = world.getPlayers();
+        int size = players.size();
+        if (size == 0) {
+            return;
+        }
+        current.budget.begin();
+        int start = cursor % size;
+        int served = 0;
+        while (served < size && !current.budget.isExhausted()) {
+            Player player = players.get((start + served) % size);
+            Location location = player.getLocation();
+            for (Wave wave : waves.values()) {
+                drawRing(current, world, player, location, wave, wave.pRadius, current.pParticle);
+                drawRing(current, world, player, location, wave, wave.sRadius, current.sParticle);
+            }
+            served++;
+        }
+        cursor = (start + served) % size;
+    }
+
+    /**
+     * 1人のプレイヤーに、1つの波面のうち見える範囲の弧だけを描画する。
+     * 波面は東西と南北で縮尺が違うため、縮尺をそろえた座標（km）で円として計算する
+     */
+    private static void drawRing(Settings current, World world, Player player, Location location, Wave wave,
+                                 double radius, @Nullable Particle particle) {
+        if (radius <= 0 || particle == null || !wave.visible) {
+            return;
+        }
+        double dx = (location.getX() - wave.x) / wave.scaleX;
+        double dz = (location.getZ() - wave.z) / wave.scaleZ;
+        double distance = Math.sqrt(dx * dx + dz * dz);
+        double view = current.viewDistance / Math.min(wave.scaleX, wave.scaleZ);
+        if (distance > radius + view || distance < radius - view) {
+            return;
+        }
+        double halfAngle = distance + radius <= view ? Math.PI
+                : Math.acos(Math.max(-1, Math.min(1, (radius * radius + distance * distance - view * view) / (2 * radius * distance))));
+        double step = current.spacing / (radius * Math.max(wave.scaleX, wave.scaleZ));
+        int points = (int) Math.ceil(2 * halfAngle / step);
+        int allowed = current.budget.take(Math.min(points, current.maxPerPlayer));
+        if (allowed <= 0) {
+            return;
+        }
+        step = 2 * halfAngle / allowed;
+        double center = Math.atan2(dz, dx);
+        double viewSquared = current.viewDistance * current.viewDistance;
+        int drawn = 0;
+        for (int i = 0; i < allowed; i++) {
+            double angle = center - halfAngle + step * (i + 0.5);
+            double x = wave.x + radius * Math.cos(angle) * wave.scaleX;
+            double z = wave.z + radius * Math.sin(angle) * wave.scaleZ;
+            double px = x - location.getX();
+            double pz = z - location.getZ();
+            if (px * px + pz * pz > viewSquared) {
+                continue;
+            }
+            player.spawnParticle(particle, x, surfaceY(current, world, x, z, location.getY()), z, 1, 0, 0, 0, 0);
+            drawn++;
+        }
+        current.budget.refund(allowed - drawn);
+    }
+
+    private static double surfaceY(Settings current, World world, double x, double z, double fallback) {
+        if (!current.followTerrain) {
+            return current.y;
+        }
+        int blockX = (int) Math.floor(x);
+        int blockZ = (int) Math.floor(z);
+        // 読み込まれていないチャンクは読み込まない
+        if (!world.isChunkLoaded(blockX >> 4, blockZ >> 4)) {
+            return fallback;
+        }
+        return world.getHighestBlockYAt(blockX, blockZ) + 1.5;
+    }
+
+    /**
+     * 主要動の到達までの秒数を、その地域を購読しているプレイヤーのアクションバーに表示する
+     */
+    private static void sendCountdowns(Settings current, long now) {
+        MessageRenderer renderer = MessageRenderer.get();
+        Map<Countdown, String> texts = new HashMap<>();
+        Map<EarthquakeScaleType, String> estimates = new EnumMap<>(EarthquakeScaleType.class);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            UUID uuid = player.getUniqueId();
+            Countdown nearest = null;
+            for (Wave wave : waves.values()) {
+                Countdown countdown = wave.nextFor(uuid, now);
+                if (countdown != null && (nearest == null || countdown.arrival < nearest.arrival)) {
+                    nearest = countdown;
+                }
+            }
+            if (nearest != null) {
+                Countdown target = nearest;
+                String text = texts.computeIfAbsent(target, countdown -> {
+                    long seconds = (countdown.arrival - now + 999) / 1000;
+                    return seconds > 0
+                            ? renderer.format("visual.countdown", Map.of("area", countdown.name, "seconds", seconds))
+                            : renderer.format("visual.arrived", Map.of("area", countdown.name));
+                });
+                if (target.grid != null && player.getWorld().getName().equals(current.world)) {
+                    Location location = player.getLocation();
+                    EarthquakeScaleType scale = target.grid.getScale(
+                            current.projection.toLatitude(location.getZ()), current.projection.toLongitude(location.getX()));
+                    if (scale != EarthquakeScaleType.UNKNOWN) {
+                        text += estimates.computeIfAbsent(scale, type -> renderer.format("visual.estimated", Map.of("scale", type.getName())));
+                    }
+                }
+                player.spigot().sendMessage(ChatMessageType.ACTION_BAR, TextComponent.fromLegacyText(text));
+            }
+        }
+    }
+
+    /**
+     * 設定の値をまとめたクラスです。読み込み直すと作り直されます。
+     */
+    private static final class Settings {
+        private final String world;
+        private final WorldProjection projection;
+        private final TravelTimeTable table;
+        private final TickBudget budget;
+        private final long intervalTicks;
+        private final double viewDistance;
+        private final double spacing;
+        private final int maxPerPlayer;
+        private final boolean followTerrain;
+        private final double y;
+        private final boolean countdown;
+        @Nullable
+        private final Particle pParticle;
+        @Nullable
+        private final Particle sParticle;
+
+        private Settings(ConfigurationSection section) {
+            world = section.getString("world", "world");
+            ConfigurationSection map = section.getConfigurationSection("map");
+            if (map == null) {
+                throw new IllegalArgumentException("「map」がありません");
+            }
+            projection = WorldProjection.of(map);
+            table = new TravelTimeTable(section.getDouble("p-velocity", 6.0), section.getDouble("s-velocity", 3.5),
+                    Math.max(10, section.getDouble("max-seconds", 240)));
+            budget = new TickBudget((long) (Math.max(0.1, section.getDouble("max-millis-per-tick", 2.0)) * 1_000_000L),
+                    Math.max(1, section.getInt("max-particles-per-tick", 4000)));
+            intervalTicks = Math.max(1, section.getLong("interval-ticks", 2));
+            viewDistance = Math.max(8, section.getDouble("view-distance", 64));
+            spacing = Math.max(0.5, section.getDouble("spacing", 2.0));
+            maxPerPlayer = Math.max(1, section.getInt("max-particles-per-player", 200));
+            followTerrain = section.getBoolean("follow-terrain", true);
+            y = section.getDouble("y", 100);
+            countdown = section.getBoolean("countdown", true);
+            pParticle = particle(section.getString("p-particle", "END_ROD"));
+            sParticle = particle(section.getString("s-particle", "FLAME"));
+        }
+
+        @Nullable
+        private static Particle particle(@Nullable String name) {
+            if (name == null || name.isEmpty() || name.equalsIgnoreCase("none")) {
+                return null;
+            }
+            try {
+                Particle particle = Particle.valueOf(name.toUpperCase(Locale.ROOT));
+                if (particle.getDataType() != Void.class) {
+                    throw new IllegalArgumentException("追加のデータが必要なパーティクルは使えません：" + name);
+                }
+                return particle;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("パーティクルの名前が正しくありません：" + name);
+            }
+        }
+    }
+
+    /**
+     * 1つの地震の表示の状態です。作成は取得スレッド、更新はメインスレッドで行います。
+     */
+    private static final class Wave {
+        private final double x;
+        private final double z;
+        private final double scaleX;
+        private final double scaleZ;
+        private final double depth;
+        private final double farthest;
+        private final long origin;
+        private final boolean visible;
+        private final List<Countdown> countdowns = new ArrayList<>();
+        // 地域が一致したプレイヤーと、そのプレイヤー向けの地域
+        private final Map<UUID, Set<String>> subscribers;
+        private final boolean defaultAll;
+        private double pRadius = -1;
+        private double sRadius = -1;
+
+        private Wave(Settings settings, P2PEEWAPI.Earthquake earthquake, @Nullable P2PEEWAPI.Area[] areas) {
+            P2PEEWAPI.Earthquake.Hypocenter hypocenter = earthquake.getHypocenter();
+            double latitude = hypocenter == null ? Double.NaN : hypocenter.getLatitude();
+            double longitude = hypocenter == null ? Double.NaN : hypocenter.getLongitude();
+            // 震源が不明な場合や表示する範囲の外の場合は、秒数だけを表示する
+            visible = hypocenter != null && hypocenter.getDepth() >= 0 && settings.projection.contains(latitude, longitude);
+            x = visible ? settings.projection.toX(longitude) : 0;
+            z = visible ? settings.projection.toZ(latitude) : 0;
+            scaleX = visible ? settings.projection.blocksPerKmX(latitude) : 1;
+            scaleZ = settings.projection.blocksPerKmZ();
+            depth = visible ? hypocenter.getDepth() : 0;
+            farthest = visible ? settings.projection.farthestKm(latitude, longitude) : 0;
+            origin = earthquake.getOriginZonedDateTime().toInstant().toEpochMilli();
+            // 通知のときに推定していれば、キャッシュから返る
+            IntensityGrid grid = IntensityEstimator.estimate(hypocenter);
+
+            Set<String> regions = new HashSet<>();
+            if (areas != null) {
+                for (P2PEEWAPI.Area area : areas) {
+                    ZonedDateTime arrival = area.getArrivalZonedDateTime();
+                    String region = Regions.ofPrefecture(area.getPref());
+                    if (arrival != null) {
+                        countdowns.add(new Countdown(area.getName(), region, arrival.toInstant().toEpochMilli(), grid));
+                    }
+                    if (region != null) {
+                        regions.add(region);
+                    }
+                }
+            }
+            countdowns.sort(Comparator.comparingLong(countdown -> countdown.arrival));
+            subscribers = SubscriptionIndex.match(regions);
+            defaultAll = AlertRouter.isDefaultAll();
+        }
+
+        /**
+         * 波面の半径を進める
+         * @return 表示を続ける場合はtrue
+         */
+        private boolean update(Settings settings, long now) {
+            double seconds = (now - origin) / 1000.0;
+            pRadius = visible ? settings.table.radius(TravelTimeTable.Phase.P, depth, seconds) : -1;
+            sRadius = visible ? settings.table.radius(TravelTimeTable.Phase.S, depth, seconds) : -1;
+            boolean spreading = visible && seconds < settings.table.getMaxSeconds() && (sRadius < 0 || sRadius <= farthest);
+            boolean counting = !countdowns.isEmpty() && countdowns.get(countdowns.size() - 1).arrival + ARRIVED_DISPLAY_MILLIS > now;
+            return spreading || counting;
+        }
+
+        /**
+         * プレイヤーに表示する、次に主要動が到達する地域を返す
+         * @return 表示しない場合はnull
+         */
+        @Nullable
+        private Countdown nextFor(UUID uuid, long now) {
+            Set<String> regions = subscribers.get(uuid);
+            boolean all = regions == null ? defaultAll && !SubscriptionIndex.hasSubscriptions(uuid) : regions.contains(Regions.ALL);
+            if (regions == null && !all) {
+                return null;
+            }
+            for (Countdown countdown : countdowns) {
+                if (countdown.arrival + ARRIVED_DISPLAY_MILLIS > now && (all || countdown.region != null && regions.contains(countdown.region))) {
+                    return countdown;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 1つの地域の、主要動の到達予想時刻です。
+     */
+    private static final class Countdown {
+        private final String name;
+        @Nullable
+        private final String region;
+        private final long arrival;
+        // 地震の推定震度（推定していない場合はnull）
+        @Nullable
+        private final IntensityGrid grid;
+
+        private Countdown(String name, @Nullable String region, long arrival, @Nullable IntensityGrid grid) {
+            this.name = name;
+            this.region = region;
+            this.arrival = arrival;
+            this.grid = grid;
+        }
+    }
+}
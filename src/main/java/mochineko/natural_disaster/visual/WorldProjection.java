@@ -0,0 +1,106 @@
+package mochineko.natural_disaster.visual;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 緯度・経度を、ワールドの座標に対応させるクラスです。
+ * 設定した緯度・経度の範囲を、設定したX・Z座標の範囲にそのまま引き伸ばします（北が -Z）。
+ */
+final class WorldProjection {
+
+    private static final double KM_PER_LATITUDE = 110.57;
+    private static final double KM_PER_LONGITUDE_AT_EQUATOR = 111.32;
+
+    private final double north;
+    private final double south;
+    private final double west;
+    private final double east;
+    private final double minX;
+    private final double maxX;
+    private final double minZ;
+    private final double maxZ;
+
+    private WorldProjection(double north, double south, double west, double east,
+                            double minX, double maxX, double minZ, double maxZ) {
+        this.north = north;
+        this.south = south;
+        this.west = west;
+        this.east = east;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minZ = minZ;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * 設定から作成する関数
+     * @param section config.ymlの「visual.map」セクション
+     * @throws IllegalArgumentException 範囲が正しくない場合
+     */
+    @Nonnull
+    static WorldProjection of(@Nonnull ConfigurationSection section) {
+        WorldProjection projection = new WorldProjection(
+                section.getDouble("north", 46.0), section.getDouble("south", 24.0),
+                section.getDouble("west", 122.0), section.getDouble("east", 146.0),
+                section.getDouble("min-x", -2000), section.getDouble("max-x", 2000),
+                section.getDouble("min-z", -2000), section.getDouble("max-z", 2000));
+        if (projection.north <= projection.south || projection.east <= projection.west
+                || projection.maxX <= projection.minX || projection.maxZ <= projection.minZ) {
+            throw new IllegalArgumentException("表示する範囲が正しくありません");
+        }
+        return projection;
+    }
+
+    boolean contains(double latitude, double longitude) {
+        return latitude >= south && latitude <= north && longitude >= west && longitude <= east;
+    }
+
+    double toX(double longitude) {
+        return minX + (longitude - west) / (east - west) * (maxX - minX);
+    }
+
+    double toZ(double latitude) {
+        return minZ + (north - latitude) / (north - south) * (maxZ - minZ);
+    }
+
+    /**
+     * ワールドのX座標を経度に戻す関数
+     */
+    double toLongitude(double x) {
+        return west + (x - minX) / (maxX - minX) * (east - west);
+    }
+
+    /**
+     * ワールドのZ座標を緯度に戻す関数
+     */
+    double toLatitude(double z) {
+        return north - (z - minZ) / (maxZ - minZ) * (north - south);
+    }
+
+    /**
+     * 指定した緯度での、東西方向の1kmあたりのブロック数を返す関数
+     */
+    double blocksPerKmX(double latitude) {
+        double kmPerDegree = KM_PER_LONGITUDE_AT_EQUATOR * Math.cos(Math.toRadians(latitude));
+        return (maxX - minX) / (east - west) / kmPerDegree;
+    }
+
+    /**
+     * 南北方向の1kmあたりのブロック数を返す関数
+     */
+    double blocksPerKmZ() {
+        return (maxZ - minZ) / (north - south) / KM_PER_LATITUDE;
+    }
+
+    /**
+     * 指定した地点から、表示する範囲の最も遠い角までの距離を返す関数
+     * @return 距離（km）
+     */
+    double farthestKm(double latitude, double longitude) {
+        double dx = Math.max(longitude - west, east - longitude) * KM_PER_LONGITUDE_AT_EQUATOR * Math.cos(Math.toRadians(latitude));
+        double dz = Math.max(latitude - south, north - latitude) * KM_PER_LATITUDE;
+        return Math.sqrt(dx * dx + dz * dz);
+    }
+}